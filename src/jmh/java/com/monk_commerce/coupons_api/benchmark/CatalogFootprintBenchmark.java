@@ -0,0 +1,73 @@
+package com.monk_commerce.coupons_api.benchmark;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap held by a compiled catalog, and the cost of publishing one change to it.
+ * <p>
+ * The trial setup prints the retained bytes per coupon, split into the rules themselves
+ * and the catalog's indexes over them, measured as the used heap after a full GC as each
+ * is released again. Run with
+ * {@code mvn -Pbenchmarks test-compile exec:exec -Djmh.args="CatalogFootprintBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+// The serial collector compacts fully, so the used heap after a GC is exactly what is reachable
+@Fork(value = 1, jvmArgs = {"-Xms3g", "-Xmx3g", "-XX:+UseSerialGC"})
+public class CatalogFootprintBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int catalogSize;
+
+    @Param({"2:5:3", "0:1:0"})
+    private String typeMix;
+
+    private List<CouponRule> rules;
+    private CouponCatalog catalog;
+    private CouponRule.ProductWise changed;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Only the rules stay reachable, not the per-type lists
+        rules = List.copyOf(new SyntheticCatalog(catalogSize, typeMix, 42).rules);
+        catalog = CouponCatalog.of(1, rules);
+        long withCatalog = usedHeap();
+        catalog = null;
+        long withRules = usedHeap();
+        rules = null;
+        long empty = usedHeap();
+        System.out.printf("%n%d coupons: %.1f bytes per coupon in rules, %.1f in the catalog indexes%n",
+                catalogSize, (double) (withRules - empty) / catalogSize, (double) (withCatalog - withRules) / catalogSize);
+        rules = List.copyOf(new SyntheticCatalog(catalogSize, typeMix, 42).rules);
+        catalog = CouponCatalog.of(1, rules);
+        changed = new CouponRule.ProductWise(catalogSize + 1L, 10, CouponRule.Stacking.NONE, 1L);
+        version = 1;
+    }
+
+    /**
+     * One coupon created or updated: a new catalog version sharing the untouched state.
+     */
+    @Benchmark
+    public CouponCatalog publishOne() {
+        return catalog.withRule(++version, changed);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,136 @@
+package com.monk_commerce.coupons_api.benchmark;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponValidityScheduler;
+import com.monk_commerce.coupons_api.dto.ApplicableCoupon;
+import com.monk_commerce.coupons_api.dto.CartRequest;
+import com.monk_commerce.coupons_api.dto.UpdatedCart;
+import com.monk_commerce.coupons_api.metrics.CouponMetrics;
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.service.ApplicableCouponsCache;
+import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.PartitionedEvaluator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot path of the coupon service over synthetic catalogs. The catalog is installed
+ * directly in the snapshot holder, so the numbers exclude the database entirely.
+ * <p>
+ * Run with {@code mvn -Pbenchmarks test-compile exec:exec}; the default arguments add the
+ * gc profiler for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class CouponEvaluationBenchmark {
+
+    private static final int CARTS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    private int catalogSize;
+
+    @Param({"1", "20", "500"})
+    private int cartLines;
+
+    @Param({"2:5:3"})
+    private String typeMix;
+
+    // Fork/join threads for partitioned evaluation; 1 keeps every request sequential
+    @Param({"1"})
+    private int parallelism;
+
+    private CouponService couponService;
+    private CouponCatalog catalog;
+    private CartRequest[] carts;
+    private CartRequest[] productWiseCarts;
+    private Long[] productWiseIds;
+    private CartRequest[] bxGyCarts;
+    private Long[] bxGyIds;
+    private Long[] cartWiseIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCatalog synthetic = new SyntheticCatalog(catalogSize, typeMix, 42);
+        CouponCatalogHolder catalogHolder = new CouponCatalogHolder();
+        ReflectionTestUtils.setField(catalogHolder, "validityScheduler", new CouponValidityScheduler());
+        catalogHolder.reload(synthetic.rules);
+        couponService = new CouponService();
+        ReflectionTestUtils.setField(couponService, "catalogHolder", catalogHolder);
+        ReflectionTestUtils.setField(couponService, "couponMetrics", CouponMetrics.noop());
+        ReflectionTestUtils.setField(couponService, "money", Money.DEFAULT);
+        ReflectionTestUtils.setField(couponService, "applicableCouponsCache", ApplicableCouponsCache.disabled());
+        ReflectionTestUtils.setField(couponService, "partitionedEvaluator", new PartitionedEvaluator(parallelism, 1024, 500));
+        catalog = couponService.getCatalog();
+
+        carts = new CartRequest[CARTS];
+        productWiseCarts = new CartRequest[CARTS];
+        productWiseIds = new Long[CARTS];
+        bxGyCarts = new CartRequest[CARTS];
+        bxGyIds = new Long[CARTS];
+        cartWiseIds = new Long[CARTS];
+        for (int i = 0; i < CARTS; i++) {
+            carts[i] = synthetic.randomCart(cartLines);
+            if (!synthetic.productWise.isEmpty()) {
+                var rule = synthetic.productWise.get(i % synthetic.productWise.size());
+                productWiseIds[i] = rule.id();
+                productWiseCarts[i] = synthetic.cartFor(rule, cartLines);
+            }
+            if (!synthetic.bxGy.isEmpty()) {
+                var rule = synthetic.bxGy.get(i % synthetic.bxGy.size());
+                bxGyIds[i] = rule.id();
+                bxGyCarts[i] = synthetic.cartFor(rule, cartLines);
+            }
+            if (!synthetic.cartWise.isEmpty()) {
+                cartWiseIds[i] = synthetic.cartWise.get(i % synthetic.cartWise.size()).id();
+            }
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (CARTS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public List<ApplicableCoupon> getApplicableCoupons() {
+        return couponService.getApplicableCoupons(catalog, carts[nextIndex()]);
+    }
+
+    /**
+     * The storefront case: only the three best coupons.
+     */
+    @Benchmark
+    public List<ApplicableCoupon> getTopApplicableCoupons() {
+        return couponService.getApplicableCoupons(catalog, carts[nextIndex()], 3);
+    }
+
+    @Benchmark
+    public UpdatedCart applyCartWiseCoupon() {
+        int i = nextIndex();
+        return couponService.applyCoupon(catalog, cartWiseIds[i], carts[i]);
+    }
+
+    @Benchmark
+    public UpdatedCart applyProductWiseCoupon() {
+        int i = nextIndex();
+        return couponService.applyCoupon(catalog, productWiseIds[i], productWiseCarts[i]);
+    }
+
+    /**
+     * BxGy calculation on carts that satisfy the coupon, so the get-product pass runs.
+     */
+    @Benchmark
+    public UpdatedCart applyBxGyCoupon() {
+        int i = nextIndex();
+        return couponService.applyCoupon(catalog, bxGyIds[i], bxGyCarts[i]);
+    }
+}
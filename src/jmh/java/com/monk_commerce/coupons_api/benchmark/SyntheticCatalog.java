@@ -0,0 +1,100 @@
+package com.monk_commerce.coupons_api.benchmark;
+
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.Cart;
+import com.monk_commerce.coupons_api.dto.CartItem;
+import com.monk_commerce.coupons_api.dto.CartRequest;
+
+import java.util.*;
+
+/**
+ * Deterministic synthetic coupon catalogs and carts for the benchmarks.
+ */
+final class SyntheticCatalog {
+
+    final List<CouponRule> rules = new ArrayList<>();
+    final List<CouponRule.CartWise> cartWise = new ArrayList<>();
+    final List<CouponRule.ProductWise> productWise = new ArrayList<>();
+    final List<CouponRule.BxGy> bxGy = new ArrayList<>();
+    final long productCount;
+
+    private final Random random;
+
+    /**
+     * @param size    number of coupons
+     * @param typeMix relative weights as {@code cart-wise:product-wise:bxgy}, e.g. {@code 2:5:3}
+     */
+    SyntheticCatalog(int size, String typeMix, long seed) {
+        this.random = new Random(seed);
+        this.productCount = Math.max(1_000, size / 5);
+
+        int[] weights = Arrays.stream(typeMix.split(":")).mapToInt(Integer::parseInt).toArray();
+        int totalWeight = weights[0] + weights[1] + weights[2];
+        for (long id = 1; id <= size; id++) {
+            int pick = random.nextInt(totalWeight);
+            if (pick < weights[0]) {
+                CouponRule.CartWise rule = new CouponRule.CartWise(id, 5 + random.nextInt(20),
+                        CouponRule.Stacking.NONE, 50 * random.nextInt(40));
+                cartWise.add(rule);
+                rules.add(rule);
+            } else if (pick < weights[0] + weights[1]) {
+                CouponRule.ProductWise rule = new CouponRule.ProductWise(id, 5 + random.nextInt(40),
+                        CouponRule.Stacking.NONE, randomProduct());
+                productWise.add(rule);
+                rules.add(rule);
+            } else {
+                List<CouponRule.ProductQuantity> buyProducts = new ArrayList<>();
+                for (int i = 0, n = 1 + random.nextInt(2); i < n; i++) {
+                    buyProducts.add(new CouponRule.ProductQuantity(randomProduct(), 1 + random.nextInt(3)));
+                }
+                List<CouponRule.ProductQuantity> getProducts = List.of(new CouponRule.ProductQuantity(randomProduct(), 1));
+                CouponRule.BxGy rule = new CouponRule.BxGy(id, null, CouponRule.Stacking.NONE,
+                        1 + random.nextInt(3), List.copyOf(buyProducts), getProducts);
+                bxGy.add(rule);
+                rules.add(rule);
+            }
+        }
+    }
+
+    CartRequest randomCart(int lines) {
+        return cart(new ArrayList<>(), lines);
+    }
+
+    /**
+     * A cart that satisfies the buy requirements of {@code rule} and holds its get
+     * products, padded with random lines.
+     */
+    CartRequest cartFor(CouponRule.BxGy rule, int lines) {
+        List<CartItem> items = new ArrayList<>();
+        for (CouponRule.ProductQuantity buyProduct : rule.buyProducts()) {
+            items.add(new CartItem(buyProduct.productId(), buyProduct.quantity() * 3, randomPrice()));
+        }
+        for (CouponRule.ProductQuantity getProduct : rule.getProducts()) {
+            items.add(new CartItem(getProduct.productId(), 1, randomPrice()));
+        }
+        return cart(items, lines);
+    }
+
+    CartRequest cartFor(CouponRule.ProductWise rule, int lines) {
+        List<CartItem> items = new ArrayList<>();
+        items.add(new CartItem(rule.productId(), 1 + random.nextInt(5), randomPrice()));
+        return cart(items, lines);
+    }
+
+    private CartRequest cart(List<CartItem> items, int lines) {
+        while (items.size() < lines) {
+            items.add(new CartItem(randomProduct(), 1 + random.nextInt(5), randomPrice()));
+        }
+        Cart cart = new Cart();
+        cart.setItems(items);
+        return new CartRequest(cart);
+    }
+
+    private long randomProduct() {
+        return 1 + (long) random.nextInt((int) productCount);
+    }
+
+    private double randomPrice() {
+        return 1 + random.nextInt(50_000) / 100.0;
+    }
+}
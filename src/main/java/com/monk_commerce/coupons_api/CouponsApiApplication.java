@@ -2,8 +2,10 @@ package com.monk_commerce.coupons_api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CouponsApiApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,151 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.util.*;
+
+/**
+ * Cart-wise rules sorted by threshold, with a running best: {@code bestUpTo[i]} is the
+ * position of the rule with the highest percentage among the first {@code i + 1} rules,
+ * ties going to the lowest coupon id. A cart clears exactly a prefix of the sorted
+ * thresholds, so finding the eligible rules is a binary search and finding the best
+ * eligible rule is one more array read.
+ * <p>
+ * Immutable. {@link #with}, {@link #without} and {@link #withChanges} return a copy in
+ * linear time (plus sorting the added rules for the latter). Rules
+ * without a threshold or discount can never be evaluated and are left out.
+ */
+final class CartWiseIndex {
+
+    static final CartWiseIndex EMPTY = new CartWiseIndex(new CouponRule.CartWise[0]);
+
+    private static final Comparator<Long> ID_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+    private static final Comparator<CouponRule.CartWise> THRESHOLD_ORDER =
+            Comparator.comparing(CouponRule.CartWise::threshold).thenComparing(CouponRule::id, ID_ORDER);
+
+    private final CouponRule.CartWise[] rules;
+    private final int[] bestUpTo;
+
+    private CartWiseIndex(CouponRule.CartWise[] rules) {
+        this.rules = rules;
+        this.bestUpTo = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            bestUpTo[i] = i > 0 && !isBetter(rules[i], rules[bestUpTo[i - 1]]) ? bestUpTo[i - 1] : i;
+        }
+    }
+
+    static CartWiseIndex of(Collection<CouponRule.CartWise> cartWiseRules) {
+        CouponRule.CartWise[] sorted = cartWiseRules.stream()
+                .filter(CartWiseIndex::isIndexable)
+                .sorted(THRESHOLD_ORDER)
+                .toArray(CouponRule.CartWise[]::new);
+        return new CartWiseIndex(sorted);
+    }
+
+    int size() {
+        return rules.length;
+    }
+
+    /**
+     * The rules whose threshold {@code cartTotal} (in minor units) exceeds, in threshold order.
+     */
+    List<CouponRule.CartWise> eligible(long cartTotal, Money money) {
+        return Collections.unmodifiableList(Arrays.asList(rules).subList(0, eligibleCount(cartTotal, money)));
+    }
+
+    /**
+     * The eligible rule with the highest percentage, or {@code null} when none is eligible.
+     */
+    CouponRule.CartWise best(long cartTotal, Money money) {
+        int count = eligibleCount(cartTotal, money);
+        return count == 0 ? null : rules[bestUpTo[count - 1]];
+    }
+
+    List<CouponRule.CartWise> rules() {
+        return Collections.unmodifiableList(Arrays.asList(rules));
+    }
+
+    CartWiseIndex with(CouponRule.CartWise rule) {
+        if (!isIndexable(rule)) {
+            return this;
+        }
+        int position = -Arrays.binarySearch(rules, rule, THRESHOLD_ORDER) - 1;
+        if (position < 0) {
+            return this;
+        }
+        CouponRule.CartWise[] copy = new CouponRule.CartWise[rules.length + 1];
+        System.arraycopy(rules, 0, copy, 0, position);
+        copy[position] = rule;
+        System.arraycopy(rules, position, copy, position + 1, rules.length - position);
+        return new CartWiseIndex(copy);
+    }
+
+    CartWiseIndex without(CouponRule.CartWise rule) {
+        if (!isIndexable(rule)) {
+            return this;
+        }
+        int position = Arrays.binarySearch(rules, rule, THRESHOLD_ORDER);
+        if (position < 0) {
+            return this;
+        }
+        CouponRule.CartWise[] copy = new CouponRule.CartWise[rules.length - 1];
+        System.arraycopy(rules, 0, copy, 0, position);
+        System.arraycopy(rules, position + 1, copy, position, rules.length - position - 1);
+        return new CartWiseIndex(copy);
+    }
+
+    /**
+     * Drops {@code removed} (the indexed instances) and merges in {@code added}, for
+     * changing many rules at once without shifting the array per rule.
+     */
+    CartWiseIndex withChanges(Collection<CouponRule.CartWise> removed, Collection<CouponRule.CartWise> added) {
+        Set<CouponRule.CartWise> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        dropped.addAll(removed);
+        CouponRule.CartWise[] additions = added.stream()
+                .filter(CartWiseIndex::isIndexable)
+                .sorted(THRESHOLD_ORDER)
+                .toArray(CouponRule.CartWise[]::new);
+        CouponRule.CartWise[] merged = new CouponRule.CartWise[rules.length + additions.length];
+        int size = 0;
+        int next = 0;
+        for (CouponRule.CartWise rule : rules) {
+            if (dropped.contains(rule)) {
+                continue;
+            }
+            while (next < additions.length && THRESHOLD_ORDER.compare(additions[next], rule) < 0) {
+                merged[size++] = additions[next++];
+            }
+            merged[size++] = rule;
+        }
+        while (next < additions.length) {
+            merged[size++] = additions[next++];
+        }
+        return new CartWiseIndex(size == merged.length ? merged : Arrays.copyOf(merged, size));
+    }
+
+    /**
+     * Number of rules, from the start, whose threshold is below {@code cartTotal}.
+     */
+    private int eligibleCount(long cartTotal, Money money) {
+        int low = 0;
+        int high = rules.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cartTotal > money.toMinor(rules[mid].threshold())) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isBetter(CouponRule.CartWise rule, CouponRule.CartWise best) {
+        int byDiscount = Integer.compare(rule.discount(), best.discount());
+        return byDiscount > 0 || (byDiscount == 0 && ID_ORDER.compare(rule.id(), best.id()) < 0);
+    }
+
+    private static boolean isIndexable(CouponRule.CartWise rule) {
+        return rule.threshold() != null && rule.discount() != null;
+    }
+}
@@ -0,0 +1,238 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.model.RuleDefinition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compiled coupon rules written to a compact binary file, so a node can rebuild its
+ * catalog without reading every coupon from the database.
+ * <p>
+ * Besides the rules that are live or waiting to activate, a snapshot lists the ids of
+ * coupons it deliberately leaves out (expired ones), and the time it was taken, so that
+ * only coupons changed since then need to be read back. The file is a fixed header, the
+ * rules, the omitted ids and a CRC-32 of everything before it. It is written to a
+ * temporary file and moved into place, and read through a memory mapping.
+ *
+ * @param takenAt    no coupon changed after this time is reflected in the snapshot
+ * @param rules      rules that are live or waiting to activate
+ * @param omittedIds coupons that existed but were left out
+ */
+public record CatalogSnapshot(Instant takenAt, List<CouponRule> rules, Set<Long> omittedIds) {
+
+    private static final int MAGIC = 0x43504E53;
+    // 2 added custom rules
+    private static final int FORMAT = 2;
+
+    private static final byte CART_WISE = 0;
+    private static final byte PRODUCT_WISE = 1;
+    private static final byte BXGY = 2;
+    private static final byte CUSTOM = 3;
+
+    public void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(takenAt.getEpochSecond());
+            out.writeInt(takenAt.getNano());
+            out.writeInt(rules.size());
+            for (CouponRule rule : rules) {
+                writeRule(out, rule);
+            }
+            out.writeInt(omittedIds.size());
+            for (Long id : omittedIds) {
+                out.writeLong(id);
+            }
+            out.flush();
+            // Written past the checked stream, so the checksum does not cover itself
+            long checksum = checked.getChecksum().getValue();
+            out = new DataOutputStream(file);
+            out.writeLong(checksum);
+            out.flush();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}.
+     *
+     * @throws IOException if the file cannot be read, is corrupt or has another format
+     */
+    public static CatalogSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < Long.BYTES + 2 * Integer.BYTES) {
+                throw new IOException("Catalog snapshot is truncated: " + path);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.limit() - Long.BYTES));
+            if (crc.getValue() != buffer.getLong(buffer.limit() - Long.BYTES)) {
+                throw new IOException("Catalog snapshot checksum mismatch: " + path);
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                throw new IOException("Not a catalog snapshot of format " + FORMAT + ": " + path);
+            }
+            try {
+                Instant takenAt = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+                int ruleCount = buffer.getInt();
+                List<CouponRule> rules = new ArrayList<>(ruleCount);
+                for (int i = 0; i < ruleCount; i++) {
+                    rules.add(readRule(buffer));
+                }
+                int omittedCount = buffer.getInt();
+                Set<Long> omittedIds = new HashSet<>(omittedCount * 2);
+                for (int i = 0; i < omittedCount; i++) {
+                    omittedIds.add(buffer.getLong());
+                }
+                return new CatalogSnapshot(takenAt, rules, omittedIds);
+            } catch (RuntimeException e) {
+                throw new IOException("Catalog snapshot is malformed: " + path, e);
+            }
+        }
+    }
+
+    private static void writeRule(DataOutputStream out, CouponRule rule) throws IOException {
+        out.writeByte(rule instanceof CouponRule.CartWise ? CART_WISE : rule instanceof CouponRule.ProductWise ? PRODUCT_WISE
+                : rule instanceof CouponRule.BxGy ? BXGY : CUSTOM);
+        writeLong(out, rule.id());
+        writeInt(out, rule.discount());
+        out.writeBoolean(rule.stacking().stackable());
+        writeString(out, rule.stacking().exclusiveGroup());
+        writeInt(out, rule.limits().global());
+        writeInt(out, rule.limits().perUser());
+        writeInstant(out, rule.validity().from());
+        writeInstant(out, rule.validity().until());
+        if (rule instanceof CouponRule.CartWise cartWise) {
+            writeInt(out, cartWise.threshold());
+        } else if (rule instanceof CouponRule.ProductWise productWise) {
+            writeLong(out, productWise.productId());
+        } else if (rule instanceof CouponRule.BxGy bxGy) {
+            writeInt(out, bxGy.repetitionLimit());
+            writeProducts(out, bxGy.buyProducts());
+            writeProducts(out, bxGy.getProducts());
+        } else if (rule instanceof CouponRule.Custom custom) {
+            // Compiled again on restore, which is cheap next to reading the coupon
+            writeString(out, custom.definition().toJson());
+        }
+    }
+
+    private static CouponRule readRule(ByteBuffer in) {
+        byte type = in.get();
+        Long id = readLong(in);
+        Integer discount = readInt(in);
+        boolean stackable = in.get() != 0;
+        String exclusiveGroup = readString(in);
+        CouponRule.Stacking stacking = !stackable && exclusiveGroup == null
+                ? CouponRule.Stacking.NONE : new CouponRule.Stacking(stackable, exclusiveGroup);
+        Integer global = readInt(in);
+        Integer perUser = readInt(in);
+        CouponRule.RedemptionLimits limits = global == null && perUser == null
+                ? CouponRule.RedemptionLimits.NONE : new CouponRule.RedemptionLimits(global, perUser);
+        Instant from = readInstant(in);
+        Instant until = readInstant(in);
+        CouponRule.Validity validity = from == null && until == null
+                ? CouponRule.Validity.ALWAYS : new CouponRule.Validity(from, until);
+        return switch (type) {
+            case CART_WISE -> new CouponRule.CartWise(id, discount, stacking, limits, validity, readInt(in));
+            case PRODUCT_WISE -> new CouponRule.ProductWise(id, discount, stacking, limits, validity, readLong(in));
+            case BXGY -> new CouponRule.BxGy(id, discount, stacking, limits, validity, readInt(in),
+                    readProducts(in), readProducts(in));
+            case CUSTOM -> new CouponRule.Custom(id, stacking, limits, validity, RuleDefinition.fromJson(readString(in)));
+            default -> throw new IllegalStateException("Unknown rule type " + type);
+        };
+    }
+
+    private static void writeProducts(DataOutputStream out, List<CouponRule.ProductQuantity> products) throws IOException {
+        out.writeInt(products.size());
+        for (CouponRule.ProductQuantity product : products) {
+            writeLong(out, product.productId());
+            writeInt(out, product.quantity());
+        }
+    }
+
+    private static List<CouponRule.ProductQuantity> readProducts(ByteBuffer in) {
+        int count = in.getInt();
+        List<CouponRule.ProductQuantity> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(new CouponRule.ProductQuantity(readLong(in), readInt(in)));
+        }
+        return List.copyOf(products);
+    }
+
+    // Nullable values are preceded by a presence byte
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(ByteBuffer in) {
+        return in.get() != 0 ? in.getInt() : null;
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(ByteBuffer in) {
+        return in.get() != 0 ? in.getLong() : null;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static Instant readInstant(ByteBuffer in) {
+        return in.get() != 0 ? Instant.ofEpochSecond(in.getLong(), in.getInt()) : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,335 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.util.*;
+
+/**
+ * Immutable, versioned snapshot of the compiled coupon catalog.
+ * <p>
+ * Besides the rules by id, the snapshot carries an inverted index so a cart only
+ * evaluates the coupons that can touch one of its products: product-wise rules keyed
+ * by their product, BxGy rules keyed by each of their buy products, and the cart-wise
+ * rules sorted by threshold (see {@link CartWiseIndex}), so only the ones the cart total
+ * clears are returned. Custom rules are keyed by the products their conditions require.
+ * BxGy rules without buy products and custom rules requiring no product are always
+ * evaluated.
+ * <p>
+ * Rules live in a {@link SlotTable}, and both the id lookup and the product index are
+ * {@link LongIntMap}s into it, so a catalog of millions of coupons holds no boxed keys,
+ * map entries or lists per coupon: a product's bucket is an {@code int[]} of rule slots.
+ * Rules without an id cannot be looked up and are left out.
+ * <p>
+ * Changes never mutate a snapshot; {@link #withRule}, {@link #withoutRule} and
+ * {@link #withChanges} return a copy that shares every page and bucket the change does
+ * not touch with its predecessor.
+ */
+public final class CouponCatalog {
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final long version;
+    private final SlotTable<CouponRule> rules;
+    private final LongIntMap slotsById;
+    private CartWiseIndex cartWiseIndex;
+    private final LongIntMap bucketsByProduct;
+    private final SlotTable<int[]> buckets;
+    private final List<CouponRule> unconditionalRules;
+
+    private CouponCatalog(long version, SlotTable<CouponRule> rules, LongIntMap slotsById, CartWiseIndex cartWiseIndex,
+                          LongIntMap bucketsByProduct, SlotTable<int[]> buckets, List<CouponRule> unconditionalRules) {
+        this.version = version;
+        this.rules = rules;
+        this.slotsById = slotsById;
+        this.cartWiseIndex = cartWiseIndex;
+        this.bucketsByProduct = bucketsByProduct;
+        this.buckets = buckets;
+        this.unconditionalRules = unconditionalRules;
+    }
+
+    public static CouponCatalog of(long version, Collection<CouponRule> rules) {
+        // The threshold index is sorted once below rather than inserted one rule at a time
+        CouponCatalog catalog = new CouponCatalog(version, new SlotTable<>(rules.size()), new LongIntMap(rules.size()), null,
+                new LongIntMap(), new SlotTable<>(0), new ArrayList<>());
+        for (CouponRule rule : rules) {
+            catalog.index(rule);
+        }
+        catalog.cartWiseIndex = CartWiseIndex.of(catalog.cartWiseRules());
+        return catalog;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    public CouponRule getRule(Long id) {
+        int slot = id == null ? LongIntMap.ABSENT : slotsById.get(id);
+        return slot == LongIntMap.ABSENT ? null : rules.get(slot);
+    }
+
+    public Collection<CouponRule> getRules() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<CouponRule> iterator() {
+                return new Iterator<>() {
+                    private int slot = advance(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < rules.end();
+                    }
+
+                    @Override
+                    public CouponRule next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        CouponRule rule = rules.get(slot);
+                        slot = advance(slot + 1);
+                        return rule;
+                    }
+
+                    private int advance(int from) {
+                        while (from < rules.end() && rules.get(from) == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rules.size();
+            }
+        };
+    }
+
+    /**
+     * Returns every rule that may apply to a cart containing the given products with the
+     * given total (in minor units), deduplicated and ordered by coupon id.
+     */
+    public List<CouponRule> candidates(Collection<Long> productIds, long cartTotal, Money money) {
+        Map<Long, CouponRule> candidates = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (CouponRule rule : cartWiseIndex.eligible(cartTotal, money)) {
+            candidates.put(rule.id(), rule);
+        }
+        for (CouponRule rule : unconditionalRules) {
+            candidates.put(rule.id(), rule);
+        }
+        for (Long productId : productIds) {
+            for (int slot : bucket(productId)) {
+                CouponRule rule = rules.get(slot);
+                candidates.put(rule.id(), rule);
+            }
+        }
+        return new ArrayList<>(candidates.values());
+    }
+
+    /**
+     * Like {@link #candidates} without the cart-wise rules and in no particular order,
+     * for callers that take {@link #eligibleCartWiseRules} separately.
+     */
+    public Collection<CouponRule> itemCandidates(Collection<Long> productIds) {
+        Map<Long, CouponRule> candidates = new HashMap<>();
+        for (CouponRule rule : unconditionalRules) {
+            candidates.put(rule.id(), rule);
+        }
+        for (Long productId : productIds) {
+            for (int slot : bucket(productId)) {
+                CouponRule rule = rules.get(slot);
+                candidates.put(rule.id(), rule);
+            }
+        }
+        return candidates.values();
+    }
+
+    /**
+     * The cart-wise rule with the highest percentage among those the cart total (in minor
+     * units) clears, ties going to the lowest coupon id, or {@code null} if there is none.
+     */
+    public CouponRule.CartWise bestCartWiseRule(long cartTotal, Money money) {
+        return cartWiseIndex.best(cartTotal, money);
+    }
+
+    /**
+     * The cart-wise rules whose threshold the cart total (in minor units) clears, in
+     * threshold order; a binary search of the threshold index.
+     */
+    public List<CouponRule.CartWise> eligibleCartWiseRules(long cartTotal, Money money) {
+        return cartWiseIndex.eligible(cartTotal, money);
+    }
+
+    public CouponCatalog withRule(long newVersion, CouponRule rule) {
+        CouponCatalog copy = copy(newVersion);
+        copy.unindex(rule.id());
+        copy.index(rule);
+        return copy;
+    }
+
+    public CouponCatalog withoutRule(long newVersion, Long id) {
+        CouponCatalog copy = copy(newVersion);
+        copy.unindex(id);
+        return copy;
+    }
+
+    /**
+     * Adds or replaces {@code rules} and removes {@code removedIds} in a single copy, so a
+     * batch of changes costs one new version rather than one per rule.
+     */
+    public CouponCatalog withChanges(long newVersion, Collection<CouponRule> rules, Collection<Long> removedIds) {
+        CouponCatalog copy = copy(newVersion);
+        // The threshold index is merged once below rather than shifted per rule
+        copy.cartWiseIndex = null;
+        List<CouponRule.CartWise> removedCartWise = new ArrayList<>();
+        List<CouponRule.CartWise> addedCartWise = new ArrayList<>();
+        for (Long id : removedIds) {
+            if (getRule(id) instanceof CouponRule.CartWise cartWise) {
+                removedCartWise.add(cartWise);
+            }
+            copy.unindex(id);
+        }
+        for (CouponRule rule : rules) {
+            if (copy.getRule(rule.id()) instanceof CouponRule.CartWise cartWise && !addedCartWise.remove(cartWise)) {
+                removedCartWise.add(cartWise);
+            }
+            if (rule instanceof CouponRule.CartWise cartWise) {
+                addedCartWise.add(cartWise);
+            }
+            copy.unindex(rule.id());
+            copy.index(rule);
+        }
+        copy.cartWiseIndex = removedCartWise.isEmpty() && addedCartWise.isEmpty()
+                ? cartWiseIndex
+                : cartWiseIndex.withChanges(removedCartWise, addedCartWise);
+        return copy;
+    }
+
+    private CouponCatalog copy(long newVersion) {
+        return new CouponCatalog(newVersion, rules.copy(), slotsById.copy(), cartWiseIndex,
+                bucketsByProduct.copy(), buckets.copy(), new ArrayList<>(unconditionalRules));
+    }
+
+    private List<CouponRule.CartWise> cartWiseRules() {
+        List<CouponRule.CartWise> cartWiseRules = new ArrayList<>();
+        for (CouponRule rule : getRules()) {
+            if (rule instanceof CouponRule.CartWise cartWise) {
+                cartWiseRules.add(cartWise);
+            }
+        }
+        return cartWiseRules;
+    }
+
+    private int[] bucket(Long productId) {
+        int bucket = productId == null ? LongIntMap.ABSENT : bucketsByProduct.get(productId);
+        return bucket == LongIntMap.ABSENT ? NO_SLOTS : buckets.get(bucket);
+    }
+
+    private void index(CouponRule rule) {
+        if (rule.id() == null) {
+            return;
+        }
+        int slot = rules.add(rule);
+        slotsById.put(rule.id(), slot);
+        if (rule instanceof CouponRule.CartWise cartWise) {
+            if (cartWiseIndex != null) {
+                cartWiseIndex = cartWiseIndex.with(cartWise);
+            }
+        } else if (rule instanceof CouponRule.ProductWise productWise) {
+            addToBucket(productWise.productId(), slot);
+        } else if (rule instanceof CouponRule.BxGy bxGy) {
+            if (bxGy.buyProducts().isEmpty()) {
+                unconditionalRules.add(bxGy);
+            }
+            for (CouponRule.ProductQuantity buyProduct : bxGy.buyProducts()) {
+                addToBucket(buyProduct.productId(), slot);
+            }
+        } else if (rule instanceof CouponRule.Custom custom) {
+            long[] requiredProducts = custom.program().requiredProducts();
+            if (requiredProducts.length == 0) {
+                unconditionalRules.add(custom);
+            }
+            for (long productId : requiredProducts) {
+                addToBucket(productId, slot);
+            }
+        }
+    }
+
+    private void unindex(Long id) {
+        int slot = id == null ? LongIntMap.ABSENT : slotsById.remove(id);
+        if (slot == LongIntMap.ABSENT) {
+            return;
+        }
+        CouponRule rule = rules.release(slot);
+        if (rule instanceof CouponRule.CartWise cartWise) {
+            if (cartWiseIndex != null) {
+                cartWiseIndex = cartWiseIndex.without(cartWise);
+            }
+        } else if (rule instanceof CouponRule.ProductWise productWise) {
+            removeFromBucket(productWise.productId(), slot);
+        } else if (rule instanceof CouponRule.BxGy bxGy) {
+            unconditionalRules.remove(rule);
+            for (CouponRule.ProductQuantity buyProduct : bxGy.buyProducts()) {
+                removeFromBucket(buyProduct.productId(), slot);
+            }
+        } else if (rule instanceof CouponRule.Custom custom) {
+            unconditionalRules.remove(rule);
+            for (long productId : custom.program().requiredProducts()) {
+                removeFromBucket(productId, slot);
+            }
+        }
+    }
+
+    private void addToBucket(Long productId, int slot) {
+        if (productId == null) {
+            return;
+        }
+        int bucket = bucketsByProduct.get(productId);
+        if (bucket == LongIntMap.ABSENT) {
+            bucketsByProduct.put(productId, buckets.add(new int[]{slot}));
+            return;
+        }
+        // Buckets are never written in place, older snapshots may still read them
+        int[] slots = buckets.get(bucket);
+        if (indexOf(slots, slot) >= 0) {
+            return;
+        }
+        int[] grown = Arrays.copyOf(slots, slots.length + 1);
+        grown[slots.length] = slot;
+        buckets.replace(bucket, grown);
+    }
+
+    private void removeFromBucket(Long productId, int slot) {
+        int bucket = productId == null ? LongIntMap.ABSENT : bucketsByProduct.get(productId);
+        if (bucket == LongIntMap.ABSENT) {
+            return;
+        }
+        int[] slots = buckets.get(bucket);
+        int position = indexOf(slots, slot);
+        if (position < 0) {
+            return;
+        }
+        if (slots.length == 1) {
+            buckets.release(bucket);
+            bucketsByProduct.remove(productId);
+            return;
+        }
+        int[] shrunk = new int[slots.length - 1];
+        System.arraycopy(slots, 0, shrunk, 0, position);
+        System.arraycopy(slots, position + 1, shrunk, position, shrunk.length - position);
+        buckets.replace(bucket, shrunk);
+    }
+
+    private static int indexOf(int[] slots, int slot) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
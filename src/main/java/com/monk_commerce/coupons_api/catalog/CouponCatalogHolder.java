@@ -0,0 +1,258 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the current {@link CouponCatalog}. Readers take the snapshot with a single
+ * volatile read and never block; writers publish a new version under the holder's lock.
+ * <p>
+ * Only coupons inside their validity window are in the snapshot. The others wait in the
+ * {@link CouponValidityScheduler}, which hands their activation or expiry back here when
+ * it falls due; transitions due together are published as one new version.
+ * <p>
+ * With {@code coupons.catalog.mode=database} the snapshots hold no rules at all, only a
+ * version that every change still advances. Candidates are then queried per cart and
+ * validity is checked by those queries, so nothing is scheduled.
+ */
+@Component
+public class CouponCatalogHolder {
+
+    @Autowired
+    private CouponValidityScheduler validityScheduler;
+
+    @Value("${coupons.catalog.mode:memory}")
+    private String mode = "memory";
+    private boolean inMemory = true;
+
+    private volatile CouponCatalog current;
+    private long version;
+    // Generation of the transition each coupon is waiting for; stale transitions are ignored
+    private final Map<Long, Long> scheduled = new HashMap<>();
+    // Rules waiting for their activation, which are in no snapshot yet
+    private final Map<Long, CouponRule> waiting = new HashMap<>();
+    private long generation;
+
+    @PostConstruct
+    void init() {
+        inMemory = switch (mode) {
+            case "memory" -> true;
+            case "database" -> false;
+            default -> throw new IllegalStateException("coupons.catalog.mode must be memory or database: " + mode);
+        };
+    }
+
+    /**
+     * Whether snapshots hold the rules, rather than only a version.
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    /**
+     * Returns the current snapshot, loading it with {@code loader} if nothing has been
+     * published yet.
+     */
+    public CouponCatalog get(Supplier<Collection<CouponRule>> loader) {
+        CouponCatalog catalog = current;
+        if (catalog != null) {
+            return catalog;
+        }
+        synchronized (this) {
+            if (current == null) {
+                current = CouponCatalog.of(++version, inMemory ? admit(loader.get()) : List.of());
+            }
+            return current;
+        }
+    }
+
+    public CouponCatalog current() {
+        return current;
+    }
+
+    /**
+     * The rules of the current snapshot plus those waiting for their activation, that is
+     * every rule that is or will become live, for writing a {@link CatalogSnapshot}.
+     */
+    public synchronized List<CouponRule> admittedRules() {
+        if (current == null) {
+            return List.of();
+        }
+        List<CouponRule> rules = new ArrayList<>(current.getRules());
+        rules.addAll(waiting.values());
+        return rules;
+    }
+
+    /**
+     * Replaces the whole catalog, e.g. after a bulk reload.
+     */
+    public synchronized CouponCatalog reload(Collection<CouponRule> rules) {
+        current = CouponCatalog.of(++version, inMemory ? admit(rules) : List.of());
+        return current;
+    }
+
+    /**
+     * Adds or replaces the rule if it is inside its validity window, otherwise takes it out
+     * of the snapshot until it activates.
+     */
+    public void publish(CouponRule rule) {
+        apply(catalog -> schedule(rule, false)
+                ? catalog.withRule(version + 1, rule)
+                : catalog.withoutRule(version + 1, rule.id()));
+    }
+
+    /**
+     * Like {@link #publish} for many rules at once, as a single new version.
+     */
+    public void publishAll(Collection<CouponRule> rules) {
+        publishAll(rules, List.of());
+    }
+
+    /**
+     * Like {@link #publish} for {@code rules} and {@link #remove} for {@code removedIds},
+     * as a single new version.
+     */
+    public void publishAll(Collection<CouponRule> rules, Collection<Long> removedIds) {
+        apply(catalog -> {
+            List<CouponRule> live = new ArrayList<>(rules.size());
+            // Removed coupons and those that are not live yet both leave the snapshot
+            List<Long> removed = new ArrayList<>(removedIds);
+            for (Long id : removedIds) {
+                scheduled.remove(id);
+                waiting.remove(id);
+            }
+            for (CouponRule rule : rules) {
+                if (schedule(rule, false)) {
+                    live.add(rule);
+                } else {
+                    removed.add(rule.id());
+                }
+            }
+            return catalog.withChanges(version + 1, live, removed);
+        });
+    }
+
+    public void remove(Long id) {
+        apply(catalog -> {
+            scheduled.remove(id);
+            waiting.remove(id);
+            return catalog.withoutRule(version + 1, id);
+        });
+    }
+
+    /**
+     * Publishes the rule once the surrounding transaction commits, or right away when
+     * there is no transaction, so readers never see uncommitted coupons.
+     */
+    public void publishAfterCommit(CouponRule rule) {
+        afterCommit(() -> publish(rule));
+    }
+
+    public void removeAfterCommit(Long id) {
+        afterCommit(() -> remove(id));
+    }
+
+    /**
+     * Applies transitions the scheduler found due, skipping those superseded by a later
+     * publish or remove of the same coupon.
+     */
+    synchronized void applyTransitions(List<CouponValidityScheduler.Transition> due) {
+        if (current == null) {
+            return;
+        }
+        List<CouponRule> activated = new ArrayList<>();
+        List<Long> expired = new ArrayList<>();
+        for (CouponValidityScheduler.Transition transition : due) {
+            CouponRule rule = transition.rule();
+            if (!Objects.equals(scheduled.get(rule.id()), transition.generation())) {
+                continue;
+            }
+            if (!transition.activate()) {
+                scheduled.remove(rule.id());
+                expired.add(rule.id());
+            } else if (schedule(rule, true)) {
+                activated.add(rule);
+            }
+        }
+        if (!activated.isEmpty() || !expired.isEmpty()) {
+            current = current.withChanges(version + 1, activated, expired);
+            version = current.getVersion();
+        }
+    }
+
+    private List<CouponRule> admit(Collection<CouponRule> rules) {
+        validityScheduler.start(this::applyTransitions);
+        scheduled.clear();
+        waiting.clear();
+        List<CouponRule> live = new ArrayList<>(rules.size());
+        for (CouponRule rule : rules) {
+            if (schedule(rule, false)) {
+                live.add(rule);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Schedules the next transition of the rule and returns whether it is live now.
+     * {@code started} skips the activation, for rules whose activation just fired.
+     */
+    private boolean schedule(CouponRule rule, boolean started) {
+        waiting.remove(rule.id());
+        CouponRule.Validity validity = rule.validity();
+        if (!validity.isBounded()) {
+            scheduled.remove(rule.id());
+            return true;
+        }
+        long next = ++generation;
+        boolean live = true;
+        if (!started && validity.from() != null
+                && validityScheduler.schedule(validity.from(), new CouponValidityScheduler.Transition(rule, next, true))) {
+            waiting.put(rule.id(), rule);
+            live = false;
+        } else if (validity.until() == null) {
+            scheduled.remove(rule.id());
+            return true;
+        } else if (!validityScheduler.schedule(validity.until(), new CouponValidityScheduler.Transition(rule, next, false))) {
+            scheduled.remove(rule.id());
+            return false;
+        }
+        scheduled.put(rule.id(), next);
+        return live;
+    }
+
+    private synchronized void apply(UnaryOperator<CouponCatalog> change) {
+        // Nothing loaded yet: the first reader will load the committed state from the database
+        if (current == null) {
+            return;
+        }
+        current = inMemory ? change.apply(current) : CouponCatalog.of(version + 1, List.of());
+        version = current.getVersion();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.model.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, compiled form of a {@link Coupon}. Rules are detached from JPA so they can
+ * be shared between request threads without touching the persistence context.
+ * <p>
+ * A rule also evaluates itself against a cart, so every endpoint goes through the same
+ * methods below instead of branching on the coupon type. The three built-in types are
+ * templates evaluated by code written for them; a {@link Custom} rule runs the
+ * {@link RuleProgram} its definition was compiled into when the rule was built.
+ */
+public sealed interface CouponRule permits CouponRule.CartWise, CouponRule.ProductWise, CouponRule.BxGy, CouponRule.Custom {
+
+    /**
+     * Returned by {@link #evaluate} when the coupon does not apply to the cart.
+     */
+    long NOT_APPLICABLE = -1;
+
+    Long id();
+
+    Integer discount();
+
+    String type();
+
+    Stacking stacking();
+
+    RedemptionLimits limits();
+
+    Validity validity();
+
+    /**
+     * The coupon's discount on the cart in minor units, or {@link #NOT_APPLICABLE}.
+     */
+    long evaluate(EvaluationContext context);
+
+    /**
+     * At least {@link #evaluate} on the cart and no more expensive, so candidates that
+     * cannot rank can be skipped without evaluating them.
+     */
+    default long discountUpperBound(EvaluationContext context) {
+        return evaluate(context);
+    }
+
+    /**
+     * The discount when the coupon is applied to the cart by id: like {@link #evaluate},
+     * but a cart the coupon does not apply to gets nothing rather than an error, and a
+     * cart-wise coupon's threshold is not checked.
+     */
+    default long appliedDiscount(EvaluationContext context) {
+        return Math.max(0, evaluate(context));
+    }
+
+    /**
+     * The part of {@code discount} shown on one line of the cart the coupon is applied to.
+     */
+    default long lineDiscount(EvaluationContext context, EvaluationContext.Line line, long discount) {
+        return 0;
+    }
+
+    /**
+     * Units added for free to one line of the cart the coupon is applied to.
+     */
+    default int freeQuantity(EvaluationContext context, EvaluationContext.Line line) {
+        return 0;
+    }
+
+    /**
+     * Whether the discount is given as free units added to the cart, so the applied cart's
+     * total includes them, rather than taken off the cart's total.
+     */
+    default boolean addsItems() {
+        return false;
+    }
+
+    /**
+     * For a coupon taking a percentage off what is left of the cart total once item-level
+     * coupons are applied, that percentage; {@code null} for an item-level coupon.
+     */
+    default Integer cartPercent() {
+        return null;
+    }
+
+    /**
+     * The total (in major units) a cart-level coupon needs the rest of the cart to exceed,
+     * {@code null} for none.
+     */
+    default Integer cartThreshold() {
+        return null;
+    }
+
+    /**
+     * The products in the cart whose lines an item-level coupon discounts; two item-level
+     * coupons discounting the same product are never combined.
+     */
+    default Set<Long> discountedProducts(EvaluationContext context) {
+        return Set.of();
+    }
+
+    record CartWise(Long id, Integer discount, Stacking stacking, RedemptionLimits limits, Validity validity,
+                    Integer threshold) implements CouponRule {
+        public CartWise(Long id, Integer discount, Stacking stacking, Integer threshold) {
+            this(id, discount, stacking, RedemptionLimits.NONE, Validity.ALWAYS, threshold);
+        }
+
+        @Override
+        public String type() {
+            return "cart-wise";
+        }
+
+        @Override
+        public long evaluate(EvaluationContext context) {
+            return context.getCartTotal() > context.getMoney().toMinor(threshold) ? appliedDiscount(context) : NOT_APPLICABLE;
+        }
+
+        @Override
+        public long appliedDiscount(EvaluationContext context) {
+            return context.getMoney().percentOf(context.getCartTotal(), discount);
+        }
+
+        @Override
+        public Integer cartPercent() {
+            return discount;
+        }
+
+        @Override
+        public Integer cartThreshold() {
+            return threshold;
+        }
+    }
+
+    record ProductWise(Long id, Integer discount, Stacking stacking, RedemptionLimits limits, Validity validity,
+                       Long productId) implements CouponRule {
+        public ProductWise(Long id, Integer discount, Stacking stacking, Long productId) {
+            this(id, discount, stacking, RedemptionLimits.NONE, Validity.ALWAYS, productId);
+        }
+
+        @Override
+        public String type() {
+            return "product-wise";
+        }
+
+        @Override
+        public long evaluate(EvaluationContext context) {
+            EvaluationContext.Line line = context.getLine(productId);
+            return line == null ? NOT_APPLICABLE : context.getMoney().percentOf(line.total(), discount);
+        }
+
+        @Override
+        public long lineDiscount(EvaluationContext context, EvaluationContext.Line line, long discount) {
+            return Objects.equals(line.productId(), productId) ? context.getMoney().percentOf(line.total(), this.discount) : 0;
+        }
+
+        @Override
+        public Set<Long> discountedProducts(EvaluationContext context) {
+            return Collections.singleton(productId);
+        }
+    }
+
+    record BxGy(Long id, Integer discount, Stacking stacking, RedemptionLimits limits, Validity validity,
+                Integer repetitionLimit, List<ProductQuantity> buyProducts, List<ProductQuantity> getProducts) implements CouponRule {
+        public BxGy(Long id, Integer discount, Stacking stacking, Integer repetitionLimit,
+                    List<ProductQuantity> buyProducts, List<ProductQuantity> getProducts) {
+            this(id, discount, stacking, RedemptionLimits.NONE, Validity.ALWAYS, repetitionLimit, buyProducts, getProducts);
+        }
+
+        @Override
+        public String type() {
+            return "bxgy";
+        }
+
+        /**
+         * Units given for free: the multiples of each buy product's quantity in the cart,
+         * summed, up to the repetition limit; -1 when a buy product is short.
+         */
+        private int freeQuantity(EvaluationContext context) {
+            int totalBuyQuantity = 0;
+            for (ProductQuantity buyProduct : buyProducts) {
+                EvaluationContext.Line line = context.getLine(buyProduct.productId());
+                if (line == null || line.quantity() < buyProduct.quantity()) {
+                    return -1;
+                }
+                totalBuyQuantity += line.quantity() / buyProduct.quantity();
+            }
+            return Math.min(totalBuyQuantity, repetitionLimit);
+        }
+
+        @Override
+        public long evaluate(EvaluationContext context) {
+            int freeQuantity = freeQuantity(context);
+            if (freeQuantity < 0) {
+                return NOT_APPLICABLE;
+            }
+            long discount = 0;
+            for (ProductQuantity getProduct : getProducts) {
+                EvaluationContext.Line getLine = context.getLine(getProduct.productId());
+                if (getLine != null) {
+                    discount = Math.addExact(discount, context.getMoney().times(getLine.unitPrice(), freeQuantity));
+                }
+            }
+            return discount;
+        }
+
+        /**
+         * Every get product in the cart free up to the repetition limit, without checking
+         * the buy requirements.
+         */
+        @Override
+        public long discountUpperBound(EvaluationContext context) {
+            long unitPrices = 0;
+            for (ProductQuantity getProduct : getProducts) {
+                EvaluationContext.Line line = context.getLine(getProduct.productId());
+                if (line != null) {
+                    unitPrices = Math.addExact(unitPrices, line.unitPrice());
+                }
+            }
+            return context.getMoney().times(unitPrices, repetitionLimit);
+        }
+
+        @Override
+        public long lineDiscount(EvaluationContext context, EvaluationContext.Line line, long discount) {
+            // The last get product decides the discount, as the map-based response did
+            long lineDiscount = 0;
+            for (ProductQuantity getProduct : getProducts) {
+                lineDiscount = Objects.equals(line.productId(), getProduct.productId()) ? discount : 0;
+            }
+            return lineDiscount;
+        }
+
+        @Override
+        public int freeQuantity(EvaluationContext context, EvaluationContext.Line line) {
+            for (ProductQuantity getProduct : getProducts) {
+                if (Objects.equals(line.productId(), getProduct.productId())) {
+                    return Math.max(0, freeQuantity(context));
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean addsItems() {
+            return true;
+        }
+
+        @Override
+        public Set<Long> discountedProducts(EvaluationContext context) {
+            Set<Long> discountedProducts = new HashSet<>();
+            for (ProductQuantity getProduct : getProducts) {
+                if (context.getLine(getProduct.productId()) != null) {
+                    discountedProducts.add(getProduct.productId());
+                }
+            }
+            return discountedProducts;
+        }
+    }
+
+    /**
+     * A coupon described by a {@link RuleDefinition}, compiled when the rule is built.
+     * Its {@code discount} is always {@link RuleDefinition#discountPercent()} of the
+     * compiled rule, for display only.
+     */
+    record Custom(Long id, Integer discount, Stacking stacking, RedemptionLimits limits, Validity validity,
+                  RuleProgram program) implements CouponRule {
+
+        public Custom {
+            discount = program.definition().discountPercent();
+        }
+
+        public Custom(Long id, Stacking stacking, RedemptionLimits limits, Validity validity, RuleDefinition definition) {
+            this(id, null, stacking, limits, validity, RuleProgram.compile(definition));
+        }
+
+        @Override
+        public String type() {
+            return "custom";
+        }
+
+        public RuleDefinition definition() {
+            return program.definition();
+        }
+
+        @Override
+        public long evaluate(EvaluationContext context) {
+            return program.discount(context);
+        }
+
+        @Override
+        public long lineDiscount(EvaluationContext context, EvaluationContext.Line line, long discount) {
+            return program.lineDiscount(context, line);
+        }
+
+        @Override
+        public int freeQuantity(EvaluationContext context, EvaluationContext.Line line) {
+            return program.freeQuantity(context, line);
+        }
+
+        @Override
+        public boolean addsItems() {
+            return program.action() == RuleProgram.FREE_ITEMS;
+        }
+
+        @Override
+        public Integer cartPercent() {
+            return program.action() == RuleProgram.PERCENT_OFF_CART ? program.percent() : null;
+        }
+
+        @Override
+        public Integer cartThreshold() {
+            return program.threshold();
+        }
+
+        @Override
+        public Set<Long> discountedProducts(EvaluationContext context) {
+            return program.discountedProducts(context);
+        }
+    }
+
+    record ProductQuantity(Long productId, Integer quantity) {
+    }
+
+    /**
+     * Combination rules: a non-stackable coupon is only ever applied alone, and at most
+     * one coupon of an exclusive group is applied to a cart.
+     */
+    record Stacking(boolean stackable, String exclusiveGroup) {
+
+        public static final Stacking NONE = new Stacking(false, null);
+
+        public static Stacking of(Coupon coupon) {
+            if (!Boolean.TRUE.equals(coupon.getStackable()) && coupon.getExclusiveGroup() == null) {
+                return NONE;
+            }
+            return new Stacking(Boolean.TRUE.equals(coupon.getStackable()), coupon.getExclusiveGroup());
+        }
+    }
+
+    /**
+     * How many times a coupon may be redeemed in total and by one user; {@code null}
+     * means unlimited.
+     */
+    record RedemptionLimits(Integer global, Integer perUser) {
+
+        public static final RedemptionLimits NONE = new RedemptionLimits(null, null);
+
+        public static RedemptionLimits of(Coupon coupon) {
+            if (coupon.getMaxRedemptions() == null && coupon.getMaxRedemptionsPerUser() == null) {
+                return NONE;
+            }
+            return new RedemptionLimits(coupon.getMaxRedemptions(), coupon.getMaxRedemptionsPerUser());
+        }
+
+        public boolean isLimited() {
+            return global != null || perUser != null;
+        }
+    }
+
+    /**
+     * When a coupon may be applied: from {@code from} inclusive to {@code until} exclusive,
+     * {@code null} meaning unbounded on that side. Coupon timestamps are local date-times in
+     * the server's time zone.
+     */
+    record Validity(Instant from, Instant until) {
+
+        public static final Validity ALWAYS = new Validity(null, null);
+
+        public static Validity of(Coupon coupon) {
+            if (coupon.getValidFrom() == null && coupon.getValidUntil() == null) {
+                return ALWAYS;
+            }
+            return new Validity(toInstant(coupon.getValidFrom()), toInstant(coupon.getValidUntil()));
+        }
+
+        public boolean isBounded() {
+            return from != null || until != null;
+        }
+
+        public boolean contains(Instant instant) {
+            return (from == null || !instant.isBefore(from)) && (until == null || instant.isBefore(until));
+        }
+
+        private static Instant toInstant(LocalDateTime dateTime) {
+            return dateTime == null ? null : dateTime.atZone(ZoneId.systemDefault()).toInstant();
+        }
+    }
+
+    /**
+     * Compiles a coupon entity. Must run while the entity's collections can still be loaded.
+     */
+    static CouponRule compile(Coupon coupon) {
+        Stacking stacking = Stacking.of(coupon);
+        RedemptionLimits limits = RedemptionLimits.of(coupon);
+        Validity validity = Validity.of(coupon);
+        if (coupon instanceof CartWiseCoupon cartWiseCoupon) {
+            return new CartWise(coupon.getId(), coupon.getDiscount(), stacking, limits, validity, cartWiseCoupon.getThreshold());
+        } else if (coupon instanceof ProductWiseCoupon productWiseCoupon) {
+            return new ProductWise(coupon.getId(), coupon.getDiscount(), stacking, limits, validity, productWiseCoupon.getProductId());
+        } else if (coupon instanceof BxGyCoupon bxGyCoupon) {
+            List<ProductQuantity> buyProducts = bxGyCoupon.getBuyProducts().stream()
+                    .map(p -> new ProductQuantity(p.getProduct_id(), p.getQuantity()))
+                    .toList();
+            List<ProductQuantity> getProducts = bxGyCoupon.getGetProducts().stream()
+                    .map(p -> new ProductQuantity(p.getProduct_id(), p.getQuantity()))
+                    .toList();
+            return new BxGy(coupon.getId(), coupon.getDiscount(), stacking, limits, validity, bxGyCoupon.getRepetition_limit(), buyProducts, getProducts);
+        } else if (coupon instanceof CustomCoupon customCoupon) {
+            return new Custom(coupon.getId(), stacking, limits, validity, customCoupon.getRule());
+        }
+        throw new IllegalArgumentException("Unsupported coupon type: " + coupon.getClass().getSimpleName());
+    }
+}
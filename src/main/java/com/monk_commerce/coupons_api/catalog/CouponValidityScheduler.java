@@ -0,0 +1,134 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Fires coupon activations and expiries from a {@link TimingWheel} ticking every
+ * {@code coupons.validity.tick-ms}, so scheduling a coupon costs O(1) however many are
+ * waiting and nothing on the request path ever compares timestamps.
+ * <p>
+ * Activations are rounded up to the next tick and expiries down to the previous one, so
+ * a coupon may go live up to one tick late or expire up to one tick early, but is never
+ * live outside its window. Everything due on the same tick is handed over as one batch.
+ * <p>
+ * The wheel ticks on its own thread rather than Spring's shared scheduler, where a
+ * snapshot write or a slow flush would hold back expiries by far more than a tick. Only
+ * a slow handler or a JVM pause longer than a tick can still keep a coupon live past its
+ * window.
+ */
+@Component
+public class CouponValidityScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CouponValidityScheduler.class);
+
+    /**
+     * Moves {@code rule} into the live catalog ({@code activate}) or out of it. The
+     * generation lets the receiver ignore transitions of a coupon changed since.
+     */
+    public record Transition(CouponRule rule, long generation, boolean activate) {
+    }
+
+    @Value("${coupons.validity.tick-ms:100}")
+    private long tickMs = 100;
+    @Value("${coupons.validity.wheel-size:64}")
+    private int wheelSize = 64;
+
+    private final Clock clock;
+    private TimingWheel<Transition> wheel;
+    private Consumer<List<Transition>> handler;
+    private ScheduledExecutorService ticker;
+
+    public CouponValidityScheduler() {
+        this(Clock.systemUTC());
+    }
+
+    public CouponValidityScheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets where due transitions are delivered. Only the first handler is kept.
+     */
+    public synchronized void start(Consumer<List<Transition>> handler) {
+        if (this.handler == null) {
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Schedules a transition at {@code at}. Returns {@code false}, without scheduling it,
+     * when it is already due.
+     */
+    public synchronized boolean schedule(Instant at, Transition transition) {
+        long millis = at.toEpochMilli();
+        long tick = transition.activate() ? -Math.floorDiv(-millis, tickMs) : Math.floorDiv(millis, tickMs);
+        // Against the clock rather than the wheel, which only moves when it is advanced
+        if (tick <= Math.floorDiv(clock.millis(), tickMs)) {
+            return false;
+        }
+        return wheel().add(tick, transition);
+    }
+
+    @PostConstruct
+    void startTicking() {
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coupon-validity");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> {
+            // An exception would cancel every later tick
+            try {
+                advance();
+            } catch (RuntimeException e) {
+                log.error("Failed to apply coupon validity transitions", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopTicking() {
+        ticker.shutdownNow();
+    }
+
+    public synchronized int pending() {
+        return wheel == null ? 0 : wheel.size();
+    }
+
+    public void advance() {
+        List<Transition> due = new ArrayList<>();
+        Consumer<List<Transition>> target;
+        synchronized (this) {
+            if (wheel == null) {
+                return;
+            }
+            wheel.advance(Math.floorDiv(clock.millis(), tickMs), due::add);
+            target = handler;
+        }
+        // Delivered outside the lock, the handler may schedule follow-up transitions
+        if (!due.isEmpty() && target != null) {
+            target.accept(due);
+        }
+    }
+
+    private TimingWheel<Transition> wheel() {
+        if (wheel == null) {
+            wheel = new TimingWheel<>(wheelSize, Math.floorDiv(clock.millis(), tickMs));
+        }
+        return wheel;
+    }
+}
@@ -0,0 +1,69 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.dto.CartItem;
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-request view of a cart while its coupons are evaluated. A context is built once
+ * per request and never shared, so the evaluation code itself keeps no mutable state.
+ * Prices are converted to minor units here, once, so evaluation never touches a double.
+ */
+public final class EvaluationContext {
+
+    /**
+     * A cart line with its unit price and line total in minor units.
+     */
+    public record Line(Long productId, int quantity, long unitPrice, long total) {
+    }
+
+    private final Money money;
+    private final List<Line> lines;
+    private final Map<Long, Line> linesByProduct;
+    private final long cartTotal;
+
+    private EvaluationContext(Money money, List<Line> lines, Map<Long, Line> linesByProduct, long cartTotal) {
+        this.money = money;
+        this.lines = lines;
+        this.linesByProduct = linesByProduct;
+        this.cartTotal = cartTotal;
+    }
+
+    public static EvaluationContext of(List<CartItem> items, Money money) {
+        List<Line> lines = new ArrayList<>(items.size());
+        Map<Long, Line> linesByProduct = new HashMap<>();
+        long cartTotal = 0;
+        for (CartItem item : items) {
+            long unitPrice = money.toMinor(item.getPrice());
+            Line line = new Line(item.getProduct_id(), item.getQuantity(), unitPrice, money.times(unitPrice, item.getQuantity()));
+            lines.add(line);
+            linesByProduct.put(line.productId(), line);
+            cartTotal = Math.addExact(cartTotal, line.total());
+        }
+        return new EvaluationContext(money, lines, linesByProduct, cartTotal);
+    }
+
+    public Money getMoney() {
+        return money;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    public Map<Long, Line> getLinesByProduct() {
+        return linesByProduct;
+    }
+
+    public Line getLine(Long productId) {
+        return linesByProduct.get(productId);
+    }
+
+    public long getCartTotal() {
+        return cartTotal;
+    }
+}
@@ -0,0 +1,188 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from {@code long} keys to non-negative {@code int} values, with
+ * linear probing and backward-shift deletion, so neither keys nor values are boxed and
+ * there is no entry object per mapping.
+ * <p>
+ * The table is split into pages, and {@link #copy} shares every page with the original:
+ * each copy then clones only the pages it writes to. A catalog version therefore costs
+ * the pages its changes touched rather than a copy of the whole table. Only one thread
+ * at a time may write a map or copy it; maps that are no longer written may be read
+ * from any thread.
+ */
+final class LongIntMap {
+
+    static final int ABSENT = -1;
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[][] keys;
+    // ABSENT marks a free slot, so no key is reserved
+    private int[][] values;
+    // Pages this map allocated itself and may write in place
+    private boolean[] owned;
+    private int mask;
+    private int size;
+
+    LongIntMap() {
+        this(0);
+    }
+
+    LongIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private LongIntMap(LongIntMap source) {
+        keys = source.keys.clone();
+        values = source.values.clone();
+        owned = new boolean[keys.length];
+        mask = source.mask;
+        size = source.size;
+    }
+
+    /**
+     * A copy sharing every page with this map until one of them is written.
+     */
+    LongIntMap copy() {
+        // From now on both sides clone a page before writing it
+        Arrays.fill(owned, false);
+        return new LongIntMap(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The value for {@code key}, or {@link #ABSENT}.
+     */
+    int get(long key) {
+        for (int i = home(key); ; i = (i + 1) & mask) {
+            int value = values[i >>> PAGE_BITS][i & PAGE_MASK];
+            if (value == ABSENT || keys[i >>> PAGE_BITS][i & PAGE_MASK] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, which must not be negative, and returns the
+     * previous value or {@link #ABSENT}.
+     */
+    int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        if ((size + 1) * 3L > (mask + 1L) * 2) {
+            // Grown at two thirds full: most product lookups miss, and misses probe to a free slot
+            rehash((mask + 1) * 2);
+        }
+        for (int i = home(key); ; i = (i + 1) & mask) {
+            int existing = values[i >>> PAGE_BITS][i & PAGE_MASK];
+            if (existing == ABSENT || keys[i >>> PAGE_BITS][i & PAGE_MASK] == key) {
+                set(i, key, value);
+                if (existing == ABSENT) {
+                    size++;
+                }
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * Removes {@code key} and returns its value, or {@link #ABSENT}.
+     */
+    int remove(long key) {
+        int gap = home(key);
+        int removed;
+        while (true) {
+            removed = values[gap >>> PAGE_BITS][gap & PAGE_MASK];
+            if (removed == ABSENT) {
+                return ABSENT;
+            }
+            if (keys[gap >>> PAGE_BITS][gap & PAGE_MASK] == key) {
+                break;
+            }
+            gap = (gap + 1) & mask;
+        }
+        // Pull back every later entry of the run that may live in the gap, so lookups
+        // never stop early at a hole and no tombstones are needed
+        for (int i = (gap + 1) & mask; ; i = (i + 1) & mask) {
+            int value = values[i >>> PAGE_BITS][i & PAGE_MASK];
+            if (value == ABSENT) {
+                break;
+            }
+            long moved = keys[i >>> PAGE_BITS][i & PAGE_MASK];
+            if (((i - home(moved)) & mask) >= ((i - gap) & mask)) {
+                set(gap, moved, value);
+                gap = i;
+            }
+        }
+        set(gap, 0, ABSENT);
+        size--;
+        return removed;
+    }
+
+    private int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void set(int slot, long key, int value) {
+        int page = slot >>> PAGE_BITS;
+        if (!owned[page]) {
+            keys[page] = keys[page].clone();
+            values[page] = values[page].clone();
+            owned[page] = true;
+        }
+        keys[page][slot & PAGE_MASK] = key;
+        values[page][slot & PAGE_MASK] = value;
+    }
+
+    private void rehash(int capacity) {
+        long[][] oldKeys = keys;
+        int[][] oldValues = values;
+        allocate(capacity);
+        for (int page = 0; page < oldValues.length; page++) {
+            for (int offset = 0; offset < oldValues[page].length; offset++) {
+                int value = oldValues[page][offset];
+                if (value != ABSENT) {
+                    long key = oldKeys[page][offset];
+                    int i = home(key);
+                    while (values[i >>> PAGE_BITS][i & PAGE_MASK] != ABSENT) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i >>> PAGE_BITS][i & PAGE_MASK] = key;
+                    values[i >>> PAGE_BITS][i & PAGE_MASK] = value;
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        int pageSize = Math.min(capacity, PAGE_SIZE);
+        int pages = capacity / pageSize;
+        keys = new long[pages][pageSize];
+        values = new int[pages][pageSize];
+        owned = new boolean[pages];
+        for (int page = 0; page < pages; page++) {
+            Arrays.fill(values[page], ABSENT);
+            owned[page] = true;
+        }
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 2L < expectedSize * 3L) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+}
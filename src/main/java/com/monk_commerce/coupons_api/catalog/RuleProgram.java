@@ -0,0 +1,286 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import com.monk_commerce.coupons_api.model.RuleDefinition;
+
+import java.util.*;
+
+/**
+ * A {@link RuleDefinition} compiled into flat arrays, so evaluating a custom coupon is a
+ * loop over primitives followed by one switch on the kind of action, with no lists,
+ * maps or condition objects visited per request.
+ * <p>
+ * Conditions of the same kind are merged while compiling: the highest
+ * {@code cart_total_above} threshold, and per product the highest required quantity.
+ * Two programs are equal when their definitions are.
+ */
+final class RuleProgram {
+
+    static final int PERCENT_OFF_CART = 0;
+    static final int FIXED_OFF_CART = 1;
+    static final int PERCENT_OFF_PRODUCTS = 2;
+    static final int TIERED_PERCENT_OFF_PRODUCTS = 3;
+    static final int FREE_ITEMS = 4;
+
+    private final RuleDefinition definition;
+    // Highest cart_total_above threshold in major units, null when there is none
+    private final Integer threshold;
+    private final long[] requiredProducts;
+    private final int[] requiredQuantities;
+    private final int action;
+    private final int percent;
+    private final int amount;
+    private final long[] targetProducts;
+    // Ascending by quantity
+    private final int[] tierQuantities;
+    private final int[] tierPercents;
+    private final int repetitionLimit;
+
+    private RuleProgram(RuleDefinition definition, Integer threshold, long[] requiredProducts, int[] requiredQuantities,
+                        int action, int percent, int amount, long[] targetProducts, int[] tierQuantities,
+                        int[] tierPercents, int repetitionLimit) {
+        this.definition = definition;
+        this.threshold = threshold;
+        this.requiredProducts = requiredProducts;
+        this.requiredQuantities = requiredQuantities;
+        this.action = action;
+        this.percent = percent;
+        this.amount = amount;
+        this.targetProducts = targetProducts;
+        this.tierQuantities = tierQuantities;
+        this.tierPercents = tierPercents;
+        this.repetitionLimit = repetitionLimit;
+    }
+
+    static RuleProgram compile(RuleDefinition definition) {
+        definition.validate();
+        Integer threshold = null;
+        Map<Long, Integer> required = new LinkedHashMap<>();
+        if (definition.conditions() != null) {
+            for (RuleDefinition.Condition condition : definition.conditions()) {
+                if (condition instanceof RuleDefinition.CartTotalAbove cartTotalAbove) {
+                    threshold = threshold == null ? cartTotalAbove.threshold() : Math.max(threshold, cartTotalAbove.threshold());
+                } else if (condition instanceof RuleDefinition.ContainsProducts containsProducts) {
+                    for (RuleDefinition.ProductQuantity product : containsProducts.products()) {
+                        required.merge(product.product_id(), product.quantity(), Math::max);
+                    }
+                }
+            }
+        }
+        long[] requiredProducts = new long[required.size()];
+        int[] requiredQuantities = new int[required.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : required.entrySet()) {
+            requiredProducts[i] = entry.getKey();
+            requiredQuantities[i++] = entry.getValue();
+        }
+
+        Integer conditionThreshold = threshold;
+        return definition.action().accept(new RuleDefinition.ActionVisitor<>() {
+            @Override
+            public RuleProgram percentOffCart(RuleDefinition.PercentOffCart action) {
+                return new RuleProgram(definition, conditionThreshold, requiredProducts, requiredQuantities, PERCENT_OFF_CART,
+                        action.percent(), 0, new long[0], new int[0], new int[0], 0);
+            }
+
+            @Override
+            public RuleProgram fixedOffCart(RuleDefinition.FixedOffCart action) {
+                return new RuleProgram(definition, conditionThreshold, requiredProducts, requiredQuantities, FIXED_OFF_CART,
+                        0, action.amount(), new long[0], new int[0], new int[0], 0);
+            }
+
+            @Override
+            public RuleProgram percentOffProducts(RuleDefinition.PercentOffProducts action) {
+                return new RuleProgram(definition, conditionThreshold, requiredProducts, requiredQuantities, PERCENT_OFF_PRODUCTS,
+                        action.percent(), 0, distinct(action.product_ids()), new int[0], new int[0], 0);
+            }
+
+            @Override
+            public RuleProgram tieredPercentOffProducts(RuleDefinition.TieredPercentOffProducts action) {
+                List<RuleDefinition.Tier> tiers = new ArrayList<>(action.tiers());
+                tiers.sort(Comparator.comparing(RuleDefinition.Tier::min_quantity));
+                return new RuleProgram(definition, conditionThreshold, requiredProducts, requiredQuantities, TIERED_PERCENT_OFF_PRODUCTS,
+                        0, 0, distinct(action.product_ids()), tiers.stream().mapToInt(RuleDefinition.Tier::min_quantity).toArray(),
+                        tiers.stream().mapToInt(RuleDefinition.Tier::percent).toArray(), 0);
+            }
+
+            @Override
+            public RuleProgram freeItems(RuleDefinition.FreeItems action) {
+                return new RuleProgram(definition, conditionThreshold, requiredProducts, requiredQuantities, FREE_ITEMS,
+                        0, 0, distinct(action.product_ids()), new int[0], new int[0], action.repetition_limit());
+            }
+        });
+    }
+
+    RuleDefinition definition() {
+        return definition;
+    }
+
+    int action() {
+        return action;
+    }
+
+    /**
+     * Percentage of a {@code percent_off_cart} action.
+     */
+    int percent() {
+        return percent;
+    }
+
+    Integer threshold() {
+        return threshold;
+    }
+
+    long[] requiredProducts() {
+        return requiredProducts;
+    }
+
+    /**
+     * The discount in minor units, or {@link CouponRule#NOT_APPLICABLE}.
+     */
+    long discount(EvaluationContext context) {
+        if (!matches(context)) {
+            return CouponRule.NOT_APPLICABLE;
+        }
+        long cartTotal = context.getCartTotal();
+        switch (action) {
+            case PERCENT_OFF_CART:
+                return context.getMoney().percentOf(cartTotal, percent);
+            case FIXED_OFF_CART:
+                return Math.min(context.getMoney().toMinor(amount), Math.max(0, cartTotal));
+            case FREE_ITEMS: {
+                int freeQuantity = freeQuantity(context);
+                long discount = 0;
+                for (long productId : targetProducts) {
+                    EvaluationContext.Line line = context.getLine(productId);
+                    if (line != null) {
+                        discount = Math.addExact(discount, context.getMoney().times(line.unitPrice(), freeQuantity));
+                    }
+                }
+                return discount;
+            }
+            default: {
+                int productPercent = productPercent(context);
+                if (productPercent < 0) {
+                    return CouponRule.NOT_APPLICABLE;
+                }
+                long discount = 0;
+                for (long productId : targetProducts) {
+                    EvaluationContext.Line line = context.getLine(productId);
+                    if (line != null) {
+                        discount = Math.addExact(discount, context.getMoney().percentOf(line.total(), productPercent));
+                    }
+                }
+                return discount;
+            }
+        }
+    }
+
+    /**
+     * The part of the discount taken off one line of a cart the program applies to.
+     */
+    long lineDiscount(EvaluationContext context, EvaluationContext.Line line) {
+        if (action == PERCENT_OFF_CART || action == FIXED_OFF_CART || !isTarget(line.productId())) {
+            return 0;
+        }
+        if (action == FREE_ITEMS) {
+            return context.getMoney().times(line.unitPrice(), freeQuantity(context));
+        }
+        return context.getMoney().percentOf(line.total(), Math.max(0, productPercent(context)));
+    }
+
+    /**
+     * Units added to one line of a cart the program applies to.
+     */
+    int freeQuantity(EvaluationContext context, EvaluationContext.Line line) {
+        return action == FREE_ITEMS && isTarget(line.productId()) ? freeQuantity(context) : 0;
+    }
+
+    /**
+     * The products in the cart whose lines the program discounts.
+     */
+    Set<Long> discountedProducts(EvaluationContext context) {
+        Set<Long> products = new HashSet<>();
+        for (long productId : targetProducts) {
+            if (context.getLine(productId) != null) {
+                products.add(productId);
+            }
+        }
+        return products;
+    }
+
+    private boolean matches(EvaluationContext context) {
+        if (threshold != null && context.getCartTotal() <= context.getMoney().toMinor(threshold)) {
+            return false;
+        }
+        for (int i = 0; i < requiredProducts.length; i++) {
+            EvaluationContext.Line line = context.getLine(requiredProducts[i]);
+            if (line == null || line.quantity() < requiredQuantities[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int freeQuantity(EvaluationContext context) {
+        int repetitions = 0;
+        for (int i = 0; i < requiredProducts.length; i++) {
+            EvaluationContext.Line line = context.getLine(requiredProducts[i]);
+            if (line != null) {
+                repetitions += line.quantity() / requiredQuantities[i];
+            }
+        }
+        return Math.min(repetitions, repetitionLimit);
+    }
+
+    /**
+     * Percentage taken off each target line, or -1 when no quantity tier is reached.
+     */
+    private int productPercent(EvaluationContext context) {
+        if (action == PERCENT_OFF_PRODUCTS) {
+            return percent;
+        }
+        long quantity = 0;
+        for (long productId : targetProducts) {
+            EvaluationContext.Line line = context.getLine(productId);
+            if (line != null) {
+                quantity += line.quantity();
+            }
+        }
+        int tierPercent = -1;
+        for (int i = 0; i < tierQuantities.length && tierQuantities[i] <= quantity; i++) {
+            tierPercent = tierPercents[i];
+        }
+        return tierPercent;
+    }
+
+    private boolean isTarget(Long productId) {
+        if (productId == null) {
+            return false;
+        }
+        for (long target : targetProducts) {
+            if (target == productId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long[] distinct(List<Long> productIds) {
+        return productIds.stream().distinct().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RuleProgram other && definition.equals(other.definition);
+    }
+
+    @Override
+    public int hashCode() {
+        return definition.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "RuleProgram" + definition;
+    }
+}
@@ -0,0 +1,114 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import java.util.Arrays;
+
+/**
+ * A column of values addressed by {@code int} slot, so indexes can refer to a value with
+ * a primitive instead of a boxed key. Freed slots are reused by later additions.
+ * <p>
+ * Paged and copied like {@link LongIntMap}: {@link #copy} shares every page, and each
+ * side clones a page before writing to it.
+ */
+final class SlotTable<T> {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private Object[][] pages;
+    private boolean[] owned;
+    // One past the highest slot ever used
+    private int end;
+    private int[] free;
+    private int freeCount;
+    private boolean freeOwned;
+    private int size;
+
+    SlotTable(int expectedSize) {
+        pages = new Object[Math.max(1, (expectedSize + PAGE_MASK) >>> PAGE_BITS)][];
+        owned = new boolean[pages.length];
+        free = new int[0];
+        freeOwned = true;
+    }
+
+    private SlotTable(SlotTable<T> source) {
+        pages = source.pages.clone();
+        owned = new boolean[pages.length];
+        end = source.end;
+        free = source.free;
+        freeCount = source.freeCount;
+        size = source.size;
+    }
+
+    /**
+     * A copy sharing every page with this table until one of them is written.
+     */
+    SlotTable<T> copy() {
+        // From now on both sides clone a page before writing it
+        Arrays.fill(owned, false);
+        freeOwned = false;
+        return new SlotTable<>(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * One past the highest slot in use or freed; every value is in a slot below it.
+     */
+    int end() {
+        return end;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int slot) {
+        Object[] page = pages[slot >>> PAGE_BITS];
+        return page == null ? null : (T) page[slot & PAGE_MASK];
+    }
+
+    /**
+     * Stores a non-null value in a free slot and returns the slot.
+     */
+    int add(T value) {
+        int slot = freeCount > 0 ? free[--freeCount] : end++;
+        set(slot, value);
+        size++;
+        return slot;
+    }
+
+    void replace(int slot, T value) {
+        set(slot, value);
+    }
+
+    /**
+     * Clears the slot for reuse and returns the value it held.
+     */
+    T release(int slot) {
+        T value = get(slot);
+        set(slot, null);
+        if (!freeOwned || freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+            freeOwned = true;
+        }
+        free[freeCount++] = slot;
+        size--;
+        return value;
+    }
+
+    private void set(int slot, T value) {
+        int page = slot >>> PAGE_BITS;
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+            owned = Arrays.copyOf(owned, pages.length);
+        }
+        if (pages[page] == null) {
+            pages[page] = new Object[PAGE_SIZE];
+            owned[page] = true;
+        } else if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        pages[page][slot & PAGE_MASK] = value;
+    }
+}
@@ -0,0 +1,128 @@
+package com.monk_commerce.coupons_api.catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel over abstract ticks. Not thread-safe; see
+ * {@link CouponValidityScheduler}.
+ * <p>
+ * Level 0 has one slot per tick, and every level above it has slots
+ * {@code wheelSize} times wider than the level below, so adding a timer costs O(1)
+ * however far out it is due. When a wide slot's period begins, its timers cascade
+ * into the finer levels. Each timer therefore moves at most once per level before it
+ * fires, exactly on its deadline tick. Levels are created as deadlines need them.
+ */
+final class TimingWheel<T> {
+
+    private record Timer<T>(long deadline, T payload) {
+    }
+
+    private final int wheelSize;
+    private final List<List<Timer<T>>[]> levels = new ArrayList<>();
+    private final List<Long> spans = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    TimingWheel(int wheelSize, long startTick) {
+        if (wheelSize < 2) {
+            throw new IllegalArgumentException("Wheel size must be at least 2");
+        }
+        this.wheelSize = wheelSize;
+        this.currentTick = startTick;
+    }
+
+    long currentTick() {
+        return currentTick;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a timer that fires on {@code deadline}. Returns {@code false}, without adding
+     * it, when that tick is not after the current one.
+     */
+    boolean add(long deadline, T payload) {
+        if (deadline <= currentTick) {
+            return false;
+        }
+        place(new Timer<>(deadline, payload));
+        size++;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to {@code tick}, passing every timer due on the way to
+     * {@code due}, earlier ticks first.
+     */
+    void advance(long tick, Consumer<T> due) {
+        while (currentTick < tick) {
+            if (size == 0) {
+                currentTick = tick;
+                return;
+            }
+            currentTick++;
+            // Coarse levels first, so timers cascading onto this tick fire with it
+            for (int level = levels.size() - 1; level > 0; level--) {
+                long span = spans.get(level);
+                if (currentTick % span == 0) {
+                    List<Timer<T>> timers = take(level, slot(currentTick, span));
+                    for (Timer<T> timer : timers) {
+                        if (timer.deadline() <= currentTick) {
+                            fire(timer, due);
+                        } else {
+                            place(timer);
+                        }
+                    }
+                }
+            }
+            for (Timer<T> timer : take(0, slot(currentTick, 1))) {
+                fire(timer, due);
+            }
+        }
+    }
+
+    private void fire(Timer<T> timer, Consumer<T> due) {
+        size--;
+        due.accept(timer.payload());
+    }
+
+    private void place(Timer<T> timer) {
+        long delta = timer.deadline() - currentTick;
+        int level = 0;
+        long span = 1;
+        while (delta >= span * wheelSize && span <= Long.MAX_VALUE / wheelSize / wheelSize) {
+            span *= wheelSize;
+            level++;
+        }
+        while (levels.size() <= level) {
+            @SuppressWarnings("unchecked")
+            List<Timer<T>>[] slots = new List[wheelSize];
+            spans.add(levels.isEmpty() ? 1 : spans.get(levels.size() - 1) * wheelSize);
+            levels.add(slots);
+        }
+        List<Timer<T>>[] slots = levels.get(level);
+        int slot = slot(timer.deadline(), span);
+        if (slots[slot] == null) {
+            slots[slot] = new ArrayList<>();
+        }
+        slots[slot].add(timer);
+    }
+
+    private List<Timer<T>> take(int level, int slot) {
+        List<Timer<T>>[] slots = levels.get(level);
+        List<Timer<T>> timers = slots[slot];
+        if (timers == null) {
+            return List.of();
+        }
+        slots[slot] = null;
+        return timers;
+    }
+
+    private int slot(long tick, long span) {
+        return (int) Math.floorMod(tick / span, (long) wheelSize);
+    }
+}
@@ -0,0 +1,48 @@
+package com.monk_commerce.coupons_api.config;
+
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.service.ApplicableCouponsCache;
+import com.monk_commerce.coupons_api.service.IdempotencyStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfiguration {
+
+    /**
+     * Result cache for {@code /applicable-coupons}; a maximum size of 0 disables it. Hits,
+     * misses and evictions are published as the {@code cache.*} metrics tagged
+     * {@code cache=applicable-coupons}.
+     */
+    @Bean
+    public ApplicableCouponsCache applicableCouponsCache(@Value("${coupons.cache.applicable.max-size:10000}") long maximumSize,
+                                                         @Value("${coupons.cache.applicable.ttl-ms:60000}") long ttlMs,
+                                                         Money money, MeterRegistry meterRegistry) {
+        ApplicableCouponsCache cache = new ApplicableCouponsCache(maximumSize, Duration.ofMillis(ttlMs), money);
+        if (cache.getCache() != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache.getCache(), "applicable-coupons");
+        }
+        return cache;
+    }
+
+    /**
+     * Responses of {@code /apply-coupon} by {@code Idempotency-Key}; a maximum size of 0
+     * disables deduplication. Published as the {@code cache.*} metrics tagged
+     * {@code cache=apply-coupon-idempotency}, where hits are answered duplicates.
+     */
+    @Bean
+    public IdempotencyStore idempotencyStore(@Value("${coupons.idempotency.max-size:100000}") long maximumSize,
+                                             @Value("${coupons.idempotency.ttl-ms:600000}") long ttlMs,
+                                             Money money, MeterRegistry meterRegistry) {
+        IdempotencyStore store = new IdempotencyStore(maximumSize, Duration.ofMillis(ttlMs), money);
+        if (store.getCache() != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, store.getCache(), "apply-coupon-idempotency");
+        }
+        return store;
+    }
+}
@@ -0,0 +1,31 @@
+package com.monk_commerce.coupons_api.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.monk_commerce.coupons_api.metrics.CouponMetrics;
+import com.monk_commerce.coupons_api.metrics.DbCallMetricsInterceptor;
+import com.monk_commerce.coupons_api.metrics.TimedJacksonMessageConverter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class MetricsConfiguration implements WebMvcConfigurer {
+
+    private final CouponMetrics couponMetrics;
+
+    public MetricsConfiguration(CouponMetrics couponMetrics) {
+        this.couponMetrics = couponMetrics;
+    }
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        return new TimedJacksonMessageConverter(objectMapper, couponMetrics);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new DbCallMetricsInterceptor(couponMetrics));
+    }
+}
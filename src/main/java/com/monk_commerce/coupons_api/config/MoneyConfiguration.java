@@ -0,0 +1,18 @@
+package com.monk_commerce.coupons_api.config;
+
+import com.monk_commerce.coupons_api.money.Money;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.math.RoundingMode;
+
+@Configuration
+public class MoneyConfiguration {
+
+    @Bean
+    public Money money(@Value("${coupons.money.scale:2}") int scale,
+                       @Value("${coupons.money.rounding-mode:HALF_EVEN}") RoundingMode roundingMode) {
+        return new Money(scale, roundingMode);
+    }
+}
@@ -1,26 +1,46 @@
 package com.monk_commerce.coupons_api.controller;
 
-import com.monk_commerce.coupons_api.dto.Cart;
-import com.monk_commerce.coupons_api.dto.CartRequest;
-import com.monk_commerce.coupons_api.dto.CouponRequest;
-import com.monk_commerce.coupons_api.dto.CouponResponse;
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.dto.*;
 import com.monk_commerce.coupons_api.model.Coupon;
+import com.monk_commerce.coupons_api.repository.CouponFilter;
+import com.monk_commerce.coupons_api.service.CouponBatchService;
+import com.monk_commerce.coupons_api.service.CouponExportService;
+import com.monk_commerce.coupons_api.service.CouponImportService;
 import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.CouponWriteBehind;
+import com.monk_commerce.coupons_api.service.IdempotencyStore;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 
 @RestController
 @RequestMapping
 public class CouponController {
     @Autowired
     private CouponService couponService;
+    @Autowired
+    private CouponBatchService couponBatchService;
+    @Autowired
+    private CouponImportService couponImportService;
+    @Autowired
+    private CouponExportService couponExportService;
+    @Autowired
+    private CouponWriteBehind couponWriteBehind;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
 
     @PostMapping("/coupons")
     public ResponseEntity<CouponResponse> createCoupon(@RequestBody CouponRequest couponRequest) {
@@ -28,22 +48,74 @@ public class CouponController {
         return new ResponseEntity<>(response, HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "/coupons/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ImportResult> importCoupons(InputStream coupons) throws IOException {
+        return ResponseEntity.ok(couponImportService.importNdjson(coupons));
+    }
+
+    @PostMapping(value = "/coupons/import", consumes = "text/csv")
+    public ResponseEntity<ImportResult> importCouponsCsv(InputStream coupons) throws IOException {
+        return ResponseEntity.ok(couponImportService.importCsv(coupons));
+    }
+
     @GetMapping("/coupons/{id}")
     public ResponseEntity<Coupon> getCoupon(@PathVariable Long id) {
         Coupon coupon = couponService.getCouponById(id);
         return coupon != null ? ResponseEntity.ok(coupon) : ResponseEntity.notFound().build();
     }
 
+    /**
+     * One page of coupons in id order. When there are more, a {@code Link} header with
+     * {@code rel="next"} points at the next page.
+     */
     @GetMapping("/coupons")
-    public ResponseEntity<List<Coupon>> getAllCoupons() {
-        return ResponseEntity.ok(couponService.getAllCoupons());
+    public ResponseEntity<List<Coupon>> getAllCoupons(@RequestParam(name = "after_id", required = false) Long afterId,
+                                                      @RequestParam(required = false) Integer limit,
+                                                      @RequestParam(required = false) String type,
+                                                      @RequestParam(name = "product_id", required = false) Long productId,
+                                                      @RequestParam(name = "valid_at", required = false)
+                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime validAt) {
+        CouponPage page = couponService.getCoupons(CouponFilter.of(type, productId, validAt), afterId, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextAfterId() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after_id", page.nextAfterId()).toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.coupons());
     }
 
+    @GetMapping(value = "/coupons/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public void exportCoupons(@RequestParam(required = false) String type,
+                              @RequestParam(name = "product_id", required = false) Long productId,
+                              @RequestParam(name = "valid_at", required = false)
+                              @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime validAt,
+                              HttpServletResponse response) throws IOException {
+        CouponFilter filter = CouponFilter.of(type, productId, validAt);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        couponExportService.export(filter, response.getOutputStream());
+    }
+
+    /**
+     * With write-behind enabled the update is only queued: the response is 202 with the
+     * update's sequence number, and its {@code Location} reports when it is durable.
+     */
     @PutMapping("/coupons/{id}")
-    public ResponseEntity<Coupon> updateCoupon(@PathVariable Long id, @RequestBody CouponRequest body) {
+    public ResponseEntity<?> updateCoupon(@PathVariable Long id, @RequestBody CouponRequest body) {
+        if (couponWriteBehind.isEnabled()) {
+            WriteStatus accepted = couponWriteBehind.submit(id, body);
+            URI status = ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/coupons/writes/{sequence}").buildAndExpand(accepted.sequence()).toUri();
+            return ResponseEntity.accepted().location(status).body(accepted);
+        }
         return ResponseEntity.ok(couponService.updateCoupon(id, body));
     }
 
+    @GetMapping("/coupons/writes/{sequence}")
+    public ResponseEntity<WriteStatus> getWriteStatus(@PathVariable long sequence) {
+        return ResponseEntity.ok(couponWriteBehind.status(sequence));
+    }
+
     @DeleteMapping("/coupons/{id}")
     public ResponseEntity<Void> deleteCoupon(@PathVariable Long id) {
         couponService.deleteCoupon(id);
@@ -51,19 +123,39 @@ public class CouponController {
     }
 
     @PostMapping("/applicable-coupons")
-    public ResponseEntity<Map<String, Object>> getApplicableCoupons(@RequestBody CartRequest cartRequest) {
-        List<Map<String, Object>> applicableCoupons = couponService.getApplicableCoupons(cartRequest);
-        Map<String, Object> response = new HashMap<>();
-        response.put("applicable_coupons", applicableCoupons);
-        return ResponseEntity.ok(response);
+    public ResponseEntity<ApplicableCouponsResponse> getApplicableCoupons(@RequestBody CartRequest cartRequest,
+                                                                          @RequestParam(required = false) Integer limit) {
+        CouponCatalog catalog = couponService.getCatalog();
+        List<ApplicableCoupon> applicableCoupons = limit != null
+                ? couponService.getApplicableCoupons(catalog, cartRequest, limit)
+                : couponService.getApplicableCoupons(catalog, cartRequest);
+        return ResponseEntity.ok(new ApplicableCouponsResponse(applicableCoupons, catalog.getVersion()));
     }
 
+    @PostMapping(value = "/applicable-coupons/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void getApplicableCouponsBatch(InputStream carts, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        couponBatchService.evaluate(carts, response.getOutputStream());
+    }
+
+    @PostMapping("/best-coupons")
+    public ResponseEntity<BestCouponCombination> getBestCouponCombination(@RequestBody CartRequest cartRequest) {
+        return ResponseEntity.ok(couponService.getBestCouponCombination(couponService.getCatalog(), cartRequest));
+    }
+
+    /**
+     * A retry that repeats the {@code Idempotency-Key}, coupon and cart of an earlier request
+     * gets that request's response, and is not counted as another redemption.
+     */
     @PostMapping("/apply-coupon/{id}")
-    public ResponseEntity<Map<String, Object>> applyCoupon(@PathVariable Long id, @RequestBody CartRequest cartRequest) {
-        Map<String, Object> updatedCart = couponService.applyCoupon(id, cartRequest);
-        if (updatedCart == null) {
-            return ResponseEntity.badRequest().body(Collections.singletonMap("error", "Invalid coupon ID"));
-        }
-        return ResponseEntity.ok(Collections.singletonMap("updated_cart", updatedCart));
+    public ResponseEntity<ApplyCouponResponse> applyCoupon(@PathVariable Long id, @RequestBody CartRequest cartRequest,
+                                                           @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        return ResponseEntity.ok(idempotencyStore.apply(idempotencyKey, id, cartRequest, () -> {
+            CouponCatalog catalog = couponService.getCatalog();
+            UpdatedCart updatedCart = couponService.applyCoupon(catalog, id, cartRequest);
+            return new ApplyCouponResponse(updatedCart, catalog.getVersion());
+        }));
     }
 }
\ No newline at end of file
@@ -0,0 +1,4 @@
+package com.monk_commerce.coupons_api.dto;
+
+public record ApplicableCoupon(Long coupon_id, String type, double discount) {
+}
@@ -0,0 +1,6 @@
+package com.monk_commerce.coupons_api.dto;
+
+import java.util.List;
+
+public record ApplicableCouponsResponse(List<ApplicableCoupon> applicable_coupons, long catalog_version) {
+}
@@ -0,0 +1,4 @@
+package com.monk_commerce.coupons_api.dto;
+
+public record ApplyCouponResponse(UpdatedCart updated_cart, long catalog_version) {
+}
@@ -0,0 +1,13 @@
+package com.monk_commerce.coupons_api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One line of a batch response; exactly one of {@code applicable_coupons} and
+ * {@code error} is set.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchResult(int index, long catalog_version, List<ApplicableCoupon> applicable_coupons, String error) {
+}
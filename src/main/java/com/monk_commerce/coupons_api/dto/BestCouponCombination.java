@@ -0,0 +1,7 @@
+package com.monk_commerce.coupons_api.dto;
+
+import java.util.List;
+
+public record BestCouponCombination(List<ApplicableCoupon> coupons, double total_discount, boolean optimal,
+                                    long catalog_version) {
+}
@@ -9,4 +9,10 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class CartRequest {
     private Cart cart;
+    // Who is redeeming, for coupons with a per-user limit
+    private String user_id;
+
+    public CartRequest(Cart cart) {
+        this.cart = cart;
+    }
 }
@@ -0,0 +1,12 @@
+package com.monk_commerce.coupons_api.dto;
+
+import com.monk_commerce.coupons_api.model.Coupon;
+
+import java.util.List;
+
+/**
+ * One page of the coupon listing. {@code nextAfterId} is the cursor for the next page,
+ * or {@code null} on the last page.
+ */
+public record CouponPage(List<Coupon> coupons, Long nextAfterId) {
+}
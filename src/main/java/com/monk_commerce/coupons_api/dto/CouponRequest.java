@@ -2,8 +2,10 @@ package com.monk_commerce.coupons_api.dto;
 
 import com.monk_commerce.coupons_api.model.BuyProduct;
 import com.monk_commerce.coupons_api.model.GetProduct;
+import com.monk_commerce.coupons_api.model.RuleDefinition;
 import lombok.Data;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Data
@@ -19,5 +21,13 @@ public class CouponRequest {
         private List<BuyProduct> buy_products;
         private List<GetProduct> get_products;
         private Integer repetition_limit;
+        private Boolean stackable;
+        private String exclusive_group;
+        private Integer max_redemptions;
+        private Integer max_redemptions_per_user;
+        private LocalDateTime valid_from;
+        private LocalDateTime valid_until;
+        // Conditions and action of a custom coupon
+        private RuleDefinition rule;
     }
 }
@@ -0,0 +1,15 @@
+package com.monk_commerce.coupons_api.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were saved and why the others were not.
+ */
+public record ImportResult(int imported, int failed, List<ImportError> errors) {
+
+    /**
+     * A rejected row, numbered from 1 in input order (CSV header excluded).
+     */
+    public record ImportError(int row, String error) {
+    }
+}
@@ -0,0 +1,6 @@
+package com.monk_commerce.coupons_api.dto;
+
+import java.util.List;
+
+public record UpdatedCart(List<UpdatedCartItem> items, double total_price, double total_discount, double final_price) {
+}
@@ -0,0 +1,4 @@
+package com.monk_commerce.coupons_api.dto;
+
+public record UpdatedCartItem(Long product_id, int quantity, double price, double total_discount) {
+}
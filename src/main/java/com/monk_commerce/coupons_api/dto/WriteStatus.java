@@ -0,0 +1,12 @@
+package com.monk_commerce.coupons_api.dto;
+
+/**
+ * State of an update accepted by the write-behind queue. Every write up to
+ * {@code durable_sequence} has been committed or has failed.
+ */
+public record WriteStatus(long sequence, State status, long durable_sequence, String error) {
+
+    public enum State {
+        PENDING, DURABLE, FAILED
+    }
+}
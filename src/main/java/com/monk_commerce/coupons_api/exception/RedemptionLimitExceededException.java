@@ -0,0 +1,7 @@
+package com.monk_commerce.coupons_api.exception;
+
+public class RedemptionLimitExceededException extends RuntimeException {
+    public RedemptionLimitExceededException(String message) {
+        super(message);
+    }
+}
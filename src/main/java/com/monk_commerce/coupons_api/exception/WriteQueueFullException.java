@@ -0,0 +1,7 @@
+package com.monk_commerce.coupons_api.exception;
+
+public class WriteQueueFullException extends RuntimeException {
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,138 @@
+package com.monk_commerce.coupons_api.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters for the coupon evaluation path. Stage timers are recorded once per request
+ * with pre-registered meters, so the hot loop only pays for {@link System#nanoTime()}.
+ */
+@Component
+public class CouponMetrics {
+
+    private final ObservationRegistry observationRegistry;
+    private final Timer candidateSelection;
+    private final Timer evaluationStage;
+    private final Timer partitionedEvaluation;
+    private final Timer sorting;
+    private final Timer serialization;
+    private final Map<String, Timer> evaluation;
+    private final DistributionSummary scanned;
+    private final DistributionSummary matched;
+    private final DistributionSummary pruned;
+    private final MeterRegistry registry;
+    private final Map<String, DistributionSummary> dbCalls = new ConcurrentHashMap<>();
+
+    public CouponMetrics(MeterRegistry registry, ObservationRegistry observationRegistry) {
+        this.registry = registry;
+        this.observationRegistry = observationRegistry;
+        this.candidateSelection = stageTimer("candidate-selection");
+        this.evaluationStage = stageTimer("evaluation");
+        this.partitionedEvaluation = stageTimer("partitioned-evaluation");
+        this.sorting = stageTimer("sort");
+        this.serialization = stageTimer("serialization");
+        this.evaluation = Map.of(
+                "cart-wise", evaluationTimer("cart-wise"),
+                "product-wise", evaluationTimer("product-wise"),
+                "bxgy", evaluationTimer("bxgy"),
+                "custom", evaluationTimer("custom"));
+        this.scanned = DistributionSummary.builder("coupons.candidates.scanned")
+                .description("Coupons evaluated per request")
+                .register(registry);
+        this.matched = DistributionSummary.builder("coupons.candidates.matched")
+                .description("Applicable coupons found per request")
+                .register(registry);
+        this.pruned = DistributionSummary.builder("coupons.candidates.pruned")
+                .description("Coupons skipped by their discount upper bound per top-K request")
+                .register(registry);
+    }
+
+    /**
+     * Metrics that are recorded but never exported, for use outside the application context.
+     */
+    public static CouponMetrics noop() {
+        return new CouponMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+    }
+
+    public <T> T observe(String name, Supplier<T> action) {
+        return Observation.createNotStarted(name, observationRegistry).observe(action);
+    }
+
+    public void recordCandidateSelection(long nanos) {
+        candidateSelection.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent evaluating every candidate of one request, whatever their types.
+     */
+    public void recordEvaluation(long nanos) {
+        evaluationStage.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent evaluating a single coupon, as when one is applied.
+     */
+    public void recordEvaluation(String couponType, long nanos) {
+        Timer timer = evaluation.get(couponType);
+        if (timer != null) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Wall time of an evaluation split across the fork/join pool, which replaces the
+     * evaluation stage timer for that request.
+     */
+    public void recordPartitionedEvaluation(long nanos) {
+        partitionedEvaluation.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSorting(long nanos) {
+        sorting.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSerialization(long nanos) {
+        serialization.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCandidates(int scannedCount, int matchedCount) {
+        scanned.record(scannedCount);
+        matched.record(matchedCount);
+    }
+
+    public void recordPruned(int prunedCount) {
+        pruned.record(prunedCount);
+    }
+
+    public void recordDbCalls(String endpoint, int calls) {
+        dbCalls.computeIfAbsent(endpoint, tag -> DistributionSummary.builder("coupons.db.calls")
+                        .description("Database statements executed per request")
+                        .tag("endpoint", tag)
+                        .register(registry))
+                .record(calls);
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("coupons.stage")
+                .description("Time spent in a stage of coupon evaluation")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    private Timer evaluationTimer(String couponType) {
+        return Timer.builder("coupons.evaluation")
+                .description("Time spent evaluating one coupon of a type")
+                .tag("type", couponType)
+                .register(registry);
+    }
+}
@@ -0,0 +1,26 @@
+package com.monk_commerce.coupons_api.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread. Registered through
+ * {@code hibernate.session_factory.statement_inspector}, so Hibernate instantiates it.
+ */
+public class DbCallCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> CALLS = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        CALLS.get()[0]++;
+        return sql;
+    }
+
+    public static void reset() {
+        CALLS.get()[0] = 0;
+    }
+
+    public static int get() {
+        return CALLS.get()[0];
+    }
+}
@@ -0,0 +1,31 @@
+package com.monk_commerce.coupons_api.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records the number of database statements executed while handling each request.
+ */
+public class DbCallMetricsInterceptor implements HandlerInterceptor {
+
+    private final CouponMetrics couponMetrics;
+
+    public DbCallMetricsInterceptor(CouponMetrics couponMetrics) {
+        this.couponMetrics = couponMetrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        DbCallCounter.reset();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (handler instanceof HandlerMethod handlerMethod) {
+            couponMetrics.recordDbCalls(handlerMethod.getMethod().getName(), DbCallCounter.get());
+        }
+    }
+}
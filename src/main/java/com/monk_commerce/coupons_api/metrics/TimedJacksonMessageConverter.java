@@ -0,0 +1,33 @@
+package com.monk_commerce.coupons_api.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Jackson converter that records how long response serialization takes.
+ */
+public class TimedJacksonMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    private final CouponMetrics couponMetrics;
+
+    public TimedJacksonMessageConverter(ObjectMapper objectMapper, CouponMetrics couponMetrics) {
+        super(objectMapper);
+        this.couponMetrics = couponMetrics;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long start = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            couponMetrics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+}
@@ -6,9 +6,12 @@ import lombok.Data;
 
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_buy_product_product_id", columnList = "product_id"))
 public class BuyProduct {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // A pooled sequence rather than IDENTITY, so Hibernate can batch inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "buy_product_seq")
+    @SequenceGenerator(name = "buy_product_seq", sequenceName = "buy_product_seq", allocationSize = 50)
     private Long id;
     private Integer quantity;
     @ManyToOne
@@ -8,15 +8,32 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "coupons")
+// Keyset listing seeks by id within a type; threshold and product_id serve candidate queries
+@Table(name = "coupons", indexes = {
+        @Index(name = "idx_coupons_type_id", columnList = "coupon_type, id"),
+        @Index(name = "idx_coupons_type_threshold", columnList = "coupon_type, threshold"),
+        @Index(name = "idx_coupons_product_id", columnList = "product_id")
+})
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name = "coupon_type")
 public abstract class Coupon {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // A pooled sequence rather than IDENTITY, so Hibernate can batch inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "coupon_seq")
+    @SequenceGenerator(name = "coupon_seq", sequenceName = "coupon_seq", allocationSize = 50)
     private Long id;
     private Integer discount;
+    // Whether the coupon may be combined with other coupons on the same cart
+    private Boolean stackable = false;
+    // Coupons sharing an exclusive group can never be combined with each other
+    private String exclusiveGroup;
+    // Redemption limits across all users and per user; null means unlimited
+    private Integer maxRedemptions;
+    private Integer maxRedemptionsPerUser;
+    // Validity window, start inclusive and end exclusive; null means unbounded
+    private LocalDateTime validFrom;
+    private LocalDateTime validUntil;
     private LocalDateTime createdAt = LocalDateTime.now();
     private LocalDateTime updatedAt = LocalDateTime.now();
 }
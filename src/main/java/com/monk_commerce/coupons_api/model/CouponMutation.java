@@ -0,0 +1,26 @@
+package com.monk_commerce.coupons_api.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One committed change to a coupon, numbered by {@code seq}. The row only names the
+ * coupon; nodes applying it read the coupon's current state, or drop it when it is gone.
+ */
+@Data
+@Entity
+// Pruning and the tailer's starting point look rows up by time
+@Table(name = "coupon_mutations", indexes = @Index(name = "idx_coupon_mutations_created_at", columnList = "created_at"))
+@NoArgsConstructor
+@AllArgsConstructor
+public class CouponMutation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long seq;
+    private Long couponId;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,34 @@
+package com.monk_commerce.coupons_api.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Number of times one user has redeemed one coupon. Anonymous redemptions are counted
+ * under an empty user id; a coupon's global count is the sum of its rows.
+ */
+@Data
+@Entity
+@Table(name = "coupon_redemptions")
+@IdClass(CouponRedemption.Key.class)
+@NoArgsConstructor
+@AllArgsConstructor
+public class CouponRedemption {
+    @Id
+    private Long couponId;
+    @Id
+    private String userId;
+    private Integer redemptions;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long couponId;
+        private String userId;
+    }
+}
@@ -0,0 +1,21 @@
+package com.monk_commerce.coupons_api.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.DiscriminatorValue;
+import jakarta.persistence.Entity;
+import lombok.Data;
+
+/**
+ * A coupon whose conditions and discount are described by a {@link RuleDefinition}, so
+ * new kinds of promotion need neither a new entity nor new evaluation code.
+ */
+@Data
+@Entity
+@DiscriminatorValue("custom")
+public class CustomCoupon extends Coupon {
+
+    @Convert(converter = RuleDefinitionConverter.class)
+    @Column(name = "rule_definition", length = 4000)
+    private RuleDefinition rule;
+}
@@ -6,10 +6,13 @@ import lombok.Data;
 
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_get_product_product_id", columnList = "product_id"))
 public class GetProduct {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // A pooled sequence rather than IDENTITY, so Hibernate can batch inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "get_product_seq")
+    @SequenceGenerator(name = "get_product_seq", sequenceName = "get_product_seq", allocationSize = 50)
     private Long id;
     private Integer quantity;
     @ManyToOne
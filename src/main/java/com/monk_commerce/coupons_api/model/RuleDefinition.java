@@ -0,0 +1,265 @@
+package com.monk_commerce.coupons_api.model;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Declarative form of a custom coupon: the coupon applies to a cart when every condition
+ * holds, and its action then decides the discount. Amounts are in major units, like the
+ * thresholds of cart-wise coupons.
+ * <p>
+ * Definitions are stored with the coupon as JSON and compiled once, when the coupon
+ * enters the catalog; requests never look at this form.
+ */
+public record RuleDefinition(List<Condition> conditions, Action action) {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = CartTotalAbove.class, name = "cart_total_above"),
+            @JsonSubTypes.Type(value = ContainsProducts.class, name = "contains_products")
+    })
+    public sealed interface Condition permits CartTotalAbove, ContainsProducts {
+    }
+
+    /**
+     * The cart total exceeds {@code threshold}.
+     */
+    public record CartTotalAbove(Integer threshold) implements Condition {
+    }
+
+    /**
+     * Every product is in the cart with at least its quantity.
+     */
+    public record ContainsProducts(List<ProductQuantity> products) implements Condition {
+    }
+
+    public record ProductQuantity(Long product_id, Integer quantity) {
+    }
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = PercentOffCart.class, name = "percent_off_cart"),
+            @JsonSubTypes.Type(value = FixedOffCart.class, name = "fixed_off_cart"),
+            @JsonSubTypes.Type(value = PercentOffProducts.class, name = "percent_off_products"),
+            @JsonSubTypes.Type(value = TieredPercentOffProducts.class, name = "tiered_percent_off_products"),
+            @JsonSubTypes.Type(value = FreeItems.class, name = "free_items")
+    })
+    public sealed interface Action permits PercentOffCart, FixedOffCart, PercentOffProducts, TieredPercentOffProducts, FreeItems {
+
+        /**
+         * Calls the visitor's method for this kind of action. Code that handles actions
+         * goes through here, so a new kind does not compile until every visitor has a case
+         * for it.
+         */
+        <R> R accept(ActionVisitor<R> visitor);
+    }
+
+    public interface ActionVisitor<R> {
+
+        R percentOffCart(PercentOffCart action);
+
+        R fixedOffCart(FixedOffCart action);
+
+        R percentOffProducts(PercentOffProducts action);
+
+        R tieredPercentOffProducts(TieredPercentOffProducts action);
+
+        R freeItems(FreeItems action);
+    }
+
+    public record PercentOffCart(Integer percent) implements Action {
+
+        @Override
+        public <R> R accept(ActionVisitor<R> visitor) {
+            return visitor.percentOffCart(this);
+        }
+    }
+
+    /**
+     * A fixed amount off the cart, at most the cart total.
+     */
+    public record FixedOffCart(Integer amount) implements Action {
+
+        @Override
+        public <R> R accept(ActionVisitor<R> visitor) {
+            return visitor.fixedOffCart(this);
+        }
+    }
+
+    /**
+     * A percentage off the lines of the given products.
+     */
+    public record PercentOffProducts(Integer percent, List<Long> product_ids) implements Action {
+
+        @Override
+        public <R> R accept(ActionVisitor<R> visitor) {
+            return visitor.percentOffProducts(this);
+        }
+    }
+
+    /**
+     * A percentage off the lines of the given products, taken from the highest tier whose
+     * {@code min_quantity} their combined quantity reaches.
+     */
+    public record TieredPercentOffProducts(List<Long> product_ids, List<Tier> tiers) implements Action {
+
+        @Override
+        public <R> R accept(ActionVisitor<R> visitor) {
+            return visitor.tieredPercentOffProducts(this);
+        }
+    }
+
+    public record Tier(Integer min_quantity, Integer percent) {
+    }
+
+    /**
+     * Free units of each given product in the cart, as many as the cart holds multiples
+     * of the {@code contains_products} quantities, up to {@code repetition_limit}; the
+     * same reading as BxGy coupons.
+     */
+    public record FreeItems(List<Long> product_ids, Integer repetition_limit) implements Action {
+
+        @Override
+        public <R> R accept(ActionVisitor<R> visitor) {
+            return visitor.freeItems(this);
+        }
+    }
+
+    /**
+     * Checks what compiling the definition relies on.
+     *
+     * @throws IllegalArgumentException naming the first problem found
+     */
+    public void validate() {
+        require(action != null, "rule.action is required");
+        boolean requiresProducts = false;
+        for (Condition condition : conditions == null ? List.<Condition>of() : conditions) {
+            require(condition != null, "rule.conditions must not contain null");
+            if (condition instanceof CartTotalAbove cartTotalAbove) {
+                require(cartTotalAbove.threshold() != null && cartTotalAbove.threshold() >= 0,
+                        "cart_total_above.threshold must be zero or more");
+            } else if (condition instanceof ContainsProducts containsProducts) {
+                require(containsProducts.products() != null && !containsProducts.products().isEmpty(),
+                        "contains_products.products are required");
+                for (ProductQuantity product : containsProducts.products()) {
+                    require(product != null && product.product_id() != null && product.quantity() != null && product.quantity() >= 1,
+                            "contains_products needs a product_id and a quantity of at least 1 for every product");
+                }
+                requiresProducts = true;
+            }
+        }
+        boolean countsRepetitions = requiresProducts;
+        action.accept(new ActionVisitor<Void>() {
+            @Override
+            public Void percentOffCart(PercentOffCart percentOffCart) {
+                requirePercentage(percentOffCart.percent());
+                return null;
+            }
+
+            @Override
+            public Void fixedOffCart(FixedOffCart fixedOffCart) {
+                require(fixedOffCart.amount() != null && fixedOffCart.amount() >= 0, "fixed_off_cart.amount must be zero or more");
+                return null;
+            }
+
+            @Override
+            public Void percentOffProducts(PercentOffProducts percentOffProducts) {
+                requirePercentage(percentOffProducts.percent());
+                requireProductIds(percentOffProducts.product_ids());
+                return null;
+            }
+
+            @Override
+            public Void tieredPercentOffProducts(TieredPercentOffProducts tiered) {
+                requireProductIds(tiered.product_ids());
+                require(tiered.tiers() != null && !tiered.tiers().isEmpty(), "tiered_percent_off_products.tiers are required");
+                for (Tier tier : tiered.tiers()) {
+                    require(tier != null && tier.min_quantity() != null && tier.min_quantity() >= 1,
+                            "every tier needs a min_quantity of at least 1");
+                    requirePercentage(tier.percent());
+                }
+                return null;
+            }
+
+            @Override
+            public Void freeItems(FreeItems freeItems) {
+                requireProductIds(freeItems.product_ids());
+                require(freeItems.repetition_limit() != null && freeItems.repetition_limit() >= 1,
+                        "free_items.repetition_limit must be at least 1");
+                require(countsRepetitions, "free_items needs a contains_products condition to count repetitions");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The percentage the action takes off, for display as the coupon's discount: that of a
+     * percentage action or the highest tier's, {@code null} for fixed amounts and free items.
+     */
+    public Integer discountPercent() {
+        return action.accept(new ActionVisitor<>() {
+            @Override
+            public Integer percentOffCart(PercentOffCart percentOffCart) {
+                return percentOffCart.percent();
+            }
+
+            @Override
+            public Integer fixedOffCart(FixedOffCart fixedOffCart) {
+                return null;
+            }
+
+            @Override
+            public Integer percentOffProducts(PercentOffProducts percentOffProducts) {
+                return percentOffProducts.percent();
+            }
+
+            @Override
+            public Integer tieredPercentOffProducts(TieredPercentOffProducts tiered) {
+                return tiered.tiers().stream().map(Tier::percent).max(Integer::compare).orElse(null);
+            }
+
+            @Override
+            public Integer freeItems(FreeItems freeItems) {
+                return null;
+            }
+        });
+    }
+
+    public String toJson() {
+        try {
+            return JSON.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot write rule definition", e);
+        }
+    }
+
+    public static RuleDefinition fromJson(String json) {
+        try {
+            return JSON.readValue(json, RuleDefinition.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid rule definition: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private static void requirePercentage(Integer percent) {
+        require(percent != null && percent >= 0 && percent <= 100, "percent must be between 0 and 100");
+    }
+
+    private static void requireProductIds(List<Long> productIds) {
+        require(productIds != null && !productIds.isEmpty() && productIds.stream().allMatch(Objects::nonNull),
+                "product_ids are required");
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+}
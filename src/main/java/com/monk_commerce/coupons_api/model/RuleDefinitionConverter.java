@@ -0,0 +1,21 @@
+package com.monk_commerce.coupons_api.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a {@link RuleDefinition} as its JSON text.
+ */
+@Converter
+public class RuleDefinitionConverter implements AttributeConverter<RuleDefinition, String> {
+
+    @Override
+    public String convertToDatabaseColumn(RuleDefinition definition) {
+        return definition == null ? null : definition.toJson();
+    }
+
+    @Override
+    public RuleDefinition convertToEntityAttribute(String json) {
+        return json == null ? null : RuleDefinition.fromJson(json);
+    }
+}
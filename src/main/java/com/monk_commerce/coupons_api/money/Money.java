@@ -0,0 +1,108 @@
+package com.monk_commerce.coupons_api.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point arithmetic on amounts held as a {@code long} count of minor units (cents
+ * at scale 2). Amounts only become doubles at the edges, when a cart is read and when a
+ * response is written; everything in between is exact integer arithmetic with one
+ * explicit rounding step per division, so a discount comes out identical on every node.
+ * <p>
+ * All operations throw {@link ArithmeticException} on overflow rather than wrapping.
+ */
+public final class Money {
+
+    public static final Money DEFAULT = new Money(2, RoundingMode.HALF_EVEN);
+
+    private static final int MAX_SCALE = 9;
+
+    private final int scale;
+    private final long unit;
+    private final RoundingMode roundingMode;
+
+    public Money(int scale, RoundingMode roundingMode) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Currency scale must be between 0 and " + MAX_SCALE + ": " + scale);
+        }
+        this.scale = scale;
+        this.unit = (long) Math.pow(10, scale);
+        this.roundingMode = roundingMode;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public RoundingMode getRoundingMode() {
+        return roundingMode;
+    }
+
+    /**
+     * Converts a decimal amount to minor units. The double is read through its shortest
+     * decimal representation, so {@code 19.99} becomes exactly 1999 at scale 2.
+     */
+    public long toMinor(double amount) {
+        return BigDecimal.valueOf(amount).movePointRight(scale).setScale(0, roundingMode).longValueExact();
+    }
+
+    /**
+     * Converts a whole amount in major units (such as a coupon threshold) to minor units.
+     */
+    public long toMinor(long majorAmount) {
+        return Math.multiplyExact(majorAmount, unit);
+    }
+
+    /**
+     * Converts minor units back to the nearest double, for responses.
+     */
+    public double toMajor(long minorAmount) {
+        return (double) minorAmount / unit;
+    }
+
+    public long times(long amount, int quantity) {
+        return Math.multiplyExact(amount, quantity);
+    }
+
+    /**
+     * {@code percent}% of {@code amount}, rounded once with the configured mode.
+     */
+    public long percentOf(long amount, int percent) {
+        return divide(Math.multiplyExact(amount, percent), 100);
+    }
+
+    /**
+     * Divides with the configured rounding mode.
+     *
+     * @throws ArithmeticException if the mode is {@link RoundingMode#UNNECESSARY} and the
+     *                             division is not exact
+     */
+    public long divide(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        int signum = (dividend ^ divisor) < 0 ? -1 : 1;
+        return roundAwayFromZero(quotient, Math.abs(remainder), Math.abs(divisor), signum) ? quotient + signum : quotient;
+    }
+
+    private boolean roundAwayFromZero(long quotient, long remainder, long divisor, int signum) {
+        return switch (roundingMode) {
+            case UP -> true;
+            case DOWN -> false;
+            case CEILING -> signum > 0;
+            case FLOOR -> signum < 0;
+            case HALF_UP, HALF_DOWN, HALF_EVEN -> {
+                // Compare the remainder with the other part of the divisor instead of doubling it
+                int half = Long.compare(remainder, divisor - remainder);
+                if (half != 0) {
+                    yield half > 0;
+                }
+                yield roundingMode == RoundingMode.HALF_UP
+                        || (roundingMode == RoundingMode.HALF_EVEN && (quotient & 1) != 0);
+            }
+            case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+        };
+    }
+}
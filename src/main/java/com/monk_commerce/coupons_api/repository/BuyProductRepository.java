@@ -2,9 +2,17 @@ package com.monk_commerce.coupons_api.repository;
 
 import com.monk_commerce.coupons_api.model.BuyProduct;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface BuyProductRepository extends JpaRepository<BuyProduct, Long> {
     void deleteByCouponId(Long couponId);
+
+    @Query("select distinct b.coupon.id from BuyProduct b where b.product_id in :productIds")
+    List<Long> findCouponIdsByProductIds(@Param("productIds") Collection<Long> productIds);
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.monk_commerce.coupons_api.repository;
+
+import com.monk_commerce.coupons_api.model.*;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional filters for listing coupons; a {@code null} field matches every coupon.
+ *
+ * @param type      coupon subtype
+ * @param productId coupons that discount the product or, for BxGy, buy or give it
+ * @param validAt   coupons whose validity window contains this time
+ */
+public record CouponFilter(Class<? extends Coupon> type, Long productId, LocalDateTime validAt) {
+
+    public static final CouponFilter NONE = new CouponFilter(null, null, null);
+
+    /**
+     * Builds a filter from request parameters, using the coupon type names of the API.
+     */
+    public static CouponFilter of(String type, Long productId, LocalDateTime validAt) {
+        return new CouponFilter(type == null ? null : couponType(type), productId, validAt);
+    }
+
+    private static Class<? extends Coupon> couponType(String type) {
+        return switch (type) {
+            case "cart-wise" -> CartWiseCoupon.class;
+            case "product-wise" -> ProductWiseCoupon.class;
+            case "bxgy" -> BxGyCoupon.class;
+            case "custom" -> CustomCoupon.class;
+            default -> throw new IllegalArgumentException("Invalid coupon type: " + type);
+        };
+    }
+
+    /**
+     * Coupons matching the filter with an id greater than {@code afterId}.
+     */
+    Specification<Coupon> after(long afterId) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            predicates.add(cb.greaterThan(root.get("id"), afterId));
+            if (type != null) {
+                predicates.add(cb.equal(root.type(), type));
+            }
+            if (productId != null) {
+                // Subqueries rather than joins, so a coupon is never listed twice
+                Subquery<Long> productWise = query.subquery(Long.class);
+                var productWiseRoot = productWise.from(ProductWiseCoupon.class);
+                productWise.select(productWiseRoot.get("id")).where(cb.equal(productWiseRoot.get("productId"), productId));
+                Subquery<Long> buyProducts = query.subquery(Long.class);
+                var buyProductRoot = buyProducts.from(BuyProduct.class);
+                buyProducts.select(buyProductRoot.get("coupon").get("id")).where(cb.equal(buyProductRoot.get("product_id"), productId));
+                Subquery<Long> getProducts = query.subquery(Long.class);
+                var getProductRoot = getProducts.from(GetProduct.class);
+                getProducts.select(getProductRoot.get("coupon").get("id")).where(cb.equal(getProductRoot.get("product_id"), productId));
+                predicates.add(cb.or(root.get("id").in(productWise), root.get("id").in(buyProducts), root.get("id").in(getProducts)));
+            }
+            if (validAt != null) {
+                predicates.add(cb.or(cb.isNull(root.get("validFrom")), cb.lessThanOrEqualTo(root.get("validFrom"), validAt)));
+                predicates.add(cb.or(cb.isNull(root.get("validUntil")), cb.greaterThan(root.get("validUntil"), validAt)));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.monk_commerce.coupons_api.repository;
+
+import com.monk_commerce.coupons_api.model.CouponRedemption;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface CouponRedemptionRepository extends JpaRepository<CouponRedemption, CouponRedemption.Key> {
+
+    @Transactional
+    @Modifying
+    @Query("delete from CouponRedemption r where r.couponId = :couponId")
+    void deleteByCouponId(@Param("couponId") Long couponId);
+}
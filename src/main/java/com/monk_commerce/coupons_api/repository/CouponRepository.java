@@ -1,10 +1,102 @@
 package com.monk_commerce.coupons_api.repository;
 
+import com.monk_commerce.coupons_api.model.BxGyCoupon;
+import com.monk_commerce.coupons_api.model.CartWiseCoupon;
 import com.monk_commerce.coupons_api.model.Coupon;
+import com.monk_commerce.coupons_api.model.CustomCoupon;
+import com.monk_commerce.coupons_api.model.ProductWiseCoupon;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
-public interface CouponRepository extends JpaRepository<Coupon, Long> {
-}
+public interface CouponRepository extends JpaRepository<Coupon, Long>, JpaSpecificationExecutor<Coupon> {
+
+    // Coupon c is inside its validity window at :now
+    String VALID_AT_NOW = " and (c.validFrom is null or c.validFrom <= :now) and (c.validUntil is null or c.validUntil > :now)";
+
+    @Query("select distinct c from BxGyCoupon c left join fetch c.buyProducts")
+    List<BxGyCoupon> findAllBxGyWithBuyProducts();
+
+    @Query("select distinct c from BxGyCoupon c left join fetch c.getProducts")
+    List<BxGyCoupon> findAllBxGyWithGetProducts();
+
+    @Query("select distinct c from BxGyCoupon c left join fetch c.buyProducts where c.id in :ids")
+    List<BxGyCoupon> findBxGyWithBuyProducts(@Param("ids") Collection<Long> ids);
+
+    @Query("select distinct c from BxGyCoupon c left join fetch c.getProducts where c.id in :ids")
+    List<BxGyCoupon> findBxGyWithGetProducts(@Param("ids") Collection<Long> ids);
 
+    /**
+     * Cart-wise coupons a cart clears. A cart clears the thresholds it exceeds, so
+     * {@code thresholdBound} is the cart total in major units rounded up.
+     */
+    @Query("select c from CartWiseCoupon c where c.threshold < :thresholdBound" + VALID_AT_NOW)
+    List<CartWiseCoupon> findEligibleCartWise(@Param("thresholdBound") long thresholdBound,
+                                              @Param("now") LocalDateTime now);
+
+    @Query("select c from ProductWiseCoupon c where c.productId in :productIds" + VALID_AT_NOW)
+    List<ProductWiseCoupon> findLiveProductWise(@Param("productIds") Collection<Long> productIds,
+                                                @Param("now") LocalDateTime now);
+
+    /**
+     * Custom coupons, whose conditions are not columns, are candidates for every cart.
+     */
+    @Query("select c from CustomCoupon c where c.id is not null" + VALID_AT_NOW)
+    List<CustomCoupon> findLiveCustom(@Param("now") LocalDateTime now);
+
+    /**
+     * Ids of the live BxGy coupons among {@code ids}, plus those without buy products,
+     * which apply to any cart.
+     */
+    @Query("select c.id from BxGyCoupon c where (c.id in :ids or c.buyProducts is empty)" + VALID_AT_NOW)
+    List<Long> findLiveBxGyIds(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    /**
+     * Loads every coupon with the BxGy buy and get products initialized, in three queries
+     * regardless of catalog size. The two collections are fetched separately because
+     * fetching both bags in one query is a cartesian product.
+     */
+    @Transactional(readOnly = true)
+    default List<Coupon> findAllForCatalog() {
+        List<Coupon> coupons = findAll();
+        findAllBxGyWithBuyProducts();
+        findAllBxGyWithGetProducts();
+        return coupons;
+    }
+
+    /**
+     * Like {@link #findAllForCatalog()} for the given ids only.
+     */
+    @Transactional(readOnly = true)
+    default List<Coupon> findAllByIdForCatalog(Collection<Long> ids) {
+        List<Coupon> coupons = findAllById(ids);
+        findBxGyWithBuyProducts(ids);
+        findBxGyWithGetProducts(ids);
+        return coupons;
+    }
+
+    /**
+     * Loads up to {@code limit} coupons matching the filter with an id greater than
+     * {@code afterId}, in id order, with the BxGy buy and get products initialized. Seeking
+     * past the last id of the previous page costs the same on every page, unlike an offset.
+     */
+    @Transactional(readOnly = true)
+    default List<Coupon> findPage(CouponFilter filter, long afterId, int limit) {
+        List<Coupon> coupons = findBy(filter.after(afterId), query -> query.sortBy(Sort.by("id")).limit(limit).all());
+        List<Long> bxGyIds = coupons.stream().filter(BxGyCoupon.class::isInstance).map(Coupon::getId).toList();
+        if (!bxGyIds.isEmpty()) {
+            findBxGyWithBuyProducts(bxGyIds);
+            findBxGyWithGetProducts(bxGyIds);
+        }
+        return coupons;
+    }
+}
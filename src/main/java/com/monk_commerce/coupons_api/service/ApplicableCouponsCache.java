@@ -0,0 +1,138 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.dto.ApplicableCoupon;
+import com.monk_commerce.coupons_api.dto.CartItem;
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of applicable-coupon results for repeated carts.
+ * <p>
+ * Entries are keyed by the catalog version, the requested limit and a canonical
+ * fingerprint of the cart: its (product id, quantity, unit price in minor units) lines,
+ * sorted by product so that line order does not matter. Keys compare the full
+ * fingerprint, so a hash collision can never return another cart's result. Carts that
+ * list a product twice keep their line order, since the last line for a product wins
+ * during evaluation.
+ * <p>
+ * Every coupon change publishes a new catalog version, which makes older entries
+ * unreachable. The first lookup against a newer version also clears them rather than
+ * leaving them to expire.
+ */
+public class ApplicableCouponsCache {
+
+    private final Cache<Key, List<ApplicableCoupon>> cache;
+    private final Money money;
+    private volatile long latestVersion;
+
+    public ApplicableCouponsCache(long maximumSize, Duration timeToLive, Money money) {
+        this.cache = maximumSize > 0
+                ? Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(timeToLive).recordStats().build()
+                : null;
+        this.money = money;
+    }
+
+    public static ApplicableCouponsCache disabled() {
+        return new ApplicableCouponsCache(0, Duration.ZERO, Money.DEFAULT);
+    }
+
+    /**
+     * The underlying cache, for binding its statistics; {@code null} when disabled.
+     */
+    public Cache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the cached result for the cart, or evaluates and caches it. A limit of 0
+     * stands for the full list.
+     */
+    public List<ApplicableCoupon> get(CouponCatalog catalog, List<CartItem> items, int limit,
+                                      Supplier<List<ApplicableCoupon>> evaluate) {
+        if (cache == null || items == null) {
+            return evaluate.get();
+        }
+        long version = catalog.getVersion();
+        if (version < latestVersion) {
+            // A request still holding an older snapshot; its result is already stale
+            return evaluate.get();
+        }
+        if (version > latestVersion) {
+            advanceTo(version);
+        }
+        long[] fingerprint = fingerprint(items, money);
+        if (fingerprint == null) {
+            return evaluate.get();
+        }
+        return cache.get(new Key(version, limit, fingerprint), key -> List.copyOf(evaluate.get()));
+    }
+
+    private synchronized void advanceTo(long version) {
+        if (version > latestVersion) {
+            latestVersion = version;
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Flattens the cart into (product id, quantity, unit price) triples, sorted by product
+     * when every product is listed once. Returns {@code null} for carts that cannot be
+     * fingerprinted.
+     */
+    static long[] fingerprint(List<CartItem> items, Money money) {
+        long[][] lines = new long[items.size()][];
+        for (int i = 0; i < lines.length; i++) {
+            CartItem item = items.get(i);
+            if (item.getProduct_id() == null) {
+                return null;
+            }
+            lines[i] = new long[]{item.getProduct_id(), item.getQuantity(), money.toMinor(item.getPrice())};
+        }
+        long[][] sorted = lines.clone();
+        Arrays.sort(sorted, (a, b) -> Long.compare(a[0], b[0]));
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i][0] == sorted[i - 1][0]) {
+                sorted = lines;
+                break;
+            }
+        }
+        long[] fingerprint = new long[sorted.length * 3];
+        for (int i = 0; i < sorted.length; i++) {
+            System.arraycopy(sorted[i], 0, fingerprint, i * 3, 3);
+        }
+        return fingerprint;
+    }
+
+    private static final class Key {
+
+        private final long version;
+        private final int limit;
+        private final long[] lines;
+        private final int hash;
+
+        Key(long version, int limit, long[] lines) {
+            this.version = version;
+            this.limit = limit;
+            this.lines = lines;
+            this.hash = 31 * (31 * Long.hashCode(version) + limit) + Arrays.hashCode(lines);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && version == other.version && limit == other.limit
+                    && Arrays.equals(lines, other.lines);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.catalog.CatalogSnapshot;
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the compiled catalog to a {@link CatalogSnapshot} file every
+ * {@code coupons.snapshot.interval-ms} and on shutdown, and restores it on startup.
+ * <p>
+ * Restoring reads the snapshot, then only what changed since. One scan of the coupon ids
+ * and update times drops deleted coupons and finds those created since and those
+ * updated after the snapshot was taken minus {@code coupons.snapshot.replay-margin-ms}.
+ * The margin covers transactions that stamped a coupon before the snapshot but committed
+ * after it; reading a coupon twice is harmless. A missing or unreadable snapshot, or one
+ * where most coupons changed since, falls back to a full load.
+ */
+@Component
+public class CatalogSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshotService.class);
+    private static final int LOAD_CHUNK = 1000;
+    private static final String SCAN = "SELECT id, updated_at FROM coupons";
+    private static final String IDS = "SELECT id FROM coupons";
+
+    @Autowired
+    private CouponRepository couponRepository;
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${coupons.snapshot.enabled:false}")
+    private boolean enabled;
+    @Value("${coupons.snapshot.path:data/catalog.snapshot}")
+    private Path path;
+    @Value("${coupons.snapshot.replay-margin-ms:10000}")
+    private long replayMarginMs;
+
+    private long writtenVersion;
+
+    /**
+     * The rules as of now, rebuilt from the snapshot and the coupons changed since, or
+     * {@code null} when snapshots are disabled or there is no usable snapshot.
+     */
+    public List<CouponRule> restore() {
+        if (!enabled || !Files.exists(path)) {
+            return null;
+        }
+        CatalogSnapshot snapshot;
+        try {
+            snapshot = CatalogSnapshot.read(path);
+        } catch (IOException e) {
+            log.warn("Ignoring catalog snapshot, loading every coupon instead", e);
+            return null;
+        }
+        Timestamp since = Timestamp.valueOf(LocalDateTime.ofInstant(
+                snapshot.takenAt().minusMillis(replayMarginMs), ZoneId.systemDefault()));
+        Map<Long, CouponRule> known = new HashMap<>(snapshot.rules().size() * 2);
+        for (CouponRule rule : snapshot.rules()) {
+            known.put(rule.id(), rule);
+        }
+
+        List<CouponRule> rules = new ArrayList<>(snapshot.rules().size());
+        List<Long> reload = new ArrayList<>();
+        // One scan of the primary key and timestamp rather than loading any coupon
+        jdbcTemplate.query(SCAN, resultSet -> {
+            long id = resultSet.getLong(1);
+            Timestamp updatedAt = resultSet.getTimestamp(2);
+            CouponRule rule = known.get(id);
+            if ((updatedAt != null && updatedAt.after(since)) || (rule == null && !snapshot.omittedIds().contains(id))) {
+                reload.add(id);
+            } else if (rule != null) {
+                rules.add(rule);
+            }
+        });
+        if (reload.size() > (rules.size() + reload.size()) / 2) {
+            // Mostly stale: one full load is cheaper than reading that many coupons by id
+            return null;
+        }
+        for (int from = 0; from < reload.size(); from += LOAD_CHUNK) {
+            List<Long> chunk = reload.subList(from, Math.min(from + LOAD_CHUNK, reload.size()));
+            couponRepository.findAllByIdForCatalog(chunk).forEach(coupon -> rules.add(CouponRule.compile(coupon)));
+        }
+        return rules;
+    }
+
+    /**
+     * Writes a snapshot if the catalog changed since the last one.
+     */
+    @Scheduled(fixedDelayString = "${coupons.snapshot.interval-ms:60000}")
+    @PreDestroy
+    public synchronized void write() {
+        CouponCatalog catalog = catalogHolder.current();
+        if (!enabled || !catalogHolder.isInMemory() || catalog == null || catalog.getVersion() == writtenVersion) {
+            return;
+        }
+        // Taken first: anything that changes while the snapshot is being built is replayed
+        Instant takenAt = Instant.now();
+        Set<Long> omittedIds = new HashSet<>(jdbcTemplate.queryForList(IDS, Long.class));
+        List<CouponRule> rules = catalogHolder.admittedRules();
+        rules.forEach(rule -> omittedIds.remove(rule.id()));
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            new CatalogSnapshot(takenAt, rules, omittedIds).write(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write catalog snapshot " + path, e);
+        }
+        writtenVersion = catalog.getVersion();
+    }
+}
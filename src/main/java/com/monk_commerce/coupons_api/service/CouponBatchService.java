@@ -0,0 +1,115 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.dto.BatchResult;
+import com.monk_commerce.coupons_api.dto.CartRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a stream of carts against a single catalog snapshot. Carts are read
+ * incrementally, evaluated on a bounded worker pool and written back in input order,
+ * one JSON document per line, with at most {@code window} carts in flight.
+ */
+@Service
+public class CouponBatchService {
+
+    @Autowired
+    private CouponService couponService;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${coupons.batch.parallelism:0}")
+    private int parallelism;
+    @Value("${coupons.batch.window:256}")
+    private int window;
+
+    private ExecutorService executor;
+    private ObjectReader cartReader;
+    private ObjectWriter resultWriter;
+
+    @PostConstruct
+    void init() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "coupon-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        cartReader = objectMapper.readerFor(CartRequest.class);
+        // Lines go straight to the response stream, which the servlet container flushes and closes
+        resultWriter = objectMapper.writerFor(BatchResult.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reads carts from {@code in}, either as a JSON array or as newline-delimited JSON,
+     * and writes one result line per cart to {@code out}.
+     */
+    public void evaluate(InputStream in, OutputStream out) throws IOException {
+        CouponCatalog catalog = couponService.getCatalog();
+        Deque<Future<BatchResult>> inFlight = new ArrayDeque<>();
+        int index = 0;
+
+        try (MappingIterator<CartRequest> carts = cartReader.readValues(in)) {
+            while (carts.hasNextValue()) {
+                CartRequest cartRequest = carts.nextValue();
+                int cartIndex = index++;
+                inFlight.addLast(executor.submit(() -> evaluateCart(catalog, cartIndex, cartRequest)));
+                if (inFlight.size() >= window) {
+                    writeResult(inFlight.removeFirst(), out);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeResult(inFlight.removeFirst(), out);
+            }
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+        out.flush();
+    }
+
+    private BatchResult evaluateCart(CouponCatalog catalog, int index, CartRequest cartRequest) {
+        try {
+            return new BatchResult(index, catalog.getVersion(), couponService.getApplicableCoupons(catalog, cartRequest), null);
+        } catch (RuntimeException e) {
+            return new BatchResult(index, catalog.getVersion(), null, e.getMessage() != null ? e.getMessage() : "Invalid cart");
+        }
+    }
+
+    private void writeResult(Future<BatchResult> future, OutputStream out) throws IOException {
+        BatchResult result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating batch", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch evaluation failed", e.getCause());
+        }
+        resultWriter.writeValue(out, result);
+        out.write('\n');
+    }
+}
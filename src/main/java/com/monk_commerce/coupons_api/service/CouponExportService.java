@@ -0,0 +1,62 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.monk_commerce.coupons_api.model.Coupon;
+import com.monk_commerce.coupons_api.repository.CouponFilter;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes every coupon matching a filter as one JSON array, in id order.
+ * <p>
+ * Coupons are read in keyset chunks of {@code coupons.export.chunk-size}, each in its own
+ * short read transaction, and each chunk is written and detached before the next is read.
+ * Memory therefore stays constant however large the catalog is, and no transaction or
+ * cursor is held open while the client reads. Coupons created during the export appear
+ * in it only if their id is above the last one already written.
+ */
+@Service
+public class CouponExportService {
+
+    @Autowired
+    private CouponRepository couponRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${coupons.export.chunk-size:500}")
+    private int chunkSize;
+
+    public void export(CouponFilter filter, OutputStream out) throws IOException {
+        // The servlet container flushes and closes the response stream
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.writeStartArray();
+            long afterId = 0;
+            List<Coupon> chunk;
+            do {
+                chunk = couponRepository.findPage(filter, afterId, chunkSize);
+                for (Coupon coupon : chunk) {
+                    generator.writeObject(coupon);
+                }
+                generator.flush();
+                if (!chunk.isEmpty()) {
+                    afterId = chunk.get(chunk.size() - 1).getId();
+                }
+                // The request's persistence context would otherwise keep every exported coupon
+                entityManager.clear();
+            } while (chunk.size() == chunkSize);
+            generator.writeEndArray();
+        }
+    }
+}
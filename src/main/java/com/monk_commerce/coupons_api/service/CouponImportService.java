@@ -0,0 +1,348 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.dto.ImportResult;
+import com.monk_commerce.coupons_api.model.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Imports coupons from a stream of NDJSON or CSV rows.
+ * <p>
+ * Rows are parsed and validated one at a time, so the input is never held in memory,
+ * and saved in chunks of {@code coupons.import.batch-size}, each in its own transaction
+ * and as JDBC batches. If a chunk fails to save, its rows are retried one by one so only
+ * the offending rows are reported. Every saved chunk is published to the catalog as a
+ * single new version.
+ * <p>
+ * CSV input needs a header row naming the {@link CouponRequest.CouponDetails} fields
+ * plus {@code type}. {@code buy_products} and {@code get_products} are written as
+ * {@code product_id:quantity} pairs separated by {@code |}.
+ */
+@Service
+public class CouponImportService {
+
+    @Autowired
+    private CouponService couponService;
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+    @Autowired
+    private CouponJournal couponJournal;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${coupons.import.batch-size:1000}")
+    private int batchSize;
+
+    private ObjectReader requestReader;
+    private ObjectReader csvReader;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    void init() {
+        requestReader = objectMapper.readerFor(CouponRequest.class);
+        csvReader = new CsvMapper().readerForMapOf(String.class).with(CsvSchema.emptySchema().withHeader());
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Imports one JSON coupon request per line; blank lines are skipped.
+     */
+    public ImportResult importNdjson(InputStream in) throws IOException {
+        Import batch = new Import();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String json = line;
+            batch.add(() -> readRequest(json));
+        }
+        return batch.finish();
+    }
+
+    public ImportResult importCsv(InputStream in) throws IOException {
+        Import batch = new Import();
+        try (MappingIterator<Map<String, String>> rows = csvReader.readValues(in)) {
+            while (true) {
+                Map<String, String> values;
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    values = rows.nextValue();
+                } catch (IOException | RuntimeException e) {
+                    // The parser cannot resynchronise after malformed CSV
+                    batch.reject(message(e));
+                    break;
+                }
+                batch.add(() -> fromCsv(values));
+            }
+        }
+        return batch.finish();
+    }
+
+    private CouponRequest readRequest(String json) {
+        try {
+            return requestReader.readValue(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(message(e));
+        }
+    }
+
+    /**
+     * State of one import: the chunk waiting to be saved and the outcome so far.
+     */
+    private final class Import {
+
+        private record Row(int row, Coupon coupon) {
+        }
+
+        private final List<Row> pending = new ArrayList<>();
+        private final List<ImportResult.ImportError> errors = new ArrayList<>();
+        private int rows;
+        private int imported;
+
+        void add(Supplier<CouponRequest> parse) {
+            int row = ++rows;
+            try {
+                CouponRequest request = parse.get();
+                validate(request);
+                pending.add(new Row(row, couponService.buildCoupon(request)));
+            } catch (RuntimeException e) {
+                errors.add(new ImportResult.ImportError(row, message(e)));
+                return;
+            }
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void reject(String error) {
+            errors.add(new ImportResult.ImportError(++rows, error));
+        }
+
+        ImportResult finish() {
+            flush();
+            // Rows of a chunk that failed to save are reported after later parse errors
+            errors.sort(Comparator.comparingInt(ImportResult.ImportError::row));
+            return new ImportResult(imported, errors.size(), errors);
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            try {
+                save(pending);
+            } catch (RuntimeException chunkFailure) {
+                for (Row row : pending) {
+                    try {
+                        clearIds(row.coupon());
+                        save(List.of(row));
+                    } catch (RuntimeException e) {
+                        errors.add(new ImportResult.ImportError(row.row(), message(e)));
+                    }
+                }
+            }
+            pending.clear();
+        }
+
+        private void save(List<Row> chunk) {
+            List<CouponRule> rules = transactionTemplate.execute(status -> {
+                for (Row row : chunk) {
+                    entityManager.persist(row.coupon());
+                }
+                entityManager.flush();
+                List<CouponRule> compiled = new ArrayList<>(chunk.size());
+                for (Row row : chunk) {
+                    compiled.add(CouponRule.compile(row.coupon()));
+                }
+                couponJournal.record(compiled.stream().map(CouponRule::id).toList());
+                // Detached so the persistence context does not grow with the import
+                entityManager.clear();
+                return compiled;
+            });
+            catalogHolder.publishAll(rules);
+            imported += chunk.size();
+        }
+    }
+
+    /**
+     * Checks what creating a single coupon leaves to the caller, so a bad row is reported
+     * rather than imported.
+     */
+    private void validate(CouponRequest request) {
+        CouponRequest.CouponDetails details = request.getDetails();
+        if (details == null) {
+            throw new IllegalArgumentException("details are required");
+        }
+        String type = request.getType() == null ? "" : request.getType();
+        switch (type) {
+            case "cart-wise" -> {
+                require(details.getThreshold() != null && details.getThreshold() >= 0, "threshold must be zero or more");
+                requirePercentage(details.getDiscount());
+            }
+            case "product-wise" -> {
+                require(details.getProduct_id() != null, "product_id is required");
+                requirePercentage(details.getDiscount());
+            }
+            case "bxgy" -> {
+                require(details.getBuy_products() != null && !details.getBuy_products().isEmpty(), "buy_products are required");
+                require(details.getGet_products() != null && !details.getGet_products().isEmpty(), "get_products are required");
+                for (BuyProduct product : details.getBuy_products()) {
+                    requireProduct(product.getProduct_id(), product.getQuantity());
+                }
+                for (GetProduct product : details.getGet_products()) {
+                    requireProduct(product.getProduct_id(), product.getQuantity());
+                }
+                require(details.getRepetition_limit() != null && details.getRepetition_limit() >= 1,
+                        "repetition_limit must be at least 1");
+            }
+            case "custom" -> {
+                require(details.getRule() != null, "rule is required");
+                details.getRule().validate();
+            }
+            default -> throw new IllegalArgumentException("Invalid coupon type: " + request.getType());
+        }
+        require(details.getMax_redemptions() == null || details.getMax_redemptions() >= 1, "max_redemptions must be at least 1");
+        require(details.getMax_redemptions_per_user() == null || details.getMax_redemptions_per_user() >= 1,
+                "max_redemptions_per_user must be at least 1");
+    }
+
+    private static void requirePercentage(Integer discount) {
+        require(discount != null && discount >= 0 && discount <= 100, "discount must be between 0 and 100");
+    }
+
+    private static void requireProduct(Long productId, Integer quantity) {
+        require(productId != null && quantity != null && quantity >= 1, "products need a product_id and a quantity of at least 1");
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static CouponRequest fromCsv(Map<String, String> values) {
+        CouponRequest request = new CouponRequest();
+        request.setType(text(values, "type"));
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setDiscount(integer(values, "discount"));
+        details.setThreshold(integer(values, "threshold"));
+        String productId = text(values, "product_id");
+        details.setProduct_id(productId == null ? null : parse("product_id", productId, Long::valueOf));
+        details.setRepetition_limit(integer(values, "repetition_limit"));
+        String stackable = text(values, "stackable");
+        details.setStackable(stackable == null ? null : Boolean.valueOf(stackable));
+        details.setExclusive_group(text(values, "exclusive_group"));
+        details.setMax_redemptions(integer(values, "max_redemptions"));
+        details.setMax_redemptions_per_user(integer(values, "max_redemptions_per_user"));
+        details.setValid_from(dateTime(values, "valid_from"));
+        details.setValid_until(dateTime(values, "valid_until"));
+        // A custom coupon's rule is its JSON definition in one column
+        String rule = text(values, "rule");
+        details.setRule(rule == null ? null : RuleDefinition.fromJson(rule));
+        details.setBuy_products(products(values, "buy_products").stream().map(product -> {
+            BuyProduct buyProduct = new BuyProduct();
+            buyProduct.setProduct_id(product.productId());
+            buyProduct.setQuantity(product.quantity());
+            return buyProduct;
+        }).toList());
+        details.setGet_products(products(values, "get_products").stream().map(product -> {
+            GetProduct getProduct = new GetProduct();
+            getProduct.setProduct_id(product.productId());
+            getProduct.setQuantity(product.quantity());
+            return getProduct;
+        }).toList());
+        request.setDetails(details);
+        return request;
+    }
+
+    private static List<CouponRule.ProductQuantity> products(Map<String, String> values, String column) {
+        String value = text(values, column);
+        List<CouponRule.ProductQuantity> products = new ArrayList<>();
+        if (value == null) {
+            return products;
+        }
+        for (String pair : value.split("\\|")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(column + " must be product_id:quantity pairs separated by |");
+            }
+            products.add(new CouponRule.ProductQuantity(parse(column, parts[0].trim(), Long::valueOf),
+                    parse(column, parts[1].trim(), Integer::valueOf)));
+        }
+        return products;
+    }
+
+    private static String text(Map<String, String> values, String column) {
+        String value = values.get(column);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    private static Integer integer(Map<String, String> values, String column) {
+        String value = text(values, column);
+        return value == null ? null : parse(column, value, Integer::valueOf);
+    }
+
+    private static LocalDateTime dateTime(Map<String, String> values, String column) {
+        String value = text(values, column);
+        return value == null ? null : parse(column, value, LocalDateTime::parse);
+    }
+
+    private static <T> T parse(String column, String value, Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    private static void clearIds(Coupon coupon) {
+        coupon.setId(null);
+        if (coupon instanceof BxGyCoupon bxGyCoupon) {
+            bxGyCoupon.getBuyProducts().forEach(product -> product.setId(null));
+            bxGyCoupon.getGetProducts().forEach(product -> product.setId(null));
+        }
+    }
+
+    private static String message(Exception e) {
+        if (e instanceof JsonProcessingException jsonException) {
+            return jsonException.getOriginalMessage();
+        }
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,205 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.model.Coupon;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only journal of coupon changes, which keeps the in-memory catalogs of several
+ * nodes sharing one database in step with each other. Off unless
+ * {@code coupons.journal.enabled} is set.
+ * <p>
+ * Creating, updating, deleting and importing coupons inserts one row per coupon into
+ * {@code coupon_mutations}, in the transaction of the change. Every
+ * {@code coupons.journal.poll-interval-ms} each node reads the rows after the last one it
+ * saw, reads the current state of the coupons they name and publishes it as one catalog
+ * version. Since applying a row re-reads the coupon, applying it twice or out of order
+ * is harmless. A node applies its own rows too, which repairs a local publish that raced
+ * one from the journal.
+ * <p>
+ * Sequence numbers are taken at insert but become visible at commit, so a number can be
+ * seen before a lower one. Skipped numbers are looked up again on every poll until they
+ * appear, or until {@code coupons.journal.gap-timeout-ms} has passed and they are taken
+ * to belong to a rolled back transaction. Every change up to the applied sequence has
+ * been applied; it is the gauge {@code coupons.journal.applied.sequence}, and the time
+ * from a change to its application on this node is the timer {@code coupons.journal.lag}.
+ */
+@Component
+public class CouponJournal {
+
+    private static final String APPEND = "INSERT INTO coupon_mutations (coupon_id, created_at) VALUES (?, ?)";
+    private static final String TAIL = "SELECT seq, coupon_id, created_at FROM coupon_mutations WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String FIND = "SELECT seq, coupon_id, created_at FROM coupon_mutations WHERE seq IN (%s)";
+    private static final String START = "SELECT COALESCE(MAX(seq), 0) FROM coupon_mutations WHERE created_at <= ?";
+    private static final String PRUNE = "DELETE FROM coupon_mutations WHERE created_at < ?";
+    private static final RowMapper<Mutation> MUTATION = (resultSet, row) ->
+            new Mutation(resultSet.getLong(1), resultSet.getLong(2), resultSet.getTimestamp(3).toInstant());
+    // Larger jumps, e.g. after the identity cache was lost in a crash, are not waited for
+    private static final int MAX_TRACKED_GAP = 10_000;
+    private static final int MAX_GAP_LOOKUPS = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private CouponRepository couponRepository;
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${coupons.journal.enabled:false}")
+    private boolean enabled;
+    @Value("${coupons.journal.batch-size:1000}")
+    private int batchSize = 1000;
+    @Value("${coupons.journal.gap-timeout-ms:10000}")
+    private long gapTimeoutMs = 10_000;
+    @Value("${coupons.journal.retention-ms:86400000}")
+    private long retentionMs = 86_400_000;
+
+    private final Clock clock = Clock.systemDefaultZone();
+    // Highest sequence number read; -1 until the catalog is loaded
+    private long highestSeen = -1;
+    // Numbers below highestSeen that have not been read, with the time they were first missed
+    private final TreeMap<Long, Long> missing = new TreeMap<>();
+    private volatile long appliedSequence = -1;
+    private Timer lag;
+
+    private record Mutation(long seq, long couponId, Instant createdAt) {
+    }
+
+    @PostConstruct
+    void registerMeters() {
+        Gauge.builder("coupons.journal.applied.sequence", this, CouponJournal::getAppliedSequence)
+                .description("Sequence number up to which this node applied every coupon change")
+                .register(meterRegistry);
+        lag = Timer.builder("coupons.journal.lag")
+                .description("Time from a coupon change to its application on this node")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Journals changes to the given coupons in the current transaction.
+     */
+    public void record(Collection<Long> couponIds) {
+        if (!enabled || couponIds.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(clock.instant());
+        jdbcTemplate.batchUpdate(APPEND, couponIds.stream().map(id -> new Object[]{id, now}).toList());
+    }
+
+    public void record(Long couponId) {
+        if (enabled) {
+            record(List.of(couponId));
+        }
+    }
+
+    /**
+     * Positions the tailer before the catalog is loaded, so changes committed during the
+     * load are applied afterwards. Rows younger than the gap timeout are read again, since
+     * a lower number may still be in flight among them.
+     */
+    public synchronized void startTailing() {
+        if (!enabled) {
+            return;
+        }
+        Timestamp before = Timestamp.from(clock.instant().minusMillis(gapTimeoutMs));
+        highestSeen = jdbcTemplate.queryForObject(START, Long.class, before);
+        missing.clear();
+        appliedSequence = highestSeen;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    @Scheduled(fixedDelayString = "${coupons.journal.poll-interval-ms:200}")
+    public synchronized void poll() {
+        // A catalog is loaded at most once, so no load can be waiting for this lock below
+        if (!enabled || highestSeen < 0 || catalogHolder.current() == null || !catalogHolder.isInMemory()) {
+            return;
+        }
+        long now = clock.millis();
+        List<Mutation> rows = new ArrayList<>(jdbcTemplate.query(TAIL, MUTATION, highestSeen, batchSize));
+        if (!missing.isEmpty()) {
+            String seqs = missing.keySet().stream().limit(MAX_GAP_LOOKUPS).map(String::valueOf).collect(Collectors.joining(","));
+            rows.addAll(jdbcTemplate.query(FIND.formatted(seqs), MUTATION));
+        }
+        Set<Long> couponIds = new HashSet<>();
+        long seen = highestSeen;
+        List<Long> gaps = new ArrayList<>();
+        List<Long> found = new ArrayList<>();
+        for (Mutation row : rows) {
+            if (row.seq() > seen) {
+                if (row.seq() - seen <= MAX_TRACKED_GAP) {
+                    for (long seq = seen + 1; seq < row.seq(); seq++) {
+                        gaps.add(seq);
+                    }
+                }
+                seen = row.seq();
+            } else {
+                found.add(row.seq());
+            }
+            couponIds.add(row.couponId());
+        }
+        // The position only moves once the rows are applied, so a failed poll reads them again
+        apply(couponIds);
+        for (Long seq : gaps) {
+            missing.put(seq, now);
+        }
+        missing.keySet().removeAll(found);
+        highestSeen = seen;
+        Instant applied = Instant.ofEpochMilli(clock.millis());
+        for (Mutation row : rows) {
+            lag.record(Duration.between(row.createdAt(), applied));
+        }
+        missing.values().removeIf(missedAt -> now - missedAt > gapTimeoutMs);
+        appliedSequence = missing.isEmpty() ? highestSeen : missing.firstKey() - 1;
+    }
+
+    @Scheduled(fixedDelayString = "${coupons.journal.prune-interval-ms:600000}")
+    public void prune() {
+        if (enabled) {
+            jdbcTemplate.update(PRUNE, Timestamp.from(clock.instant().minusMillis(retentionMs)));
+        }
+    }
+
+    private void apply(Set<Long> couponIds) {
+        if (couponIds.isEmpty()) {
+            return;
+        }
+        CouponCatalog catalog = catalogHolder.current();
+        List<CouponRule> rules = new ArrayList<>(couponIds.size());
+        Set<Long> removed = new HashSet<>(couponIds);
+        for (Coupon coupon : couponRepository.findAllByIdForCatalog(couponIds)) {
+            removed.remove(coupon.getId());
+            CouponRule rule = CouponRule.compile(coupon);
+            // Usually this node's own change, already published after its commit
+            if (!rule.equals(catalog.getRule(rule.id()))) {
+                rules.add(rule);
+            }
+        }
+        if (!rules.isEmpty() || !removed.isEmpty()) {
+            catalogHolder.publishAll(rules, removed);
+        }
+    }
+}
@@ -1,196 +1,403 @@
 package com.monk_commerce.coupons_api.service;
 
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.catalog.EvaluationContext;
 import com.monk_commerce.coupons_api.dto.*;
 import com.monk_commerce.coupons_api.exception.CouponNotFoundException;
+import com.monk_commerce.coupons_api.exception.RedemptionLimitExceededException;
+import com.monk_commerce.coupons_api.metrics.CouponMetrics;
 import com.monk_commerce.coupons_api.model.*;
+import com.monk_commerce.coupons_api.money.Money;
 import com.monk_commerce.coupons_api.repository.BuyProductRepository;
+import com.monk_commerce.coupons_api.repository.CouponFilter;
 import com.monk_commerce.coupons_api.repository.CouponRepository;
 import com.monk_commerce.coupons_api.repository.GetProductRepository;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Supplier;
 
 
 @Service
 public class CouponService {
+    /**
+     * Highest discount first; ties keep catalog (coupon id) order.
+     */
+    private static final Comparator<ApplicableCoupon> APPLICABLE_COUPON_ORDER =
+            Comparator.comparingDouble(ApplicableCoupon::discount).reversed()
+                    .thenComparing(ApplicableCoupon::coupon_id, Comparator.nullsFirst(Comparator.naturalOrder()));
+
     @Autowired
     private CouponRepository couponRepository;
     @Autowired
     private BuyProductRepository buyProductRepository;
     @Autowired
     private GetProductRepository getProductRepository;
-    private Integer freeProductCount = 0;
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+    @Autowired
+    private CouponStackingSolver stackingSolver;
+    @Autowired
+    private CouponMetrics couponMetrics;
+    @Autowired
+    private Money money;
+    @Autowired
+    private RedemptionCounters redemptionCounters;
+    @Autowired
+    private ApplicableCouponsCache applicableCouponsCache;
+    @Autowired
+    private PartitionedEvaluator partitionedEvaluator;
+    @Autowired
+    private DatabaseCandidateSource databaseCandidateSource;
+    @Autowired
+    private CatalogSnapshotService catalogSnapshots;
+    @Autowired
+    private CouponJournal couponJournal;
+
+    @Value("${coupons.list.default-limit:100}")
+    private int defaultListLimit = 100;
+    @Value("${coupons.list.max-limit:1000}")
+    private int maxListLimit = 1000;
 
     @Transactional
     public CouponResponse createCoupon(CouponRequest couponRequest) {
-        Coupon coupon = switch (couponRequest.getType()) {
-            case "cart-wise" -> createCartWiseCoupon(couponRequest);
-            case "product-wise" -> createProductWiseCoupon(couponRequest);
-            case "bxgy" -> createBxGyCoupon(couponRequest);
-            default -> throw new IllegalArgumentException("Invalid coupon type: " + couponRequest.getType());
-        };
-        coupon = couponRepository.save(coupon);
+        Coupon coupon = couponRepository.save(buildCoupon(couponRequest));
+        couponJournal.record(coupon.getId());
+        catalogHolder.publishAfterCommit(CouponRule.compile(coupon));
         return prepareCouponResponse(coupon);
     }
 
     @Transactional
     public Coupon updateCoupon(Long id, CouponRequest updatedCouponDetails) {
+        return updateCoupon(id, List.of(updatedCouponDetails));
+    }
+
+    /**
+     * Applies several updates of one coupon in order and writes the result once.
+     */
+    @Transactional
+    public Coupon updateCoupon(Long id, List<CouponRequest> updates) {
         Coupon existingCoupon = getCouponById(id);
         if (existingCoupon == null) {
             throw new CouponNotFoundException("Coupon not found for id: " + id);
         }
-        updateCouponDetails(existingCoupon, updatedCouponDetails);
-        return couponRepository.save(existingCoupon);
+        for (CouponRequest update : updates) {
+            updateCouponDetails(existingCoupon, update);
+        }
+        // Catalog snapshots replay the coupons updated after they were taken
+        existingCoupon.setUpdatedAt(LocalDateTime.now());
+        Coupon savedCoupon = couponRepository.save(existingCoupon);
+        couponJournal.record(id);
+        catalogHolder.publishAfterCommit(CouponRule.compile(savedCoupon));
+        return savedCoupon;
     }
 
 
+    @Transactional
     public void deleteCoupon(Long id) {
         couponRepository.deleteById(id);
+        couponJournal.record(id);
+        catalogHolder.removeAfterCommit(id);
+        redemptionCounters.removeAfterCommit(id);
+    }
+
+    /**
+     * Returns the current catalog snapshot. Callers that need to report the version a
+     * result was computed against should take the snapshot once and pass it along.
+     */
+    public CouponCatalog getCatalog() {
+        return catalogHolder.get(this::loadRules);
+    }
+
+    private List<CouponRule> loadRules() {
+        // Before reading any coupon, so changes committed during the load are applied after it
+        couponJournal.startTailing();
+        List<CouponRule> restored = catalogSnapshots.restore();
+        return restored != null ? restored : couponRepository.findAllForCatalog().stream().map(CouponRule::compile).toList();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCatalog() {
+        getCatalog();
     }
 
-    public List<Map<String, Object>> getApplicableCoupons(CartRequest cartRequest) {
-        List<Coupon> allCoupons = getAllCoupons();
+    public List<ApplicableCoupon> getApplicableCoupons(CartRequest cartRequest) {
+        return getApplicableCoupons(getCatalog(), cartRequest);
+    }
+
+    public List<ApplicableCoupon> getApplicableCoupons(CouponCatalog catalog, CartRequest cartRequest) {
+        return couponMetrics.observe("coupons.applicable", () -> cached(
+                catalog, cartRequest.getCart().getItems(), 0, () -> findApplicableCoupons(catalog, cartRequest)));
+    }
+
+    private List<ApplicableCoupon> findApplicableCoupons(CouponCatalog catalog, CartRequest cartRequest) {
         List<CartItem> cartItems = cartRequest.getCart().getItems();
 
         if (cartItems == null) {
             return new ArrayList<>();
         }
 
-        double cartTotal = calculateCartTotal(cartItems);
-        Map<Long, CartItem> cartMap = buildCartMap(cartItems);
-
-        List<Map<String, Object>> applicableCoupons = new ArrayList<>();
-        for (Coupon coupon : allCoupons) {
-            Map<String, Object> applicableCoupon = getApplicableCoupon(cartTotal, cartMap, coupon);
-            if (applicableCoupon != null) {
-                applicableCoupons.add(applicableCoupon);
+        EvaluationContext context = EvaluationContext.of(cartItems, money);
+        long start = System.nanoTime();
+        List<CouponRule> candidateCoupons = forCart(catalog, context)
+                .candidates(context.getLinesByProduct().keySet(), context.getCartTotal(), money);
+        couponMetrics.recordCandidateSelection(System.nanoTime() - start);
+
+        List<ApplicableCoupon> applicableCoupons;
+        start = System.nanoTime();
+        if (partitionedEvaluator.shouldPartition(candidateCoupons.size())) {
+            applicableCoupons = partitionedEvaluator.evaluate(candidateCoupons, coupon -> getApplicableCoupon(context, coupon));
+            couponMetrics.recordPartitionedEvaluation(System.nanoTime() - start);
+        } else {
+            applicableCoupons = new ArrayList<>();
+            for (CouponRule coupon : candidateCoupons) {
+                ApplicableCoupon applicableCoupon = getApplicableCoupon(context, coupon);
+                if (applicableCoupon != null) {
+                    applicableCoupons.add(applicableCoupon);
+                }
             }
+            long elapsed = System.nanoTime() - start;
+            couponMetrics.recordEvaluation(elapsed);
+            partitionedEvaluator.recordSequential(candidateCoupons.size(), elapsed);
         }
+        couponMetrics.recordCandidates(candidateCoupons.size(), applicableCoupons.size());
 
-        applicableCoupons.sort((coupon1, coupon2) -> Double.compare((Double) coupon2.get("discount"), (Double) coupon1.get("discount")));
+        start = System.nanoTime();
+        applicableCoupons.sort(APPLICABLE_COUPON_ORDER);
+        couponMetrics.recordSorting(System.nanoTime() - start);
 
         return applicableCoupons;
     }
 
-    public List<Coupon> getAllCoupons() {
-        return couponRepository.findAll();
+    /**
+     * Returns the {@code limit} applicable coupons with the highest discounts, in the same
+     * order as {@link #getApplicableCoupons(CouponCatalog, CartRequest)} would list them.
+     * <p>
+     * Only a bounded heap of the best coupons so far is kept. Cart-wise rules come from
+     * the eligible prefix of the threshold index, so rules the cart does not clear are
+     * never read.
+     * Every other candidate is first checked against an upper bound of its discount and
+     * skipped without evaluation when that bound cannot beat the current K-th best.
+     */
+    public List<ApplicableCoupon> getApplicableCoupons(CouponCatalog catalog, CartRequest cartRequest, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        return couponMetrics.observe("coupons.applicable", () -> cached(
+                catalog, cartRequest.getCart().getItems(), limit, () -> findTopApplicableCoupons(catalog, cartRequest, limit)));
     }
 
-    public Map<String, Object> applyCoupon(Long id, CartRequest cartRequest) {
-        Coupon coupon = getCouponById(id);
-        List<CartItem> cartItems = cartRequest.getCart().getItems();
-        double totalDiscount = 0;
-        double totalPrice = 0;
+    private List<ApplicableCoupon> cached(CouponCatalog catalog, List<CartItem> items, int limit,
+                                          Supplier<List<ApplicableCoupon>> evaluate) {
+        // In database mode a coupon reaching the end of its validity window does not
+        // advance the catalog version, so results cannot be cached by version
+        return catalogHolder.isInMemory() ? applicableCouponsCache.get(catalog, items, limit, evaluate) : evaluate.get();
+    }
 
-        Map<Long, CartItem> cartMap = new HashMap<>();
-        for (CartItem item : cartItems) {
-            cartMap.put(item.getProduct_id(), item);
-            totalPrice += item.getPrice() * item.getQuantity();
+    /**
+     * The catalog to evaluate a cart against: the snapshot itself or, in database mode,
+     * the cart's candidates queried from the database and stamped with the snapshot's version.
+     */
+    private CouponCatalog forCart(CouponCatalog catalog, EvaluationContext context) {
+        if (catalogHolder.isInMemory()) {
+            return catalog;
         }
+        return databaseCandidateSource.candidates(catalog.getVersion(), context.getLinesByProduct().keySet(), context.getCartTotal());
+    }
 
-        totalDiscount += applyCouponBasedOnType(coupon, cartMap, cartItems, totalPrice);
+    private List<ApplicableCoupon> findTopApplicableCoupons(CouponCatalog catalog, CartRequest cartRequest, int limit) {
+        List<CartItem> cartItems = cartRequest.getCart().getItems();
 
-        List<Map<String, Object>> updatedItems = prepareUpdatedItems(cartItems, coupon, totalDiscount);
+        if (cartItems == null) {
+            return new ArrayList<>();
+        }
 
-        double finalPrice =  totalPrice - totalDiscount;
-        if(coupon instanceof BxGyCoupon){
-            finalPrice = totalPrice;
-            totalPrice = totalPrice + totalDiscount;
+        EvaluationContext context = EvaluationContext.of(cartItems, money);
+        long start = System.nanoTime();
+        CouponCatalog cartCatalog = forCart(catalog, context);
+        Collection<CouponRule> itemCandidates = cartCatalog.itemCandidates(context.getLinesByProduct().keySet());
+        couponMetrics.recordCandidateSelection(System.nanoTime() - start);
+
+        TopCoupons topCoupons = new TopCoupons(limit);
+        int scanned = 0;
+        int pruned = 0;
+
+        start = System.nanoTime();
+        long cartTotal = context.getCartTotal();
+        CouponRule.CartWise bestCartWise = cartCatalog.bestCartWiseRule(cartTotal, money);
+        if (limit == 1 && isStrictlyBestCartWise(cartTotal, bestCartWise)) {
+            // The threshold index answers this directly
+            scanned++;
+            topCoupons.offer(bestCartWise.id(), bestCartWise.type(), money.percentOf(cartTotal, bestCartWise.discount()));
+        } else if (bestCartWise != null) {
+            // Only the rules the cart clears, found by binary search of the threshold index
+            for (CouponRule.CartWise coupon : cartCatalog.eligibleCartWiseRules(cartTotal, money)) {
+                scanned++;
+                topCoupons.offer(coupon.id(), coupon.type(), money.percentOf(cartTotal, coupon.discount()));
+            }
         }
-        Map<String, Object> updatedCart = new HashMap<>();
-        updatedCart.put("items", updatedItems);
-        updatedCart.put("total_price", totalPrice);
-        updatedCart.put("total_discount", totalDiscount);
-        updatedCart.put("final_price", finalPrice);
 
-        return updatedCart;
-    }
+        for (CouponRule coupon : itemCandidates) {
+            if (!topCoupons.canAdmit(coupon.discountUpperBound(context), coupon.id())) {
+                pruned++;
+                continue;
+            }
+            scanned++;
+            long discount = coupon.evaluate(context);
+            if (discount != CouponRule.NOT_APPLICABLE) {
+                topCoupons.offer(coupon.id(), coupon.type(), discount);
+            }
+        }
+        couponMetrics.recordEvaluation(System.nanoTime() - start);
+        couponMetrics.recordCandidates(scanned, topCoupons.size());
+        couponMetrics.recordPruned(pruned);
 
-    public Coupon getCouponById(Long id) {
-        return couponRepository.findById(id).orElseThrow(() -> new CouponNotFoundException("Coupon with ID " + id + " not found"));
+        start = System.nanoTime();
+        List<ApplicableCoupon> applicableCoupons = topCoupons.toList(money);
+        couponMetrics.recordSorting(System.nanoTime() - start);
+
+        return applicableCoupons;
     }
 
-    private double applyCouponBasedOnType(Coupon coupon, Map<Long, CartItem> cartMap, List<CartItem> cartItems, double totalPrice) {
-        double totalDiscount = 0;
+    /**
+     * Whether no other eligible cart-wise rule can rank with {@code best}: on a small enough
+     * total, a lower percentage can round to the same discount and win on coupon id.
+     */
+    private boolean isStrictlyBestCartWise(long cartTotal, CouponRule.CartWise best) {
+        return best != null && cartTotal >= 0
+                && money.percentOf(cartTotal, best.discount() - 1) < money.percentOf(cartTotal, best.discount());
+    }
 
-        if (coupon instanceof CartWiseCoupon) {
-            totalDiscount += (totalPrice * coupon.getDiscount()) / 100;
-        } else if (coupon instanceof ProductWiseCoupon) {
-            CartItem cartItem = cartMap.get(((ProductWiseCoupon) coupon).getProductId());
-            if (cartItem != null) {
-                totalDiscount += (cartItem.getPrice() * cartItem.getQuantity() * coupon.getDiscount()) / 100;
+    /**
+     * Finds the combination of applicable coupons with the highest total discount, see
+     * {@link CouponStackingSolver} for the combination rules.
+     */
+    public BestCouponCombination getBestCouponCombination(CouponCatalog catalog, CartRequest cartRequest) {
+        List<CartItem> cartItems = cartRequest.getCart().getItems();
+        EvaluationContext context = EvaluationContext.of(cartItems != null ? cartItems : List.of(), money);
+
+        List<CouponStackingSolver.Candidate> candidates = new ArrayList<>();
+        CouponCatalog cartCatalog = forCart(catalog, context);
+        for (CouponRule coupon : cartCatalog.candidates(context.getLinesByProduct().keySet(), context.getCartTotal(), money)) {
+            CouponStackingSolver.Candidate candidate = getStackingCandidate(context, coupon);
+            if (candidate != null) {
+                candidates.add(candidate);
             }
-        } else if (coupon instanceof BxGyCoupon) {
-            totalDiscount += calculateBxGyDiscount(coupon, cartMap);
         }
+        CouponStackingSolver.Solution solution = stackingSolver.solve(context.getCartTotal(), candidates);
 
-        return totalDiscount;
+        List<ApplicableCoupon> coupons = new ArrayList<>(solution.coupons().size());
+        for (CouponStackingSolver.Selection selection : solution.coupons()) {
+            coupons.add(new ApplicableCoupon(selection.id(), selection.type(), money.toMajor(selection.discount())));
+        }
+        return new BestCouponCombination(coupons, money.toMajor(solution.totalDiscount()), solution.optimal(),
+                catalog.getVersion());
     }
 
-    private double calculateBxGyDiscount(Coupon coupon, Map<Long, CartItem> cartMap) {
-        double totalDiscount = 0;
-        int totalBuyQuantity = 0;
-        boolean canApply = true;
-
-        for (BuyProduct buyProduct : ((BxGyCoupon) coupon).getBuyProducts()) {
-            CartItem cartItem = cartMap.get(buyProduct.getProduct_id());
-            if (cartItem == null || cartItem.getQuantity() < buyProduct.getQuantity()) {
-                canApply = false;
-                break;
-            }
-            totalBuyQuantity += cartItem.getQuantity() / buyProduct.getQuantity();
+    /**
+     * Lists coupons matching the filter in id order, starting after {@code afterId}. The
+     * limit defaults to {@code coupons.list.default-limit} and is capped at
+     * {@code coupons.list.max-limit}.
+     */
+    public CouponPage getCoupons(CouponFilter filter, Long afterId, Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
         }
-
-        if (canApply) {
-            freeProductCount = Math.min(totalBuyQuantity, ((BxGyCoupon) coupon).getRepetition_limit());
-            for (GetProduct getProduct : ((BxGyCoupon) coupon).getGetProducts()) {
-                CartItem getItem = cartMap.get(getProduct.getProduct_id());
-                if (getItem != null) {
-                    totalDiscount += getItem.getPrice() * freeProductCount;
-                }
-            }
+        int pageSize = limit == null ? defaultListLimit : Math.min(limit, maxListLimit);
+        // One row past the page tells whether there is a next page without a count query
+        List<Coupon> coupons = couponRepository.findPage(filter, afterId == null ? 0 : afterId, pageSize + 1);
+        if (coupons.size() <= pageSize) {
+            return new CouponPage(coupons, null);
         }
+        List<Coupon> page = coupons.subList(0, pageSize);
+        return new CouponPage(page, page.get(pageSize - 1).getId());
+    }
 
-        return totalDiscount;
+    public UpdatedCart applyCoupon(Long id, CartRequest cartRequest) {
+        return applyCoupon(getCatalog(), id, cartRequest);
     }
 
-    private List<Map<String, Object>> prepareUpdatedItems(List<CartItem> cartItems, Coupon coupon, double totalDiscount) {
-        List<Map<String, Object>> updatedItems = new ArrayList<>();
+    public UpdatedCart applyCoupon(CouponCatalog catalog, Long id, CartRequest cartRequest) {
+        return couponMetrics.observe("coupons.apply", () -> applyCouponRule(catalog, id, cartRequest));
+    }
 
-        for (CartItem item : cartItems) {
-            Map<String, Object> updatedItem = new HashMap<>();
-            updatedItem.put("product_id", item.getProduct_id());
-            updatedItem.put("quantity", item.getQuantity());
-            updatedItem.put("price", item.getPrice());
+    private UpdatedCart applyCouponRule(CouponCatalog catalog, Long id, CartRequest cartRequest) {
+        CouponRule coupon = catalogHolder.isInMemory() ? catalog.getRule(id) : databaseCandidateSource.findRule(id);
+        if (coupon == null) {
+            throw new CouponNotFoundException("Coupon with ID " + id + " not found");
+        }
+        EvaluationContext context = EvaluationContext.of(cartRequest.getCart().getItems(), money);
+        long totalPrice = context.getCartTotal();
+
+        long start = System.nanoTime();
+        // A limited coupon is only handed out, and counted, when the cart qualifies for it
+        boolean limited = coupon.limits().isLimited();
+        if (limited && coupon.evaluate(context) == CouponRule.NOT_APPLICABLE) {
+            throw new IllegalArgumentException("Coupon with ID " + id + " does not apply to the cart");
+        }
+        long totalDiscount = coupon.appliedDiscount(context);
+        couponMetrics.recordEvaluation(coupon.type(), System.nanoTime() - start);
 
-            if (coupon instanceof ProductWiseCoupon && Objects.equals(item.getProduct_id(), ((ProductWiseCoupon) coupon).getProductId())) {
-                updatedItem.put("total_discount", (item.getPrice() * item.getQuantity() * coupon.getDiscount()) / 100);
-            } else if (coupon instanceof BxGyCoupon) {
-                for (GetProduct getProduct : ((BxGyCoupon) coupon).getGetProducts()) {
-                    if (Objects.equals(item.getProduct_id(), getProduct.getProduct_id())) {
-                        updatedItem.put("total_discount", totalDiscount);
-                        updatedItem.put("quantity", item.getQuantity()+freeProductCount);
-                    } else {
-                        updatedItem.put("total_discount", 0);
-                    }
-                }
+        List<UpdatedCartItem> updatedItems = prepareUpdatedItems(context, coupon, totalDiscount);
 
-            } else {
-                updatedItem.put("total_discount", 0);
-            }
+        // Counted last, so a cart that fails to evaluate never uses up a redemption
+        if (limited && !redemptionCounters.tryRedeem(id, cartRequest.getUser_id(), coupon.limits())) {
+            throw new RedemptionLimitExceededException("Coupon with ID " + id + " has reached its redemption limit");
+        }
 
-            updatedItems.add(updatedItem);
+        long finalPrice =  totalPrice - totalDiscount;
+        if (coupon.addsItems()) {
+            finalPrice = totalPrice;
+            totalPrice = Math.addExact(totalPrice, totalDiscount);
         }
+        return new UpdatedCart(updatedItems, money.toMajor(totalPrice), money.toMajor(totalDiscount), money.toMajor(finalPrice));
+    }
 
+    public Coupon getCouponById(Long id) {
+        return couponRepository.findById(id).orElseThrow(() -> new CouponNotFoundException("Coupon with ID " + id + " not found"));
+    }
+
+    private List<UpdatedCartItem> prepareUpdatedItems(EvaluationContext context, CouponRule coupon, long totalDiscount) {
+        List<UpdatedCartItem> updatedItems = new ArrayList<>(context.getLines().size());
+        for (EvaluationContext.Line line : context.getLines()) {
+            int quantity = line.quantity() + coupon.freeQuantity(context, line);
+            long itemDiscount = coupon.lineDiscount(context, line, totalDiscount);
+            updatedItems.add(new UpdatedCartItem(line.productId(), quantity, money.toMajor(line.unitPrice()),
+                    money.toMajor(itemDiscount)));
+        }
         return updatedItems;
     }
 
+    /**
+     * Builds the unsaved entity for a request.
+     */
+    Coupon buildCoupon(CouponRequest couponRequest) {
+        String type = couponRequest.getType();
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid coupon type: null");
+        }
+        return switch (type) {
+            case "cart-wise" -> createCartWiseCoupon(couponRequest);
+            case "product-wise" -> createProductWiseCoupon(couponRequest);
+            case "bxgy" -> createBxGyCoupon(couponRequest);
+            case "custom" -> createCustomCoupon(couponRequest);
+            default -> throw new IllegalArgumentException("Invalid coupon type: " + type);
+        };
+    }
+
     private Coupon createCartWiseCoupon(CouponRequest couponRequest) {
         CartWiseCoupon cartCoupon = new CartWiseCoupon();
         cartCoupon.setDiscount(couponRequest.getDetails().getDiscount());
         cartCoupon.setThreshold(couponRequest.getDetails().getThreshold());
+        setStackingAndLimits(cartCoupon, couponRequest);
         return cartCoupon;
     }
 
@@ -198,6 +405,7 @@ public class CouponService {
         ProductWiseCoupon productCoupon = new ProductWiseCoupon();
         productCoupon.setProductId(couponRequest.getDetails().getProduct_id());
         productCoupon.setDiscount(couponRequest.getDetails().getDiscount());
+        setStackingAndLimits(productCoupon, couponRequest);
         return productCoupon;
     }
 
@@ -205,6 +413,7 @@ public class CouponService {
         BxGyCoupon bxGyCoupon = new BxGyCoupon();
         bxGyCoupon.setRepetition_limit(couponRequest.getDetails().getRepetition_limit());
         bxGyCoupon.setDiscount(couponRequest.getDetails().getDiscount());
+        setStackingAndLimits(bxGyCoupon, couponRequest);
 
         // Set up buy products
         for (BuyProduct buyProduct : couponRequest.getDetails().getBuy_products()) {
@@ -227,6 +436,37 @@ public class CouponService {
         return bxGyCoupon;
     }
 
+    private Coupon createCustomCoupon(CouponRequest couponRequest) {
+        CustomCoupon customCoupon = new CustomCoupon();
+        RuleDefinition rule = couponRequest.getDetails().getRule();
+        if (rule == null) {
+            throw new IllegalArgumentException("rule is required for a custom coupon");
+        }
+        rule.validate();
+        customCoupon.setRule(rule);
+        // Shown like the other types' discount, but always the rule's own
+        customCoupon.setDiscount(rule.discountPercent());
+        setStackingAndLimits(customCoupon, couponRequest);
+        return customCoupon;
+    }
+
+    private void setStackingAndLimits(Coupon coupon, CouponRequest couponRequest) {
+        Optional.ofNullable(couponRequest.getDetails().getStackable()).ifPresent(coupon::setStackable);
+        coupon.setExclusiveGroup(couponRequest.getDetails().getExclusive_group());
+        coupon.setMaxRedemptions(couponRequest.getDetails().getMax_redemptions());
+        coupon.setMaxRedemptionsPerUser(couponRequest.getDetails().getMax_redemptions_per_user());
+        coupon.setValidFrom(couponRequest.getDetails().getValid_from());
+        coupon.setValidUntil(couponRequest.getDetails().getValid_until());
+        validateValidity(coupon);
+    }
+
+    private void validateValidity(Coupon coupon) {
+        if (coupon.getValidFrom() != null && coupon.getValidUntil() != null
+                && !coupon.getValidUntil().isAfter(coupon.getValidFrom())) {
+            throw new IllegalArgumentException("valid_until must be after valid_from");
+        }
+    }
+
     private CouponResponse prepareCouponResponse(Coupon coupon) {
         CouponResponse response = new CouponResponse();
         response.setId(coupon.getId());
@@ -236,12 +476,27 @@ public class CouponService {
     }
 
     private void updateCouponDetails(Coupon existingCoupon, CouponRequest updatedCouponDetails) {
+        Optional.ofNullable(updatedCouponDetails.getDetails().getStackable()).ifPresent(existingCoupon::setStackable);
+        Optional.ofNullable(updatedCouponDetails.getDetails().getExclusive_group()).ifPresent(existingCoupon::setExclusiveGroup);
+        Optional.ofNullable(updatedCouponDetails.getDetails().getMax_redemptions()).ifPresent(existingCoupon::setMaxRedemptions);
+        Optional.ofNullable(updatedCouponDetails.getDetails().getMax_redemptions_per_user()).ifPresent(existingCoupon::setMaxRedemptionsPerUser);
+        Optional.ofNullable(updatedCouponDetails.getDetails().getValid_from()).ifPresent(existingCoupon::setValidFrom);
+        Optional.ofNullable(updatedCouponDetails.getDetails().getValid_until()).ifPresent(existingCoupon::setValidUntil);
+        validateValidity(existingCoupon);
+
         if (existingCoupon instanceof CartWiseCoupon) {
             updateCartWiseCoupon((CartWiseCoupon) existingCoupon, updatedCouponDetails);
         } else if (existingCoupon instanceof ProductWiseCoupon) {
             updateProductWiseCoupon((ProductWiseCoupon) existingCoupon, updatedCouponDetails);
         } else if (existingCoupon instanceof BxGyCoupon) {
             updateBxGyCoupon((BxGyCoupon) existingCoupon, updatedCouponDetails);
+        } else if (existingCoupon instanceof CustomCoupon customCoupon) {
+            RuleDefinition rule = updatedCouponDetails.getDetails().getRule();
+            if (rule != null) {
+                rule.validate();
+                customCoupon.setRule(rule);
+                customCoupon.setDiscount(rule.discountPercent());
+            }
         }
     }
 
@@ -281,89 +536,31 @@ public class CouponService {
         }
     }
 
-    private Map<Long, CartItem> buildCartMap(List<CartItem> cartItems) {
-        Map<Long, CartItem> cartMap = new HashMap<>();
-        for (CartItem item : cartItems) {
-            cartMap.put(item.getProduct_id(), item);
-        }
-        return cartMap;
-    }
+    private CouponStackingSolver.Candidate getStackingCandidate(EvaluationContext context, CouponRule coupon) {
+        boolean stackable = coupon.stacking().stackable();
+        String exclusiveGroup = coupon.stacking().exclusiveGroup();
 
-    private Map<String, Object> getApplicableCoupon(double cartTotal, Map<Long, CartItem> cartMap, Coupon coupon) {
-        Map<String, Object> applicableCoupon = null;
-
-        if (coupon instanceof CartWiseCoupon) {
-            applicableCoupon = getCartWiseCoupon(cartTotal, (CartWiseCoupon) coupon);
-        } else if (coupon instanceof ProductWiseCoupon) {
-            applicableCoupon = getProductWiseCoupon(cartMap, (ProductWiseCoupon) coupon);
-        } else if (coupon instanceof BxGyCoupon) {
-            applicableCoupon = getBxGyCoupon(cartMap, (BxGyCoupon) coupon);
+        long discount = coupon.evaluate(context);
+        if (discount == CouponRule.NOT_APPLICABLE) {
+            return null;
         }
-
-        return applicableCoupon;
-    }
-
-    private Map<String, Object> getCartWiseCoupon(double cartTotal, CartWiseCoupon coupon) {
-        if (cartTotal > coupon.getThreshold()) {
-            double discount = (cartTotal * coupon.getDiscount()) / 100;
-            Map<String, Object> applicableCoupon = new HashMap<>();
-            applicableCoupon.put("coupon_id", coupon.getId());
-            applicableCoupon.put("type", "cart-wise");
-            applicableCoupon.put("discount", discount);
-            return applicableCoupon;
-        }
-        return null;
-    }
-
-    private Map<String, Object> getProductWiseCoupon(Map<Long, CartItem> cartMap, ProductWiseCoupon coupon) {
-        CartItem cartItem = cartMap.get(coupon.getProductId());
-        if (cartItem != null) {
-            double discount = (cartItem.getPrice() * cartItem.getQuantity() * coupon.getDiscount()) / 100;
-            Map<String, Object> applicableCoupon = new HashMap<>();
-            applicableCoupon.put("coupon_id", coupon.getId());
-            applicableCoupon.put("type", "product-wise");
-            applicableCoupon.put("discount", discount);
-            return applicableCoupon;
+        Integer cartPercent = coupon.cartPercent();
+        if (cartPercent != null) {
+            // Its discount depends on what the item-level coupons leave of the total
+            long threshold = coupon.cartThreshold() == null ? Long.MIN_VALUE : money.toMinor(coupon.cartThreshold());
+            return CouponStackingSolver.Candidate.cartLevel(coupon.id(), coupon.type(), cartPercent,
+                    threshold, stackable, exclusiveGroup);
         }
-        return null;
+        return CouponStackingSolver.Candidate.itemLevel(coupon.id(), coupon.type(), discount,
+                coupon.discountedProducts(context), stackable, exclusiveGroup);
     }
 
-    private Map<String, Object> getBxGyCoupon(Map<Long, CartItem> cartMap, BxGyCoupon coupon) {
-        int totalBuyQuantity = 0;
-        boolean canApply = true;
-
-        for (BuyProduct buyProduct : coupon.getBuyProducts()) {
-            CartItem cartItem = cartMap.get(buyProduct.getProduct_id());
-            if (cartItem == null || cartItem.getQuantity() < buyProduct.getQuantity()) {
-                canApply = false;
-                break;
-            }
-            totalBuyQuantity += cartItem.getQuantity() / buyProduct.getQuantity();
+    private ApplicableCoupon getApplicableCoupon(EvaluationContext context, CouponRule coupon) {
+        long discount = coupon.evaluate(context);
+        if (discount == CouponRule.NOT_APPLICABLE) {
+            return null;
         }
-
-        if (canApply) {
-            freeProductCount = Math.min(totalBuyQuantity, coupon.getRepetition_limit());
-            double discount = 0;
-            for (GetProduct getProduct : coupon.getGetProducts()) {
-                CartItem getItem = cartMap.get(getProduct.getProduct_id());
-                if (getItem != null) {
-                    discount += getItem.getPrice() * freeProductCount;
-                }
-            }
-
-            Map<String, Object> applicableCoupon = new HashMap<>();
-            applicableCoupon.put("coupon_id", coupon.getId());
-            applicableCoupon.put("type", "bxgy");
-            applicableCoupon.put("discount", discount);
-            return applicableCoupon;
-        }
-
-        return null;
-    }
-
-    private double calculateCartTotal(List<CartItem> cartItems) {
-        return cartItems.stream().mapToDouble(item -> item.getPrice() * item.getQuantity()).sum();
+        return new ApplicableCoupon(coupon.id(), coupon.type(), money.toMajor(discount));
     }
 
 }
-
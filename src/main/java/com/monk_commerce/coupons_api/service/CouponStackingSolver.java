@@ -0,0 +1,219 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.money.Money;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Finds the combination of coupons with the highest total discount for a cart.
+ * <p>
+ * Item-level coupons (product-wise and BxGy) are applied first and may not discount the
+ * same product twice. At most one cart-wise coupon is then applied to what is left of
+ * the cart total, so item discounts can push the cart below a cart-wise threshold.
+ * Non-stackable coupons are only considered on their own, and at most one coupon of
+ * each exclusive group is used.
+ * <p>
+ * The search is a depth-first branch-and-bound over the item-level coupons, sorted by
+ * discount so the first path explored is the greedy answer. A branch is pruned when the
+ * sum of its remaining item discounts plus the largest cart-wise discount still possible
+ * cannot beat the best combination found so far. When the time budget runs out the best
+ * combination found so far is returned and marked as not proven optimal.
+ * <p>
+ * All amounts are in minor units (see {@link Money}).
+ */
+@Component
+public class CouponStackingSolver {
+
+    private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+    @Value("${coupons.stacking.time-budget-ms:50}")
+    private long timeBudgetMs = 50;
+    @Autowired
+    private Money money;
+
+    /**
+     * A coupon that applies to the cart on its own. Item-level candidates carry their
+     * discount and the products they discount; cart-level candidates carry a percentage
+     * and threshold since their discount depends on the item discounts applied before.
+     */
+    public record Candidate(Long id, String type, boolean cartLevel, long discount, int percent, long threshold,
+                            Set<Long> productIds, boolean stackable, String exclusiveGroup) {
+
+        public static Candidate itemLevel(Long id, String type, long discount, Set<Long> productIds,
+                                          boolean stackable, String exclusiveGroup) {
+            return new Candidate(id, type, false, discount, 0, 0, productIds, stackable, exclusiveGroup);
+        }
+
+        public static Candidate cartLevel(Long id, String type, int percent, long threshold,
+                                          boolean stackable, String exclusiveGroup) {
+            return new Candidate(id, type, true, 0, percent, threshold, Set.of(), stackable, exclusiveGroup);
+        }
+
+        /**
+         * Discount of a cart-level coupon applied to {@code remainingTotal}, or -1 when the
+         * remaining total does not clear its threshold.
+         */
+        long cartDiscount(Money money, long remainingTotal) {
+            return remainingTotal > threshold ? money.percentOf(Math.max(0, remainingTotal), percent) : -1;
+        }
+    }
+
+    public record Selection(Long id, String type, long discount) {
+    }
+
+    public record Solution(List<Selection> coupons, long totalDiscount, boolean optimal) {
+    }
+
+    public Solution solve(long cartTotal, List<Candidate> candidates) {
+        return solve(cartTotal, candidates, timeBudgetMs);
+    }
+
+    public Solution solve(long cartTotal, List<Candidate> candidates, long budgetMs) {
+        Search search = new Search(money, cartTotal, candidates, System.nanoTime() + budgetMs * 1_000_000);
+        search.run();
+        return search.solution();
+    }
+
+    private static final class Search {
+
+        private final Money money;
+        private final long cartTotal;
+        private final long deadline;
+        private final List<Candidate> singles;
+        private final Candidate[] items;
+        private final long[] remainingDiscount;
+        private final List<Candidate> cartLevel;
+        private final int maxPercent;
+
+        private final Deque<Candidate> chosen = new ArrayDeque<>();
+        private final Set<Long> usedProducts = new HashSet<>();
+        private final Set<String> usedGroups = new HashSet<>();
+
+        private long best = -1;
+        private List<Selection> bestSelection = List.of();
+        private long nodes;
+        private boolean timedOut;
+
+        Search(Money money, long cartTotal, List<Candidate> candidates, long deadline) {
+            this.money = money;
+            this.cartTotal = cartTotal;
+            this.deadline = deadline;
+            this.singles = candidates;
+            this.items = candidates.stream()
+                    .filter(c -> c.stackable() && !c.cartLevel() && c.discount() > 0)
+                    .sorted(Comparator.comparingLong(Candidate::discount).reversed())
+                    .toArray(Candidate[]::new);
+            this.cartLevel = candidates.stream()
+                    .filter(c -> c.stackable() && c.cartLevel())
+                    .sorted(Comparator.comparingInt(Candidate::percent).reversed())
+                    .toList();
+            this.maxPercent = cartLevel.isEmpty() ? 0 : cartLevel.get(0).percent();
+            this.remainingDiscount = new long[items.length + 1];
+            for (int i = items.length - 1; i >= 0; i--) {
+                remainingDiscount[i] = remainingDiscount[i + 1] + items[i].discount();
+            }
+        }
+
+        void run() {
+            for (Candidate candidate : singles) {
+                long discount = candidate.cartLevel() ? candidate.cartDiscount(money, cartTotal) : candidate.discount();
+                if (discount > best) {
+                    best = discount;
+                    bestSelection = List.of(new Selection(candidate.id(), candidate.type(), discount));
+                }
+            }
+            search(0, 0);
+        }
+
+        private void search(int index, long itemDiscount) {
+            if (++nodes % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+                timedOut = true;
+            }
+            if (timedOut || index == items.length) {
+                return;
+            }
+            // Rounded up so the bound holds whatever rounding mode the cart discount uses
+            long bound = itemDiscount + remainingDiscount[index] + ceilPercentOf(Math.max(0, cartTotal - itemDiscount), maxPercent);
+            if (bound <= best) {
+                return;
+            }
+
+            Candidate candidate = items[index];
+            if (isCompatible(candidate)) {
+                push(candidate);
+                long withCandidate = itemDiscount + candidate.discount();
+                record(withCandidate);
+                search(index + 1, withCandidate);
+                pop(candidate);
+            }
+            search(index + 1, itemDiscount);
+        }
+
+        private void record(long itemDiscount) {
+            Candidate cartCoupon = null;
+            long cartDiscount = 0;
+            for (Candidate candidate : cartLevel) {
+                if (candidate.exclusiveGroup() != null && usedGroups.contains(candidate.exclusiveGroup())) {
+                    continue;
+                }
+                long discount = candidate.cartDiscount(money, cartTotal - itemDiscount);
+                if (discount > cartDiscount) {
+                    cartCoupon = candidate;
+                    cartDiscount = discount;
+                }
+            }
+            long total = itemDiscount + cartDiscount;
+            if (total <= best) {
+                return;
+            }
+            best = total;
+            List<Selection> selection = new ArrayList<>();
+            for (Candidate candidate : chosen) {
+                selection.add(new Selection(candidate.id(), candidate.type(), candidate.discount()));
+            }
+            if (cartCoupon != null) {
+                selection.add(new Selection(cartCoupon.id(), cartCoupon.type(), cartDiscount));
+            }
+            bestSelection = selection;
+        }
+
+        private boolean isCompatible(Candidate candidate) {
+            if (candidate.exclusiveGroup() != null && usedGroups.contains(candidate.exclusiveGroup())) {
+                return false;
+            }
+            for (Long productId : candidate.productIds()) {
+                if (usedProducts.contains(productId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void push(Candidate candidate) {
+            chosen.addLast(candidate);
+            usedProducts.addAll(candidate.productIds());
+            if (candidate.exclusiveGroup() != null) {
+                usedGroups.add(candidate.exclusiveGroup());
+            }
+        }
+
+        private void pop(Candidate candidate) {
+            chosen.removeLast();
+            usedProducts.removeAll(candidate.productIds());
+            if (candidate.exclusiveGroup() != null) {
+                usedGroups.remove(candidate.exclusiveGroup());
+            }
+        }
+
+        private static long ceilPercentOf(long amount, int percent) {
+            return -Math.floorDiv(-Math.multiplyExact(amount, percent), 100);
+        }
+
+        Solution solution() {
+            return new Solution(bestSelection, Math.max(0, best), !timedOut);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.dto.WriteStatus;
+import com.monk_commerce.coupons_api.exception.CouponNotFoundException;
+import com.monk_commerce.coupons_api.exception.WriteQueueFullException;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue for coupon updates that are acknowledged before they are written. Off unless
+ * {@code coupons.write-behind.enabled} is set.
+ * <p>
+ * An update is validated, given a sequence number and queued. Pending updates of the same
+ * coupon are coalesced: every {@code coupons.write-behind.flush-interval-ms} they are
+ * applied in order and the coupon is saved, journaled and published once. Up to
+ * {@code coupons.write-behind.batch-size} coupons are written per transaction. If a
+ * transaction fails, its coupons are retried one by one so only the offending updates
+ * fail.
+ * <p>
+ * At most {@code coupons.write-behind.max-pending} updates wait at a time. A caller that
+ * finds the queue full waits up to {@code coupons.write-behind.offer-timeout-ms} for room
+ * and is then turned away. Every update up to the durable sequence has been committed or
+ * has failed; the outcome of a single update stays available for
+ * {@code coupons.write-behind.status-retention} sequence numbers after that.
+ */
+@Service
+public class CouponWriteBehind {
+
+    @Autowired
+    private CouponService couponService;
+    @Autowired
+    private CouponRepository couponRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${coupons.write-behind.enabled:false}")
+    private boolean enabled;
+    @Value("${coupons.write-behind.batch-size:500}")
+    private int batchSize = 500;
+    @Value("${coupons.write-behind.max-pending:10000}")
+    private int maxPending = 10_000;
+    @Value("${coupons.write-behind.offer-timeout-ms:1000}")
+    private long offerTimeoutMs = 1000;
+    @Value("${coupons.write-behind.status-retention:100000}")
+    private long statusRetention = 100_000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // Per coupon in order of its first pending update, so the first holds the lowest sequence
+    private final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+    // Error of each failed update, by sequence number
+    private final TreeMap<Long, String> failures = new TreeMap<>();
+    private int queued;
+    private long lastSequence;
+    private volatile long durableSequence;
+    private TransactionTemplate transactionTemplate;
+    private Counter coalesced;
+
+    private record Pending(Long couponId, List<CouponRequest> updates, List<Long> sequences) {
+    }
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        Gauge.builder("coupons.write-behind.pending", this, writeBehind -> writeBehind.queued)
+                .description("Coupon updates accepted but not yet written")
+                .register(meterRegistry);
+        coalesced = Counter.builder("coupons.write-behind.coalesced")
+                .description("Coupon updates merged into a pending write of the same coupon")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Validates an update and queues it.
+     *
+     * @throws CouponNotFoundException  if the coupon does not exist
+     * @throws WriteQueueFullException if no room was freed within the offer timeout
+     */
+    public WriteStatus submit(Long id, CouponRequest update) {
+        validate(update);
+        if (!couponRepository.existsById(id)) {
+            throw new CouponNotFoundException("Coupon not found for id: " + id);
+        }
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+            while (queued >= maxPending) {
+                if (remaining <= 0) {
+                    throw new WriteQueueFullException("Too many coupon updates waiting to be written");
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+            long sequence = ++lastSequence;
+            Pending writes = pending.get(id);
+            if (writes == null) {
+                writes = new Pending(id, new ArrayList<>(), new ArrayList<>());
+                pending.put(id, writes);
+            } else {
+                coalesced.increment();
+            }
+            writes.updates().add(update);
+            writes.sequences().add(sequence);
+            queued++;
+            return new WriteStatus(sequence, WriteStatus.State.PENDING, durableSequence, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriteQueueFullException("Interrupted while waiting to queue a coupon update");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws CouponNotFoundException if no update has the sequence number, or its outcome
+     *                                 is no longer kept
+     */
+    public WriteStatus status(long sequence) {
+        lock.lock();
+        try {
+            if (sequence < 1 || sequence > lastSequence) {
+                throw new CouponNotFoundException("No coupon update with sequence " + sequence);
+            }
+            if (sequence <= durableSequence - statusRetention) {
+                throw new CouponNotFoundException("Coupon update " + sequence + " is no longer tracked");
+            }
+            if (sequence > durableSequence) {
+                return new WriteStatus(sequence, WriteStatus.State.PENDING, durableSequence, null);
+            }
+            String error = failures.get(sequence);
+            return new WriteStatus(sequence, error == null ? WriteStatus.State.DURABLE : WriteStatus.State.FAILED,
+                    durableSequence, error);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Writes everything queued so far, including updates queued while writing.
+     */
+    @Scheduled(fixedDelayString = "${coupons.write-behind.flush-interval-ms:50}")
+    @PreDestroy
+    public synchronized void flush() {
+        if (!enabled) {
+            return;
+        }
+        List<Pending> batch;
+        while (!(batch = drain()).isEmpty()) {
+            complete(write(batch));
+        }
+    }
+
+    private List<Pending> drain() {
+        lock.lock();
+        try {
+            List<Pending> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            Iterator<Pending> writes = pending.values().iterator();
+            while (writes.hasNext() && batch.size() < batchSize) {
+                Pending next = writes.next();
+                writes.remove();
+                queued -= next.updates().size();
+                batch.add(next);
+            }
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves the batch and returns the error of each update that failed.
+     */
+    private Map<Long, String> write(List<Pending> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (Pending writes : batch) {
+                    couponService.updateCoupon(writes.couponId(), writes.updates());
+                }
+            });
+            return Map.of();
+        } catch (RuntimeException batchFailure) {
+            Map<Long, String> errors = new HashMap<>();
+            for (Pending writes : batch) {
+                try {
+                    writes.updates().forEach(CouponWriteBehind::clearIds);
+                    transactionTemplate.executeWithoutResult(status ->
+                            couponService.updateCoupon(writes.couponId(), writes.updates()));
+                } catch (RuntimeException e) {
+                    String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                    writes.sequences().forEach(sequence -> errors.put(sequence, error));
+                }
+            }
+            return errors;
+        }
+    }
+
+    private void complete(Map<Long, String> errors) {
+        lock.lock();
+        try {
+            failures.putAll(errors);
+            durableSequence = pending.isEmpty() ? lastSequence : pending.values().iterator().next().sequences().get(0) - 1;
+            failures.headMap(durableSequence - statusRetention, true).clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the ids given to new BxGy products by the rolled back transaction.
+     */
+    private static void clearIds(CouponRequest update) {
+        Optional.ofNullable(update.getDetails().getBuy_products()).ifPresent(products -> products.forEach(product -> product.setId(null)));
+        Optional.ofNullable(update.getDetails().getGet_products()).ifPresent(products -> products.forEach(product -> product.setId(null)));
+    }
+
+    private static void validate(CouponRequest update) {
+        CouponRequest.CouponDetails details = update.getDetails();
+        if (details == null) {
+            throw new IllegalArgumentException("details are required");
+        }
+        if (details.getRule() != null) {
+            details.getRule().validate();
+        }
+        if (details.getValid_from() != null && details.getValid_until() != null
+                && !details.getValid_until().isAfter(details.getValid_from())) {
+            throw new IllegalArgumentException("valid_until must be after valid_from");
+        }
+    }
+}
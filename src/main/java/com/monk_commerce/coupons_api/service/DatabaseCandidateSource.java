@@ -0,0 +1,92 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.model.BxGyCoupon;
+import com.monk_commerce.coupons_api.model.Coupon;
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.repository.BuyProductRepository;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Selects the coupons that may apply to one cart with indexed queries, for
+ * {@code coupons.catalog.mode=database}, where the catalog is too large to hold in memory.
+ * <p>
+ * Product-wise coupons are found by the cart's product ids, BxGy coupons through their
+ * buy products, and cart-wise coupons by the thresholds the cart total exceeds. Custom
+ * coupons are all selected, and the catalog leaves out those missing a required product. Only
+ * coupons inside their validity window are selected. The result is a small catalog for
+ * that cart, which is evaluated exactly as the in-memory one.
+ */
+@Component
+public class DatabaseCandidateSource {
+
+    @Autowired
+    private CouponRepository couponRepository;
+    @Autowired
+    private BuyProductRepository buyProductRepository;
+    @Autowired
+    private Money money;
+
+    private final Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * The candidates for a cart with the given products and total (in minor units), as a
+     * catalog stamped with {@code version}.
+     */
+    @Transactional(readOnly = true)
+    public CouponCatalog candidates(long version, Collection<Long> productIds, long cartTotal) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        List<CouponRule> rules = new ArrayList<>();
+        long thresholdBound = -Math.floorDiv(-cartTotal, money.toMinor(1L));
+        for (Coupon coupon : couponRepository.findEligibleCartWise(thresholdBound, now)) {
+            rules.add(CouponRule.compile(coupon));
+        }
+        if (!productIds.isEmpty()) {
+            for (Coupon coupon : couponRepository.findLiveProductWise(productIds, now)) {
+                rules.add(CouponRule.compile(coupon));
+            }
+        }
+        Collection<Long> bought = productIds.isEmpty() ? List.of() : buyProductRepository.findCouponIdsByProductIds(productIds);
+        for (BxGyCoupon coupon : findBxGy(couponRepository.findLiveBxGyIds(bought, now))) {
+            rules.add(CouponRule.compile(coupon));
+        }
+        for (Coupon coupon : couponRepository.findLiveCustom(now)) {
+            rules.add(CouponRule.compile(coupon));
+        }
+        return CouponCatalog.of(version, rules);
+    }
+
+    /**
+     * The coupon with this id if it is inside its validity window, otherwise {@code null}.
+     */
+    @Transactional(readOnly = true)
+    public CouponRule findRule(Long id) {
+        Coupon coupon = couponRepository.findById(id).orElse(null);
+        if (coupon == null) {
+            return null;
+        }
+        if (coupon instanceof BxGyCoupon) {
+            findBxGy(List.of(id));
+        }
+        CouponRule rule = CouponRule.compile(coupon);
+        return rule.validity().contains(clock.instant()) ? rule : null;
+    }
+
+    private List<BxGyCoupon> findBxGy(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        couponRepository.findBxGyWithBuyProducts(ids);
+        return couponRepository.findBxGyWithGetProducts(ids);
+    }
+}
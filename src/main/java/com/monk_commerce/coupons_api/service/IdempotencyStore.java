@@ -0,0 +1,133 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.monk_commerce.coupons_api.dto.ApplyCouponResponse;
+import com.monk_commerce.coupons_api.dto.CartRequest;
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Bounded store of {@code /apply-coupon} responses by {@code Idempotency-Key}, so a
+ * retried request is answered with the original response instead of being applied, and
+ * counted against redemption limits, a second time.
+ * <p>
+ * Entries are keyed by the idempotency key, the coupon id, the user and the fingerprint
+ * of the cart used by {@link ApplicableCouponsCache}; reusing a key for a different cart
+ * applies the coupon anew. The first request for a key computes the response while
+ * concurrent duplicates wait for it. A request that fails is not stored: its waiting
+ * duplicates fail the same way, and a later retry applies the coupon again.
+ */
+public class IdempotencyStore {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<Key, CompletableFuture<ApplyCouponResponse>> cache;
+    private final Money money;
+
+    public IdempotencyStore(long maximumSize, Duration timeToLive, Money money) {
+        this.cache = maximumSize > 0
+                ? Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(timeToLive).recordStats().build()
+                : null;
+        this.money = money;
+    }
+
+    public static IdempotencyStore disabled() {
+        return new IdempotencyStore(0, Duration.ZERO, Money.DEFAULT);
+    }
+
+    /**
+     * The underlying cache, for binding its statistics; {@code null} when disabled.
+     */
+    public Cache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the stored response for the request, or computes and stores it. Requests
+     * without an idempotency key are always computed.
+     *
+     * @throws IllegalArgumentException if the key is blank or longer than {@link #MAX_KEY_LENGTH}
+     */
+    public ApplyCouponResponse apply(String idempotencyKey, Long couponId, CartRequest cartRequest,
+                                     Supplier<ApplyCouponResponse> compute) {
+        if (idempotencyKey == null) {
+            return compute.get();
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        if (cache == null || cartRequest.getCart() == null || cartRequest.getCart().getItems() == null) {
+            return compute.get();
+        }
+        long[] fingerprint = ApplicableCouponsCache.fingerprint(cartRequest.getCart().getItems(), money);
+        if (fingerprint == null) {
+            return compute.get();
+        }
+        Key key = new Key(idempotencyKey, couponId, cartRequest.getUser_id(), fingerprint);
+        CompletableFuture<ApplyCouponResponse> created = new CompletableFuture<>();
+        CompletableFuture<ApplyCouponResponse> stored = cache.get(key, k -> created);
+        if (stored != created) {
+            return await(stored);
+        }
+        try {
+            created.complete(compute.get());
+        } catch (Throwable e) {
+            // Errors too, or waiting duplicates and later retries would block on it forever
+            cache.asMap().remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        return created.join();
+    }
+
+    private static ApplyCouponResponse await(CompletableFuture<ApplyCouponResponse> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            // The original request's failure, e.g. a coupon that does not apply
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static final class Key {
+
+        private final String idempotencyKey;
+        private final Long couponId;
+        private final String userId;
+        private final long[] lines;
+        private final int hash;
+
+        Key(String idempotencyKey, Long couponId, String userId, long[] lines) {
+            this.idempotencyKey = idempotencyKey;
+            this.couponId = couponId;
+            this.userId = userId;
+            this.lines = lines;
+            this.hash = 31 * Objects.hash(idempotencyKey, couponId, userId) + Arrays.hashCode(lines);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && idempotencyKey.equals(other.idempotencyKey)
+                    && Objects.equals(couponId, other.couponId) && Objects.equals(userId, other.userId)
+                    && Arrays.equals(lines, other.lines);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
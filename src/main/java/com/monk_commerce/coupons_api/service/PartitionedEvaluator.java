@@ -0,0 +1,161 @@
+package com.monk_commerce.coupons_api.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Splits the evaluation of a large candidate list into partitions evaluated on a
+ * dedicated fork/join pool.
+ * <p>
+ * Whether a list is split is decided from its estimated sequential cost: the number of
+ * candidates times a moving average of the measured time per candidate, against
+ * {@code coupons.evaluation.parallel-threshold-us}. Small catalogs and cheap candidates
+ * therefore stay on the calling thread. The pool has
+ * {@code coupons.evaluation.parallelism} threads (half the cores by default), shared by
+ * all requests, so one huge cart can never occupy more than that many cores.
+ */
+@Component
+public class PartitionedEvaluator {
+
+    private static final double SMOOTHING = 0.1;
+    // Partitions per worker, so uneven partitions still balance
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    @Value("${coupons.evaluation.parallelism:0}")
+    private int parallelism;
+    @Value("${coupons.evaluation.min-partition-size:1024}")
+    private int minPartitionSize = 1024;
+    @Value("${coupons.evaluation.parallel-threshold-us:500}")
+    private long parallelThresholdMicros = 500;
+
+    private volatile double nanosPerCandidate = 200;
+    private volatile ForkJoinPool pool;
+
+    public PartitionedEvaluator() {
+    }
+
+    public PartitionedEvaluator(int parallelism, int minPartitionSize, long parallelThresholdMicros) {
+        this.parallelism = parallelism;
+        this.minPartitionSize = minPartitionSize;
+        this.parallelThresholdMicros = parallelThresholdMicros;
+    }
+
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Whether evaluating this many candidates is expected to take long enough to be worth
+     * splitting.
+     */
+    public boolean shouldPartition(int candidates) {
+        return getParallelism() > 1 && candidates >= 2L * minPartitionSize
+                && candidates * nanosPerCandidate >= parallelThresholdMicros * 1_000.0;
+    }
+
+    /**
+     * Feeds the time a sequential evaluation took into the cost estimate.
+     */
+    public void recordSequential(int candidates, long nanos) {
+        if (candidates > 0) {
+            update((double) nanos / candidates);
+        }
+    }
+
+    /**
+     * Evaluates every item in partitions and returns the non-null results, in item order.
+     */
+    public <T, R> List<R> evaluate(List<T> items, Function<T, R> evaluator) {
+        int leafSize = leafSize(items.size());
+        LongAdder busyNanos = new LongAdder();
+        List<R> results = pool().invoke(new Partition<>(items, 0, items.size(), leafSize, evaluator, busyNanos));
+        // Worker time rather than wall time, so the estimate stays a sequential cost
+        recordSequential(items.size(), busyNanos.sum());
+        return results;
+    }
+
+    private int leafSize(int candidates) {
+        return Math.max(minPartitionSize, -Math.floorDiv(-candidates, getParallelism() * PARTITIONS_PER_THREAD));
+    }
+
+    private void update(double sample) {
+        // Racy by design: a lost update only delays the estimate by one sample
+        nanosPerCandidate += SMOOTHING * (sample - nanosPerCandidate);
+    }
+
+    private ForkJoinPool pool() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(getParallelism(), forkJoinPool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                        thread.setName("coupon-evaluation-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, null, false);
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private static final class Partition<T, R> extends RecursiveTask<List<R>> {
+
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final Function<T, R> evaluator;
+        private final LongAdder busyNanos;
+
+        Partition(List<T> items, int from, int to, int leafSize, Function<T, R> evaluator, LongAdder busyNanos) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.evaluator = evaluator;
+            this.busyNanos = busyNanos;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (to - from <= leafSize) {
+                long start = System.nanoTime();
+                List<R> results = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    R result = evaluator.apply(items.get(i));
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+                busyNanos.add(System.nanoTime() - start);
+                return results;
+            }
+            int middle = (from + to) >>> 1;
+            Partition<T, R> left = new Partition<>(items, from, middle, leafSize, evaluator, busyNanos);
+            left.fork();
+            List<R> right = new Partition<>(items, middle, to, leafSize, evaluator, busyNanos).compute();
+            List<R> results = left.join();
+            results.addAll(right);
+            return results;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.model.CouponRedemption;
+import com.monk_commerce.coupons_api.repository.CouponRedemptionRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory redemption counts for coupons with limits, enforced with compare-and-set and
+ * written to the database behind the request path.
+ * <p>
+ * Every coupon has a global counter and a map of per-user counters. A redemption CASes
+ * the user's counter and then the global one, so concurrent checkouts of a hot coupon
+ * retry a CAS instead of queueing on a row lock, and different users only ever share
+ * the global counter. Changed per-user counts are marked dirty and flushed periodically
+ * as absolute values in one batched MERGE, which makes a flush safe to repeat. Counts are
+ * reloaded on startup and flushed on shutdown; a crash loses at most one flush interval.
+ * <p>
+ * Counting in memory assumes one node owns the database. With
+ * {@code coupons.redemptions.shared} (on by default when {@code coupons.journal.enabled}
+ * is) several nodes count in the database instead: a redemption locks the coupon's row,
+ * checks the user's count and the sum of the coupon's counts against the limits and
+ * increments the user's row, all in one transaction. Redemptions of one coupon are then
+ * serialized across nodes. The sum reads at most one row per redeeming user, and no more
+ * rows than the global limit.
+ */
+@Component
+public class RedemptionCounters {
+
+    static final String ANONYMOUS = "";
+
+    private static final String UPSERT =
+            "MERGE INTO coupon_redemptions (coupon_id, user_id, redemptions) KEY (coupon_id, user_id) VALUES (?, ?, ?)";
+    private static final String LOCK_COUPON = "SELECT id FROM coupons WHERE id = ? FOR UPDATE";
+    private static final String USER_COUNT = "SELECT redemptions FROM coupon_redemptions WHERE coupon_id = ? AND user_id = ?";
+    private static final String TOTAL = "SELECT COALESCE(SUM(redemptions), 0) FROM coupon_redemptions WHERE coupon_id = ?";
+    private static final String INCREMENT = "UPDATE coupon_redemptions SET redemptions = redemptions + 1 WHERE coupon_id = ? AND user_id = ?";
+    private static final String INSERT = "INSERT INTO coupon_redemptions (coupon_id, user_id, redemptions) VALUES (?, ?, 1)";
+
+    @Autowired
+    private CouponRedemptionRepository redemptionRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${coupons.redemptions.shared:${coupons.journal.enabled:false}}")
+    private boolean shared;
+
+    private final ConcurrentHashMap<Long, CouponCounters> counters = new ConcurrentHashMap<>();
+    private final Set<Key> dirty = ConcurrentHashMap.newKeySet();
+
+    private static final class CouponCounters {
+        private final AtomicInteger total = new AtomicInteger();
+        private final ConcurrentHashMap<String, AtomicInteger> byUser = new ConcurrentHashMap<>();
+    }
+
+    private record Key(Long couponId, String userId) {
+    }
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    void load() {
+        if (shared) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            return;
+        }
+        for (CouponRedemption redemption : redemptionRepository.findAll()) {
+            CouponCounters coupon = counters.computeIfAbsent(redemption.getCouponId(), id -> new CouponCounters());
+            coupon.byUser.put(redemption.getUserId(), new AtomicInteger(redemption.getRedemptions()));
+            coupon.total.addAndGet(redemption.getRedemptions());
+        }
+    }
+
+    /**
+     * Records one redemption of a coupon if neither of its limits has been reached.
+     *
+     * @return whether the redemption was recorded
+     */
+    public boolean tryRedeem(Long couponId, String userId, CouponRule.RedemptionLimits limits) {
+        if (limits.perUser() != null && userId == null) {
+            throw new IllegalArgumentException("user_id is required for coupon " + couponId);
+        }
+        String user = userId != null ? userId : ANONYMOUS;
+        if (shared) {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> redeemShared(couponId, user, limits)));
+        }
+        CouponCounters coupon = counters.computeIfAbsent(couponId, id -> new CouponCounters());
+        AtomicInteger userCount = coupon.byUser.computeIfAbsent(user, u -> new AtomicInteger());
+
+        if (!increment(userCount, limits.perUser())) {
+            return false;
+        }
+        if (!increment(coupon.total, limits.global())) {
+            userCount.decrementAndGet();
+            return false;
+        }
+        // Marked after the increment, so a concurrent flush either sees it or re-flushes it
+        dirty.add(new Key(couponId, user));
+        return true;
+    }
+
+    private boolean redeemShared(Long couponId, String user, CouponRule.RedemptionLimits limits) {
+        if (jdbcTemplate.queryForList(LOCK_COUPON, Long.class, couponId).isEmpty()) {
+            // Deleted since the request found it
+            return false;
+        }
+        List<Integer> userCount = jdbcTemplate.queryForList(USER_COUNT, Integer.class, couponId, user);
+        if (limits.perUser() != null && (userCount.isEmpty() ? 0 : userCount.get(0)) >= limits.perUser()) {
+            return false;
+        }
+        if (limits.global() != null && jdbcTemplate.queryForObject(TOTAL, Integer.class, couponId) >= limits.global()) {
+            return false;
+        }
+        jdbcTemplate.update(userCount.isEmpty() ? INSERT : INCREMENT, couponId, user);
+        return true;
+    }
+
+    public int getRedemptions(Long couponId) {
+        if (shared) {
+            return jdbcTemplate.queryForObject(TOTAL, Integer.class, couponId);
+        }
+        CouponCounters coupon = counters.get(couponId);
+        return coupon != null ? coupon.total.get() : 0;
+    }
+
+    public int getRedemptions(Long couponId, String userId) {
+        if (shared) {
+            List<Integer> userCount = jdbcTemplate.queryForList(USER_COUNT, Integer.class, couponId, userId != null ? userId : ANONYMOUS);
+            return userCount.isEmpty() ? 0 : userCount.get(0);
+        }
+        CouponCounters coupon = counters.get(couponId);
+        AtomicInteger userCount = coupon != null ? coupon.byUser.get(userId != null ? userId : ANONYMOUS) : null;
+        return userCount != null ? userCount.get() : 0;
+    }
+
+    /**
+     * Forgets a deleted coupon's counts, in memory and in the database.
+     */
+    public void remove(Long couponId) {
+        counters.remove(couponId);
+        redemptionRepository.deleteByCouponId(couponId);
+    }
+
+    /**
+     * Like {@link #remove}, once the current transaction commits, so a rolled back delete
+     * keeps the coupon's counts and limits.
+     */
+    public void removeAfterCommit(Long couponId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    // The committed transaction is still bound here, so the rows go in a new one
+                    TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+                    requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                    requiresNew.executeWithoutResult(status -> remove(couponId));
+                }
+            });
+        } else {
+            remove(couponId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${coupons.redemptions.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Key> keys = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        for (Iterator<Key> iterator = dirty.iterator(); iterator.hasNext(); ) {
+            Key key = iterator.next();
+            iterator.remove();
+            CouponCounters coupon = counters.get(key.couponId());
+            if (coupon == null) {
+                continue;
+            }
+            keys.add(key);
+            rows.add(new Object[]{key.couponId(), key.userId(), coupon.byUser.get(key.userId()).get()});
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPSERT, rows);
+        } catch (RuntimeException e) {
+            // Retried on the next flush; the values written are absolute, so nothing is counted twice
+            dirty.addAll(keys);
+            throw e;
+        }
+    }
+
+    private static boolean increment(AtomicInteger counter, Integer limit) {
+        if (limit == null) {
+            counter.incrementAndGet();
+            return true;
+        }
+        int current;
+        do {
+            current = counter.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current + 1));
+        return true;
+    }
+}
@@ -0,0 +1,78 @@
+package com.monk_commerce.coupons_api.service;
+
+import com.monk_commerce.coupons_api.dto.ApplicableCoupon;
+import com.monk_commerce.coupons_api.money.Money;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded heap of the {@code limit} best applicable coupons, ranked by discount (highest
+ * first) and then coupon id, the same order as the full applicable-coupons list. The
+ * worst kept coupon sits at the head, so {@link #canAdmit} is a single comparison.
+ */
+final class TopCoupons {
+
+    private record Entry(Long id, String type, long discount) {
+    }
+
+    private static final Comparator<Long> ID_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+    private static final Comparator<Entry> RANK = Comparator.comparingLong(Entry::discount).reversed()
+            .thenComparing(Entry::id, ID_ORDER);
+
+    private final int limit;
+    private final PriorityQueue<Entry> heap;
+
+    TopCoupons(int limit) {
+        this.limit = limit;
+        this.heap = new PriorityQueue<>(limit + 1, RANK.reversed());
+    }
+
+    /**
+     * Whether a coupon whose discount is at most {@code discountBound} could still make
+     * the top {@code limit}.
+     */
+    boolean canAdmit(long discountBound, Long id) {
+        if (heap.size() < limit) {
+            return true;
+        }
+        Entry worst = heap.peek();
+        if (discountBound != worst.discount()) {
+            return discountBound > worst.discount();
+        }
+        return ID_ORDER.compare(id, worst.id()) < 0;
+    }
+
+    /**
+     * Lowest discount still kept once the heap is full; any coupon below it is out.
+     */
+    long floor() {
+        return heap.size() < limit ? Long.MIN_VALUE : heap.peek().discount();
+    }
+
+    void offer(Long id, String type, long discount) {
+        if (!canAdmit(discount, id)) {
+            return;
+        }
+        heap.add(new Entry(id, type, discount));
+        if (heap.size() > limit) {
+            heap.poll();
+        }
+    }
+
+    int size() {
+        return heap.size();
+    }
+
+    List<ApplicableCoupon> toList(Money money) {
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(RANK);
+        List<ApplicableCoupon> coupons = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            coupons.add(new ApplicableCoupon(entry.id(), entry.type(), money.toMajor(entry.discount())));
+        }
+        return coupons;
+    }
+}
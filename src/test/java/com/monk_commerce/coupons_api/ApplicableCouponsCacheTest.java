@@ -0,0 +1,78 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.ApplicableCoupon;
+import com.monk_commerce.coupons_api.dto.CartItem;
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.service.ApplicableCouponsCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ApplicableCouponsCacheTest {
+
+    private final ApplicableCouponsCache cache = new ApplicableCouponsCache(100, Duration.ofMinutes(1), Money.DEFAULT);
+    private final AtomicInteger evaluations = new AtomicInteger();
+
+    @Test
+    public void testReorderedCartHitsTheSameEntry() {
+        // Arrange
+        CouponCatalog catalog = CouponCatalog.of(1, List.of());
+
+        // Act
+        List<ApplicableCoupon> first = get(catalog, List.of(new CartItem(1L, 2, 10.0), new CartItem(2L, 1, 5.5)), 0);
+        List<ApplicableCoupon> second = get(catalog, List.of(new CartItem(2L, 1, 5.50), new CartItem(1L, 2, 10.0)), 0);
+
+        // Assert
+        assertSame(first, second);
+        assertEquals(1, evaluations.get());
+        assertEquals(1, cache.getCache().stats().hitCount());
+    }
+
+    @Test
+    public void testDifferentLinesOrLimitMiss() {
+        // Arrange
+        CouponCatalog catalog = CouponCatalog.of(1, List.of());
+
+        // Act
+        get(catalog, List.of(new CartItem(1L, 2, 10.0)), 0);
+        get(catalog, List.of(new CartItem(1L, 3, 10.0)), 0);
+        get(catalog, List.of(new CartItem(1L, 2, 10.01)), 0);
+        get(catalog, List.of(new CartItem(1L, 2, 10.0)), 3);
+        // The last line for a product wins during evaluation, so these two carts differ
+        get(catalog, List.of(new CartItem(1L, 1, 1.0), new CartItem(1L, 2, 2.0)), 0);
+        get(catalog, List.of(new CartItem(1L, 2, 2.0), new CartItem(1L, 1, 1.0)), 0);
+
+        // Assert
+        assertEquals(6, evaluations.get());
+    }
+
+    @Test
+    public void testNewCatalogVersionInvalidatesEntries() {
+        // Arrange
+        CouponCatalog catalog = CouponCatalog.of(1, List.of());
+        List<CartItem> cart = List.of(new CartItem(1L, 2, 10.0));
+        get(catalog, cart, 0);
+
+        // Act
+        CouponCatalog changed = catalog.withRule(2, new CouponRule.ProductWise(1L, 10, CouponRule.Stacking.NONE, 1L));
+        get(changed, cart, 0);
+        get(catalog, cart, 0);
+
+        // Assert: the stale snapshot is evaluated but no longer cached
+        assertEquals(3, evaluations.get());
+        assertEquals(1, cache.getCache().estimatedSize());
+    }
+
+    private List<ApplicableCoupon> get(CouponCatalog catalog, List<CartItem> items, int limit) {
+        return cache.get(catalog, items, limit, () -> {
+            evaluations.incrementAndGet();
+            return List.of(new ApplicableCoupon((long) evaluations.get(), "cart-wise", 1.0));
+        });
+    }
+}
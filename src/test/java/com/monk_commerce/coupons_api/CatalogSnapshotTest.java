@@ -0,0 +1,141 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.model.BuyProduct;
+import com.monk_commerce.coupons_api.model.GetProduct;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import com.monk_commerce.coupons_api.service.CatalogSnapshotService;
+import com.monk_commerce.coupons_api.service.CouponService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:catalog-snapshot",
+        "spring.jpa.show-sql=false",
+        "coupons.snapshot.enabled=true",
+        "coupons.snapshot.interval-ms=3600000",
+        "coupons.snapshot.replay-margin-ms=0"
+})
+public class CatalogSnapshotTest {
+
+    @TempDir
+    static Path directory;
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+
+    @Autowired
+    private CouponRepository couponRepository;
+
+    @Autowired
+    private CatalogSnapshotService catalogSnapshots;
+
+    @DynamicPropertySource
+    static void snapshotPath(DynamicPropertyRegistry registry) {
+        registry.add("coupons.snapshot.path", () -> directory.resolve("catalog.snapshot").toString());
+    }
+
+    @Test
+    public void testRestoreMatchesFullLoadAfterLaterChanges() throws Exception {
+        // Arrange
+        long cartWiseId = couponService.createCoupon(coupon("cart-wise", details -> details.setThreshold(100))).getId();
+        long deletedId = couponService.createCoupon(coupon("product-wise", details -> details.setProduct_id(7L))).getId();
+        couponService.createCoupon(coupon("bxgy", details -> {
+            details.setBuy_products(List.of(buyProduct(1L, 2), buyProduct(2L, 1)));
+            details.setGet_products(List.of(getProduct(3L)));
+            details.setRepetition_limit(2);
+            details.setExclusive_group("spring-sale");
+            details.setMax_redemptions_per_user(1);
+        }));
+        couponService.createCoupon(coupon("product-wise", details -> {
+            details.setProduct_id(8L);
+            details.setValid_from(LocalDateTime.now().plusDays(1));
+        }));
+        couponService.createCoupon(coupon("cart-wise", details -> {
+            details.setThreshold(50);
+            details.setValid_until(LocalDateTime.now().minusDays(1));
+        }));
+        catalogHolder.reload(fullLoad());
+        catalogSnapshots.write();
+
+        // Act
+        couponService.updateCoupon(cartWiseId, coupon("cart-wise", details -> details.setDiscount(35)));
+        couponService.deleteCoupon(deletedId);
+        couponService.createCoupon(coupon("product-wise", details -> details.setProduct_id(9L)));
+        List<CouponRule> restored = catalogSnapshots.restore();
+
+        // Assert
+        assertNotNull(restored);
+        assertEquals(admitted(fullLoad()), admitted(restored));
+        assertEquals(35, restored.stream().filter(rule -> rule.id() == cartWiseId).findFirst().orElseThrow().discount());
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToFullLoad() throws Exception {
+        // Arrange
+        couponService.createCoupon(coupon("cart-wise", details -> details.setThreshold(10)));
+        catalogHolder.reload(fullLoad());
+        catalogSnapshots.write();
+        Path snapshot = directory.resolve("catalog.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+
+        // Act
+        List<CouponRule> restored = catalogSnapshots.restore();
+
+        // Assert
+        assertNull(restored);
+    }
+
+    private List<CouponRule> fullLoad() {
+        return couponRepository.findAllForCatalog().stream().map(CouponRule::compile).toList();
+    }
+
+    private List<CouponRule> admitted(List<CouponRule> rules) {
+        catalogHolder.reload(rules);
+        return catalogHolder.admittedRules().stream().sorted(Comparator.comparing(CouponRule::id)).toList();
+    }
+
+    private static CouponRequest coupon(String type, Consumer<CouponRequest.CouponDetails> details) {
+        CouponRequest request = new CouponRequest();
+        request.setType(type);
+        CouponRequest.CouponDetails couponDetails = new CouponRequest.CouponDetails();
+        couponDetails.setDiscount(10);
+        details.accept(couponDetails);
+        request.setDetails(couponDetails);
+        return request;
+    }
+
+    private static BuyProduct buyProduct(Long productId, int quantity) {
+        BuyProduct product = new BuyProduct();
+        product.setProduct_id(productId);
+        product.setQuantity(quantity);
+        return product;
+    }
+
+    private static GetProduct getProduct(Long productId) {
+        GetProduct product = new GetProduct();
+        product.setProduct_id(productId);
+        product.setQuantity(1);
+        return product;
+    }
+}
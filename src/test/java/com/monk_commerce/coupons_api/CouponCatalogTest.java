@@ -0,0 +1,165 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.money.Money;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class CouponCatalogTest {
+
+    private final Money money = Money.DEFAULT;
+
+    @Test
+    public void testBestCartWiseRuleUsesThresholdIndex() {
+        // Arrange
+        CouponCatalog catalog = CouponCatalog.of(1, List.of(
+                new CouponRule.CartWise(1L, 5, CouponRule.Stacking.NONE, 0),
+                new CouponRule.CartWise(2L, 20, CouponRule.Stacking.NONE, 500),
+                new CouponRule.CartWise(3L, 10, CouponRule.Stacking.NONE, 100),
+                new CouponRule.CartWise(4L, 10, CouponRule.Stacking.NONE, 50)));
+
+        // Act & Assert: totals are in cents, thresholds in whole units
+        assertNull(catalog.bestCartWiseRule(0, money));
+        assertEquals(1L, catalog.bestCartWiseRule(5_000, money).id());
+        assertEquals(3L, catalog.bestCartWiseRule(10_001, money).id());
+        assertEquals(2L, catalog.bestCartWiseRule(50_001, money).id());
+        assertEquals(List.of(1L, 3L, 4L), ids(catalog.candidates(List.of(), 10_001, money)));
+    }
+
+    @Test
+    public void testCartWiseIndexStaysCorrectThroughUpdates() {
+        Random random = new Random(9);
+        Map<Long, CouponRule> rules = new HashMap<>();
+        CouponCatalog catalog = CouponCatalog.of(0, List.of());
+
+        for (int step = 1; step <= 2_000; step++) {
+            long id = 1 + random.nextInt(60);
+            if (random.nextInt(5) == 0) {
+                // A batch of distinct ids, some removed and some added or replaced
+                List<CouponRule> changed = new ArrayList<>();
+                List<Long> removed = new ArrayList<>();
+                for (long batchId = 1 + random.nextInt(3); batchId <= 60; batchId += 1 + random.nextInt(6)) {
+                    if (random.nextBoolean()) {
+                        rules.remove(batchId);
+                        removed.add(batchId);
+                    } else {
+                        CouponRule rule = new CouponRule.CartWise(batchId, random.nextInt(40), CouponRule.Stacking.NONE, random.nextInt(1_000));
+                        rules.put(batchId, rule);
+                        changed.add(rule);
+                    }
+                }
+                catalog = catalog.withChanges(step, changed, removed);
+            } else if (random.nextInt(4) == 0) {
+                rules.remove(id);
+                catalog = catalog.withoutRule(step, id);
+            } else {
+                // Adds a new rule or replaces an existing one with new values
+                CouponRule rule = new CouponRule.CartWise(id, random.nextInt(40), CouponRule.Stacking.NONE, random.nextInt(1_000));
+                rules.put(id, rule);
+                catalog = catalog.withRule(step, rule);
+            }
+
+            long cartTotal = random.nextInt(120_000);
+            assertEquals(bruteForceEligible(rules.values(), cartTotal), ids(catalog.candidates(List.of(), cartTotal, money)));
+            assertEquals(bruteForceBest(rules.values(), cartTotal), Optional.ofNullable(catalog.bestCartWiseRule(cartTotal, money))
+                    .map(CouponRule::id).orElse(null));
+        }
+        assertEquals(ids(CouponCatalog.of(0, rules.values()).candidates(List.of(), 60_000, money)),
+                ids(catalog.candidates(List.of(), 60_000, money)));
+    }
+
+    @Test
+    public void testProductIndexKeepsEveryVersionIntact() {
+        // Arrange: sparse ids and enough rules to span several pages of the index
+        Random random = new Random(21);
+        List<Long> ids = new ArrayList<>();
+        Map<Long, CouponRule> rules = new HashMap<>();
+        for (int i = 0; i < 6_000; i++) {
+            long id = 1 + random.nextInt(1 << 30);
+            ids.add(id);
+            rules.put(id, randomItemRule(random, id));
+        }
+        CouponCatalog catalog = CouponCatalog.of(0, rules.values());
+        Map<CouponCatalog, Map<Long, CouponRule>> versions = new LinkedHashMap<>();
+        versions.put(catalog, new HashMap<>(rules));
+
+        // Act
+        for (int step = 1; step <= 600; step++) {
+            long id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(3) == 0) {
+                rules.remove(id);
+                catalog = catalog.withoutRule(step, id);
+            } else {
+                CouponRule rule = randomItemRule(random, id);
+                rules.put(id, rule);
+                catalog = catalog.withRule(step, rule);
+            }
+            if (step % 50 == 0) {
+                versions.put(catalog, new HashMap<>(rules));
+            }
+        }
+
+        // Assert: later copies never wrote to the pages and buckets older versions read
+        for (Map.Entry<CouponCatalog, Map<Long, CouponRule>> version : versions.entrySet()) {
+            CouponCatalog snapshot = version.getKey();
+            Map<Long, CouponRule> expected = version.getValue();
+            assertEquals(expected.size(), snapshot.size());
+            assertEquals(new HashSet<>(expected.values()), new HashSet<>(snapshot.getRules()));
+            for (Long id : ids) {
+                assertEquals(expected.get(id), snapshot.getRule(id));
+            }
+            for (long productId = 1; productId <= 300; productId++) {
+                assertEquals(bruteForceCandidates(expected.values(), productId),
+                        ids(snapshot.candidates(List.of(productId), 0, money)), "product " + productId);
+            }
+        }
+    }
+
+    private static CouponRule randomItemRule(Random random, long id) {
+        long productId = 1 + random.nextInt(300);
+        if (random.nextBoolean()) {
+            return new CouponRule.ProductWise(id, 1 + random.nextInt(40), CouponRule.Stacking.NONE, productId);
+        }
+        List<CouponRule.ProductQuantity> buyProducts = random.nextInt(50) == 0 ? List.of() : List.of(
+                new CouponRule.ProductQuantity(productId, 1), new CouponRule.ProductQuantity(1 + random.nextLong(300), 2));
+        return new CouponRule.BxGy(id, null, CouponRule.Stacking.NONE, 1, buyProducts,
+                List.of(new CouponRule.ProductQuantity(productId, 1)));
+    }
+
+    private static List<Long> bruteForceCandidates(Collection<CouponRule> rules, long productId) {
+        return rules.stream()
+                .filter(rule -> rule instanceof CouponRule.ProductWise productWise
+                        ? productWise.productId() == productId
+                        : ((CouponRule.BxGy) rule).buyProducts().isEmpty()
+                        || ((CouponRule.BxGy) rule).buyProducts().stream().anyMatch(buy -> buy.productId() == productId))
+                .map(CouponRule::id)
+                .sorted()
+                .toList();
+    }
+
+    private List<Long> bruteForceEligible(Collection<CouponRule> rules, long cartTotal) {
+        return rules.stream()
+                .map(rule -> (CouponRule.CartWise) rule)
+                .filter(rule -> cartTotal > money.toMinor(rule.threshold()))
+                .map(CouponRule::id)
+                .sorted()
+                .toList();
+    }
+
+    private Long bruteForceBest(Collection<CouponRule> rules, long cartTotal) {
+        return rules.stream()
+                .map(rule -> (CouponRule.CartWise) rule)
+                .filter(rule -> cartTotal > money.toMinor(rule.threshold()))
+                .min(Comparator.comparing(CouponRule.CartWise::discount).reversed().thenComparing(CouponRule::id))
+                .map(CouponRule::id)
+                .orElse(null);
+    }
+
+    private static List<Long> ids(Collection<? extends CouponRule> rules) {
+        return rules.stream().map(CouponRule::id).toList();
+    }
+}
@@ -0,0 +1,282 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CouponControllerTest {
+
+    private static final List<String> CARTS = List.of(
+            "{\"cart\":{\"items\":[{\"product_id\":1,\"quantity\":6,\"price\":50},{\"product_id\":3,\"quantity\":2,\"price\":25}]}}",
+            "{\"cart\":{\"items\":[{\"product_id\":2,\"quantity\":1,\"price\":500}]}}",
+            "{\"cart\":{\"items\":[]}}"
+    );
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private long bxGyCouponId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10}}");
+        createCoupon("{\"type\":\"product-wise\",\"details\":{\"product_id\":1,\"discount\":20}}");
+        bxGyCouponId = createCoupon("{\"type\":\"bxgy\",\"details\":{\"buy_products\":[{\"product_id\":1,\"quantity\":3}],"
+                + "\"get_products\":[{\"product_id\":3,\"quantity\":1}],\"repetition_limit\":2}}");
+    }
+
+    @Test
+    public void testBatchMatchesSingleCartResults_JsonArray() throws Exception {
+        String body = "[" + String.join(",", CARTS) + "]";
+        assertBatchMatchesSingleCarts(body, MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    public void testBatchMatchesSingleCartResults_Ndjson() throws Exception {
+        String body = String.join("\n", CARTS) + "\n";
+        assertBatchMatchesSingleCarts(body, MediaType.APPLICATION_NDJSON);
+    }
+
+    @Test
+    public void testApplyCouponResponseShape() throws Exception {
+        String response = mockMvc.perform(post("/apply-coupon/" + bxGyCouponId)
+                        .contentType(MediaType.APPLICATION_JSON).content(CARTS.get(0)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        JsonNode updatedCart = objectMapper.readTree(response).get("updated_cart");
+        assertEquals(400.0, updatedCart.get("total_price").asDouble());
+        assertEquals(50.0, updatedCart.get("total_discount").asDouble());
+        assertEquals(350.0, updatedCart.get("final_price").asDouble());
+        JsonNode freeItem = updatedCart.get("items").get(1);
+        assertEquals(3, freeItem.get("product_id").asLong());
+        assertEquals(4, freeItem.get("quantity").asInt());
+        assertEquals(25.0, freeItem.get("price").asDouble());
+        assertEquals(50.0, freeItem.get("total_discount").asDouble());
+        assertTrue(objectMapper.readTree(response).has("catalog_version"));
+    }
+
+    @Test
+    public void testApplicableCouponsRecordsStageMetrics() throws Exception {
+        mockMvc.perform(post("/applicable-coupons").contentType(MediaType.APPLICATION_JSON).content(CARTS.get(0)))
+                .andExpect(status().isOk());
+
+        assertTrue(meterRegistry.get("coupons.stage").tag("stage", "candidate-selection").timer().count() > 0);
+        assertTrue(meterRegistry.get("coupons.stage").tag("stage", "serialization").timer().count() > 0);
+        assertTrue(meterRegistry.get("coupons.stage").tag("stage", "evaluation").timer().count() > 0);
+        assertTrue(meterRegistry.get("coupons.candidates.scanned").summary().totalAmount() > 0);
+        assertTrue(meterRegistry.get("coupons.db.calls").tag("endpoint", "createCoupon").summary().totalAmount() > 0);
+    }
+
+    @Test
+    public void testImportNdjsonReportsRowErrors() throws Exception {
+        String body = String.join("\n",
+                "{\"type\":\"product-wise\",\"details\":{\"product_id\":901,\"discount\":15}}",
+                "{\"type\":\"product-wise\",\"details\":{\"product_id\":",
+                "",
+                "{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":150}}",
+                "{\"type\":\"bxgy\",\"details\":{\"buy_products\":[{\"product_id\":902,\"quantity\":2}],"
+                        + "\"get_products\":[{\"product_id\":903,\"quantity\":1}],\"repetition_limit\":1}}",
+                "{\"type\":\"free-shipping\",\"details\":{}}");
+
+        JsonNode result = objectMapper.readTree(mockMvc.perform(post("/coupons/import")
+                        .contentType(MediaType.APPLICATION_NDJSON).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+
+        assertEquals(2, result.get("imported").asInt());
+        assertEquals(3, result.get("failed").asInt());
+        assertEquals(List.of(2, 3, 5), result.get("errors").findValues("row").stream().map(JsonNode::asInt).toList());
+        assertEquals("discount must be between 0 and 100", result.get("errors").get(1).get("error").asText());
+        assertEquals(List.of("product-wise", "bxgy"), applicableTypes(
+                "{\"cart\":{\"items\":[{\"product_id\":901,\"quantity\":1,\"price\":10},"
+                        + "{\"product_id\":902,\"quantity\":2,\"price\":1},{\"product_id\":903,\"quantity\":1,\"price\":1}]}}"));
+    }
+
+    @Test
+    public void testImportCsv() throws Exception {
+        String body = String.join("\n",
+                "type,discount,product_id,buy_products,get_products,repetition_limit",
+                "product-wise,25,911,,,",
+                "bxgy,,,912:1|913:1,914:1,2",
+                "bxgy,,,912:x,914:1,2",
+                "");
+
+        JsonNode result = objectMapper.readTree(mockMvc.perform(post("/coupons/import")
+                        .contentType("text/csv").content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+
+        assertEquals(2, result.get("imported").asInt());
+        assertEquals(3, result.get("errors").get(0).get("row").asInt());
+        assertEquals("Invalid buy_products: x", result.get("errors").get(0).get("error").asText());
+        assertEquals(List.of("product-wise", "bxgy"), applicableTypes(
+                "{\"cart\":{\"items\":[{\"product_id\":911,\"quantity\":1,\"price\":10},{\"product_id\":912,\"quantity\":1,\"price\":1},"
+                        + "{\"product_id\":913,\"quantity\":1,\"price\":1},{\"product_id\":914,\"quantity\":2,\"price\":1}]}}"));
+    }
+
+    @Test
+    public void testListCouponsFollowsNextLink() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            createCoupon("{\"type\":\"product-wise\",\"details\":{\"product_id\":921,\"discount\":" + (i + 1) + "}}");
+        }
+
+        List<Integer> discounts = new ArrayList<>();
+        String next = "/coupons?product_id=921&limit=2";
+        int pages = 0;
+        while (next != null) {
+            MockHttpServletResponse response = mockMvc.perform(get(next))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse();
+            objectMapper.readTree(response.getContentAsString()).findValues("discount").forEach(d -> discounts.add(d.asInt()));
+            String link = response.getHeader(HttpHeaders.LINK);
+            next = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+            pages++;
+        }
+
+        assertEquals(List.of(1, 2, 3, 4, 5), discounts);
+        assertEquals(3, pages);
+        mockMvc.perform(get("/coupons?type=free-shipping")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/coupons?limit=0")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testCustomCouponIsStoredAndEvaluated() throws Exception {
+        long id = createCoupon("{\"type\":\"custom\",\"details\":{\"rule\":{"
+                + "\"conditions\":[{\"type\":\"contains_products\",\"products\":[{\"product_id\":931,\"quantity\":2}]}],"
+                + "\"action\":{\"type\":\"fixed_off_cart\",\"amount\":15}}}}");
+
+        String response = mockMvc.perform(post("/apply-coupon/" + id).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"cart\":{\"items\":[{\"product_id\":931,\"quantity\":2,\"price\":40}]}}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode listed = objectMapper.readTree(mockMvc.perform(get("/coupons?type=custom&limit=1000"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+
+        assertEquals(15.0, objectMapper.readTree(response).get("updated_cart").get("total_discount").asDouble());
+        assertEquals(List.of("custom"), applicableTypes("{\"cart\":{\"items\":[{\"product_id\":931,\"quantity\":3,\"price\":10}]}}"));
+        assertEquals(List.of(), applicableTypes("{\"cart\":{\"items\":[{\"product_id\":931,\"quantity\":1,\"price\":10}]}}"));
+        assertEquals("fixed_off_cart", listed.findValue("rule").get("action").get("type").asText());
+        mockMvc.perform(post("/coupons").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"type\":\"custom\",\"details\":{\"rule\":{\"action\":{\"type\":\"percent_off_cart\",\"percent\":120}}}}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testExportMatchesListing() throws Exception {
+        String export = mockMvc.perform(get("/coupons/export?type=bxgy"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String listing = mockMvc.perform(get("/coupons?type=bxgy&limit=1000"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        JsonNode coupons = objectMapper.readTree(export);
+        assertTrue(coupons.size() > 0);
+        assertEquals(objectMapper.readTree(listing), coupons);
+        assertEquals(3, coupons.get(0).get("getProducts").get(0).get("product_id").asLong());
+    }
+
+    private List<String> applicableTypes(String cart) throws Exception {
+        String response = mockMvc.perform(post("/applicable-coupons").contentType(MediaType.APPLICATION_JSON).content(cart))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(response).get("applicable_coupons").findValues("type").stream()
+                .map(JsonNode::asText).filter(type -> !type.equals("cart-wise")).toList();
+    }
+
+    private void assertBatchMatchesSingleCarts(String body, MediaType contentType) throws Exception {
+        String batch = mockMvc.perform(post("/applicable-coupons/batch").contentType(contentType).content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        List<String> lines = batch.lines().toList();
+        assertEquals(CARTS.size(), lines.size());
+        for (int i = 0; i < CARTS.size(); i++) {
+            JsonNode result = objectMapper.readTree(lines.get(i));
+            JsonNode single = objectMapper.readTree(mockMvc.perform(post("/applicable-coupons")
+                            .contentType(MediaType.APPLICATION_JSON).content(CARTS.get(i)))
+                    .andReturn().getResponse().getContentAsString());
+            assertEquals(i, result.get("index").asInt());
+            assertEquals(single.get("catalog_version"), result.get("catalog_version"));
+            assertEquals(single.get("applicable_coupons"), result.get("applicable_coupons"));
+        }
+    }
+
+    @Test
+    public void testRetriedApplyIsRedeemedOnce() throws Exception {
+        // Arrange
+        long id = createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10,\"max_redemptions\":1}}");
+        String cart = "{\"user_id\":\"u1\",\"cart\":{\"items\":[{\"product_id\":7,\"quantity\":1,\"price\":500}]}}";
+
+        // Act
+        String first = mockMvc.perform(post("/apply-coupon/" + id).header("Idempotency-Key", "checkout-42")
+                        .contentType(MediaType.APPLICATION_JSON).content(cart))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String retry = mockMvc.perform(post("/apply-coupon/" + id).header("Idempotency-Key", "checkout-42")
+                        .contentType(MediaType.APPLICATION_JSON).content(cart))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        // Assert
+        assertEquals(first, retry);
+        mockMvc.perform(post("/apply-coupon/" + id).header("Idempotency-Key", "checkout-43")
+                        .contentType(MediaType.APPLICATION_JSON).content(cart))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    public void testCartTheCouponDoesNotApplyToLeavesItsLimit() throws Exception {
+        // Arrange
+        long id = createCoupon("{\"type\":\"product-wise\",\"details\":{\"product_id\":8,\"discount\":10,"
+                + "\"max_redemptions\":1,\"max_redemptions_per_user\":1}}");
+        String otherProduct = "{\"user_id\":\"u1\",\"cart\":{\"items\":[{\"product_id\":7,\"quantity\":1,\"price\":500}]}}";
+        String product = "{\"user_id\":\"u1\",\"cart\":{\"items\":[{\"product_id\":8,\"quantity\":1,\"price\":500}]}}";
+
+        // Act
+        mockMvc.perform(post("/apply-coupon/" + id).contentType(MediaType.APPLICATION_JSON).content(otherProduct))
+                .andExpect(status().isBadRequest());
+        String applied = mockMvc.perform(post("/apply-coupon/" + id).contentType(MediaType.APPLICATION_JSON).content(product))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        // Assert
+        assertEquals(50.0, objectMapper.readTree(applied).get("updated_cart").get("total_discount").asDouble());
+        mockMvc.perform(post("/apply-coupon/" + id).contentType(MediaType.APPLICATION_JSON).content(product))
+                .andExpect(status().isConflict());
+    }
+
+    private long createCoupon(String coupon) throws Exception {
+        String response = mockMvc.perform(post("/coupons").contentType(MediaType.APPLICATION_JSON).content(coupon))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(response).get("id").asLong();
+    }
+}
@@ -0,0 +1,138 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.service.CouponJournal;
+import com.monk_commerce.coupons_api.service.CouponService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + CouponJournalTest.DATABASE,
+        "spring.jpa.show-sql=false",
+        "coupons.journal.enabled=true",
+        "coupons.journal.poll-interval-ms=20"
+})
+public class CouponJournalTest {
+
+    // Kept open between connections, so a second node in this JVM shares it
+    static final String DATABASE = "jdbc:h2:mem:coupon-journal;DB_CLOSE_DELAY=-1";
+
+    private static ConfigurableApplicationContext otherNode;
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private CouponJournal couponJournal;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterAll
+    static void stopOtherNode() {
+        if (otherNode != null) {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    public void testChangesOnOneNodeReachTheOther() {
+        // Arrange
+        CouponService otherService = otherNode().getBean(CouponService.class);
+        couponService.getCatalog();
+        otherService.getCatalog();
+
+        // Act & Assert
+        long id = couponService.createCoupon(cartWise(10)).getId();
+        assertEquals(10, awaitRule(otherService, id, Objects::nonNull).discount());
+
+        couponService.updateCoupon(id, cartWise(25));
+        awaitRule(otherService, id, rule -> rule != null && rule.discount() == 25);
+
+        otherService.deleteCoupon(id);
+        awaitRule(couponService, id, Objects::isNull);
+        awaitRule(otherService, id, Objects::isNull);
+
+        CouponJournal otherJournal = otherNode.getBean(CouponJournal.class);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (otherJournal.getAppliedSequence() != couponJournal.getAppliedSequence() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(couponJournal.getAppliedSequence(), otherJournal.getAppliedSequence());
+        assertTrue(meterRegistry.get("coupons.journal.lag").timer().count() > 0);
+    }
+
+    @Test
+    public void testChangeCommittedAfterALaterOneIsApplied() {
+        // Arrange
+        CouponService otherService = otherNode().getBean(CouponService.class);
+        long first = couponService.createCoupon(cartWise(10)).getId();
+        long second = couponService.createCoupon(cartWise(10)).getId();
+        awaitRule(otherService, second, Objects::nonNull);
+
+        // Act: the first update takes the lower sequence number but commits last
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            couponService.updateCoupon(first, cartWise(30));
+            CompletableFuture.runAsync(() -> couponService.updateCoupon(second, cartWise(40))).join();
+            awaitRule(otherService, second, rule -> rule.discount() == 40);
+        });
+
+        // Assert
+        awaitRule(otherService, first, rule -> rule.discount() == 30);
+    }
+
+    private static ConfigurableApplicationContext otherNode() {
+        if (otherNode == null) {
+            otherNode = new SpringApplicationBuilder(CouponsApiApplication.class)
+                    .web(WebApplicationType.NONE)
+                    // Arguments rather than default properties, which application.properties overrides
+                    .run("--spring.datasource.url=" + DATABASE,
+                            // The schema belongs to the first node
+                            "--spring.jpa.hibernate.ddl-auto=none",
+                            "--spring.jpa.show-sql=false",
+                            "--spring.jmx.enabled=false",
+                            "--coupons.journal.enabled=true",
+                            "--coupons.journal.poll-interval-ms=20");
+        }
+        return otherNode;
+    }
+
+    private static CouponRule awaitRule(CouponService service, long id, Predicate<CouponRule> condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        CouponRule rule = service.getCatalog().getRule(id);
+        while (!condition.test(rule) && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+            rule = service.getCatalog().getRule(id);
+        }
+        assertTrue(condition.test(rule), "coupon " + id + " did not converge: " + rule);
+        return rule;
+    }
+
+    private static CouponRequest cartWise(int discount) {
+        CouponRequest request = new CouponRequest();
+        request.setType("cart-wise");
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setThreshold(100);
+        details.setDiscount(discount);
+        request.setDetails(details);
+        return request;
+    }
+}
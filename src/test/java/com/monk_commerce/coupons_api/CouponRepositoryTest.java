@@ -0,0 +1,137 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.model.*;
+import com.monk_commerce.coupons_api.repository.CouponFilter;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class CouponRepositoryTest {
+
+    @Autowired
+    private CouponRepository couponRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void testFindAllForCatalog_StatementCountIndependentOfBxGyCount() {
+        // Arrange
+        CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+        cartWiseCoupon.setDiscount(10);
+        cartWiseCoupon.setThreshold(100);
+        couponRepository.save(cartWiseCoupon);
+        saveBxGyCoupons(2);
+
+        // Act
+        long fewCoupons = countCatalogLoadStatements(3);
+        saveBxGyCoupons(40);
+        long manyCoupons = countCatalogLoadStatements(43);
+
+        // Assert
+        assertEquals(3, fewCoupons);
+        assertEquals(fewCoupons, manyCoupons);
+    }
+
+    @Test
+    public void testFindAllForCatalog_InitializesBxGyCollections() {
+        // Arrange
+        saveBxGyCoupons(1);
+        entityManager.flush();
+        entityManager.clear();
+
+        // Act
+        List<Coupon> coupons = couponRepository.findAllForCatalog();
+        entityManager.clear();
+
+        // Assert
+        CouponRule.BxGy rule = (CouponRule.BxGy) CouponRule.compile(coupons.get(0));
+        assertEquals(2, rule.buyProducts().size());
+        assertEquals(1, rule.getProducts().size());
+    }
+
+    @Test
+    public void testFindPage_SeeksPastCursorAndFilters() {
+        // Arrange
+        ProductWiseCoupon productWise = new ProductWiseCoupon();
+        productWise.setDiscount(10);
+        productWise.setProductId(3L);
+        couponRepository.save(productWise);
+        CartWiseCoupon expired = new CartWiseCoupon();
+        expired.setDiscount(10);
+        expired.setThreshold(100);
+        expired.setValidUntil(LocalDateTime.of(2020, 1, 1, 0, 0));
+        couponRepository.save(expired);
+        saveBxGyCoupons(3);
+        entityManager.flush();
+        entityManager.clear();
+
+        // Act
+        List<Coupon> firstPage = couponRepository.findPage(CouponFilter.NONE, 0, 2);
+        List<Coupon> secondPage = couponRepository.findPage(CouponFilter.NONE, firstPage.get(1).getId(), 2);
+        List<Coupon> bxGy = couponRepository.findPage(CouponFilter.of("bxgy", null, null), 0, 10);
+        List<Coupon> forProduct3 = couponRepository.findPage(CouponFilter.of(null, 3L, null), 0, 10);
+        List<Coupon> validNow = couponRepository.findPage(CouponFilter.of(null, null, LocalDateTime.now()), 0, 10);
+        entityManager.clear();
+
+        // Assert
+        assertEquals(List.of(productWise.getId(), expired.getId()), firstPage.stream().map(Coupon::getId).toList());
+        assertEquals(2, secondPage.size());
+        assertTrue(secondPage.get(0).getId() > expired.getId());
+        assertEquals(3, bxGy.size());
+        assertEquals(2, ((BxGyCoupon) bxGy.get(0)).getBuyProducts().size());
+        assertEquals(4, forProduct3.size());
+        assertEquals(4, validNow.size());
+        assertFalse(validNow.stream().anyMatch(coupon -> coupon.getId().equals(expired.getId())));
+    }
+
+    private long countCatalogLoadStatements(int expectedCoupons) {
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+
+        List<CouponRule> rules = couponRepository.findAllForCatalog().stream().map(CouponRule::compile).toList();
+
+        assertEquals(expectedCoupons, rules.size());
+        return statistics.getPrepareStatementCount();
+    }
+
+    private void saveBxGyCoupons(int count) {
+        for (int i = 0; i < count; i++) {
+            BxGyCoupon coupon = new BxGyCoupon();
+            coupon.setRepetition_limit(2);
+            for (long productId = 1; productId <= 2; productId++) {
+                BuyProduct buyProduct = new BuyProduct();
+                buyProduct.setProduct_id(productId);
+                buyProduct.setQuantity(2);
+                buyProduct.setCoupon(coupon);
+                coupon.getBuyProducts().add(buyProduct);
+            }
+            GetProduct getProduct = new GetProduct();
+            getProduct.setProduct_id(3L);
+            getProduct.setQuantity(1);
+            getProduct.setCoupon(coupon);
+            coupon.getGetProducts().add(getProduct);
+            couponRepository.save(coupon);
+        }
+    }
+}
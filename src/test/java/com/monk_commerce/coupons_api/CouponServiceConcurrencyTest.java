@@ -0,0 +1,161 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponValidityScheduler;
+import com.monk_commerce.coupons_api.dto.*;
+import com.monk_commerce.coupons_api.metrics.CouponMetrics;
+import com.monk_commerce.coupons_api.model.*;
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import com.monk_commerce.coupons_api.service.ApplicableCouponsCache;
+import com.monk_commerce.coupons_api.service.CatalogSnapshotService;
+import com.monk_commerce.coupons_api.service.CouponJournal;
+import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.PartitionedEvaluator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fires many concurrent applyCoupon calls and checks every result against the
+ * single-threaded answer for the same coupon and cart.
+ */
+public class CouponServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int CALLS = 20_000;
+    private static final int CARTS = 200;
+
+    @InjectMocks
+    private CouponService couponService;
+
+    @Mock
+    private CouponRepository couponRepository;
+
+    @Spy
+    private CouponCatalogHolder catalogHolder = new CouponCatalogHolder();
+
+    @Spy
+    private CouponMetrics couponMetrics = CouponMetrics.noop();
+
+    @Spy
+    private Money money = Money.DEFAULT;
+
+    @Spy
+    private ApplicableCouponsCache applicableCouponsCache = ApplicableCouponsCache.disabled();
+
+    @Spy
+    private PartitionedEvaluator partitionedEvaluator = new PartitionedEvaluator();
+
+    @Mock
+    private CatalogSnapshotService catalogSnapshots;
+
+    @Mock
+    private CouponJournal couponJournal;
+
+    private final List<Coupon> coupons = new ArrayList<>();
+    private final List<CartRequest> carts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(catalogHolder, "validityScheduler", new CouponValidityScheduler());
+        // No catalog snapshot, so the catalog is loaded from the repository
+        when(catalogSnapshots.restore()).thenReturn(null);
+        Random random = new Random(42);
+
+        long id = 1;
+        for (int i = 0; i < 20; i++) {
+            BxGyCoupon coupon = new BxGyCoupon();
+            coupon.setId(id++);
+            coupon.setRepetition_limit(1 + random.nextInt(5));
+            BuyProduct buyProduct = new BuyProduct();
+            buyProduct.setProduct_id((long) 1 + random.nextInt(10));
+            buyProduct.setQuantity(1 + random.nextInt(3));
+            coupon.setBuyProducts(List.of(buyProduct));
+            GetProduct getProduct = new GetProduct();
+            getProduct.setProduct_id((long) 1 + random.nextInt(10));
+            getProduct.setQuantity(1);
+            coupon.setGetProducts(List.of(getProduct));
+            coupons.add(coupon);
+        }
+        for (int i = 0; i < 5; i++) {
+            ProductWiseCoupon coupon = new ProductWiseCoupon();
+            coupon.setId(id++);
+            coupon.setProductId((long) 1 + random.nextInt(10));
+            coupon.setDiscount(5 + random.nextInt(30));
+            coupons.add(coupon);
+            CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+            cartWiseCoupon.setId(id++);
+            cartWiseCoupon.setThreshold(random.nextInt(500));
+            cartWiseCoupon.setDiscount(5 + random.nextInt(30));
+            coupons.add(cartWiseCoupon);
+        }
+        when(couponRepository.findAllForCatalog()).thenReturn(coupons);
+
+        for (int i = 0; i < CARTS; i++) {
+            List<CartItem> items = new ArrayList<>();
+            for (long productId = 1; productId <= 10; productId++) {
+                if (random.nextBoolean()) {
+                    items.add(new CartItem(productId, 1 + random.nextInt(12), 10 + random.nextInt(200)));
+                }
+            }
+            Cart cart = new Cart();
+            cart.setItems(items);
+            carts.add(new CartRequest(cart));
+        }
+    }
+
+    @Test
+    public void testConcurrentApplyCouponMatchesSequentialOracle() throws Exception {
+        // Arrange
+        Map<String, UpdatedCart> oracle = new HashMap<>();
+        for (Coupon coupon : coupons) {
+            for (int cart = 0; cart < CARTS; cart++) {
+                oracle.put(key(coupon.getId(), cart), couponService.applyCoupon(coupon.getId(), carts.get(cart)));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        for (int call = 0; call < CALLS; call++) {
+            Long couponId = coupons.get(call % coupons.size()).getId();
+            int cart = (call * 31) % CARTS;
+            futures.add(executor.submit(() -> {
+                start.await();
+                UpdatedCart result = couponService.applyCoupon(couponId, carts.get(cart));
+                if (!result.equals(oracle.get(key(couponId, cart)))) {
+                    mismatches.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertEquals(0, mismatches.get());
+    }
+
+    private static String key(Long couponId, int cart) {
+        return couponId + ":" + cart;
+    }
+}
@@ -3,19 +3,34 @@ package com.monk_commerce.coupons_api;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.catalog.CouponValidityScheduler;
 import com.monk_commerce.coupons_api.dto.*;
+import com.monk_commerce.coupons_api.metrics.CouponMetrics;
 import com.monk_commerce.coupons_api.exception.CouponNotFoundException;
+import com.monk_commerce.coupons_api.exception.RedemptionLimitExceededException;
 import com.monk_commerce.coupons_api.model.*;
+import com.monk_commerce.coupons_api.money.Money;
 import com.monk_commerce.coupons_api.repository.BuyProductRepository;
 import com.monk_commerce.coupons_api.repository.CouponRepository;
 import com.monk_commerce.coupons_api.repository.GetProductRepository;
+import com.monk_commerce.coupons_api.service.ApplicableCouponsCache;
+import com.monk_commerce.coupons_api.service.CatalogSnapshotService;
+import com.monk_commerce.coupons_api.service.CouponJournal;
 import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.PartitionedEvaluator;
+import com.monk_commerce.coupons_api.service.RedemptionCounters;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.LocalDateTime;
 import java.util.*;
 
 public class CouponServiceTest {
@@ -32,10 +47,37 @@ public class CouponServiceTest {
     @Mock
     private GetProductRepository getProductRepository;
 
+    @Spy
+    private CouponCatalogHolder catalogHolder = new CouponCatalogHolder();
+
+    @Spy
+    private CouponMetrics couponMetrics = CouponMetrics.noop();
+
+    @Spy
+    private Money money = Money.DEFAULT;
+
+    @Spy
+    private ApplicableCouponsCache applicableCouponsCache = ApplicableCouponsCache.disabled();
+
+    @Spy
+    private PartitionedEvaluator partitionedEvaluator = new PartitionedEvaluator();
+
+    @Mock
+    private CatalogSnapshotService catalogSnapshots;
+
+    @Mock
+    private CouponJournal couponJournal;
+
+    @Mock
+    private RedemptionCounters redemptionCounters;
+
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(catalogHolder, "validityScheduler", new CouponValidityScheduler());
+        // No catalog snapshot, so the catalog is loaded from the repository
+        when(catalogSnapshots.restore()).thenReturn(null);
     }
 
     @Test
@@ -88,6 +130,23 @@ public class CouponServiceTest {
         verify(couponRepository, times(1)).save(any(ProductWiseCoupon.class));
     }
 
+    @Test
+    public void testCreateCouponRejectsEmptyValidityWindow() {
+        // Arrange
+        CouponRequest couponRequest = new CouponRequest();
+        couponRequest.setType("product-wise");
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setProduct_id(1L);
+        details.setDiscount(20);
+        details.setValid_from(LocalDateTime.of(2026, 11, 1, 0, 0));
+        details.setValid_until(LocalDateTime.of(2026, 10, 1, 0, 0));
+        couponRequest.setDetails(details);
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> couponService.createCoupon(couponRequest));
+        verify(couponRepository, never()).save(any());
+    }
+
     @Test
     public void testCreateBxGyCoupon() {
         // Arrange
@@ -182,16 +241,16 @@ public class CouponServiceTest {
         cartWiseCoupon.setDiscount(10); 
         cartWiseCoupon.setThreshold(250); 
 
-        when(couponRepository.findAll()).thenReturn(Collections.singletonList(cartWiseCoupon));
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(cartWiseCoupon));
 
         // Act
-        List<Map<String, Object>> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
 
         // Assert
         assertNotNull(result);
         assertEquals(1, result.size());
-        assertEquals("cart-wise", result.get(0).get("type"));
-        assertEquals(40.0, result.get(0).get("discount"));
+        assertEquals("cart-wise", result.get(0).type());
+        assertEquals(40.0, result.get(0).discount());
     }
 
     @Test
@@ -208,16 +267,16 @@ public class CouponServiceTest {
         productWiseCoupon.setProductId(1L);
         productWiseCoupon.setDiscount(20);
 
-        when(couponRepository.findAll()).thenReturn(Collections.singletonList(productWiseCoupon));
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(productWiseCoupon));
 
         // Act
-        List<Map<String, Object>> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
 
         // Assert
         assertNotNull(result);
         assertEquals(1, result.size());
-        assertEquals("product-wise", result.get(0).get("type"));
-        assertEquals(40.0, result.get(0).get("discount"));
+        assertEquals("product-wise", result.get(0).type());
+        assertEquals(40.0, result.get(0).discount());
     }
 
     @Test
@@ -245,16 +304,124 @@ public class CouponServiceTest {
         bxGyCoupon.setBuyProducts(Collections.singletonList(buyProduct));
         bxGyCoupon.setGetProducts(Collections.singletonList(getProduct));
 
-        when(couponRepository.findAll()).thenReturn(Collections.singletonList(bxGyCoupon));
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(bxGyCoupon));
 
         // Act
-        List<Map<String, Object>> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
 
         // Assert
         assertNotNull(result);
         assertEquals(1, result.size());
-        assertEquals("bxgy", result.get(0).get("type"));
-        assertEquals(400.0, result.get(0).get("discount"));
+        assertEquals("bxgy", result.get(0).type());
+        assertEquals(400.0, result.get(0).discount());
+    }
+
+    @Test
+    public void testCreateCustomCoupon_DiscountComesFromTheRule() {
+        // Arrange: a details.discount that disagrees with the rule's percentage
+        CouponRequest couponRequest = new CouponRequest();
+        couponRequest.setType("custom");
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setDiscount(90);
+        details.setRule(new RuleDefinition(List.of(), new RuleDefinition.TieredPercentOffProducts(List.of(1L), List.of(
+                new RuleDefinition.Tier(5, 20), new RuleDefinition.Tier(3, 10)))));
+        couponRequest.setDetails(details);
+
+        when(couponRepository.save(any(CustomCoupon.class))).thenAnswer(invocation -> {
+            CustomCoupon saved = invocation.getArgument(0);
+            saved.setId(6L);
+            return saved;
+        });
+        couponService.getCatalog();
+
+        // Act
+        CouponResponse response = couponService.createCoupon(couponRequest);
+
+        // Assert
+        assertEquals(20, response.getDiscount());
+        assertEquals(20, couponService.getCatalog().getRule(6L).discount());
+    }
+
+    @Test
+    public void testGetApplicableCoupons_CustomTieredCoupon() {
+        // Arrange: 10% off products 1 and 2 from 3 units, 20% from 5, on carts above 100
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(
+                new CartItem(1L, 3, 10.0),
+                new CartItem(2L, 2, 50.0),
+                new CartItem(3L, 1, 40.0)
+        ));
+
+        CustomCoupon customCoupon = new CustomCoupon();
+        customCoupon.setId(4L);
+        customCoupon.setRule(new RuleDefinition(
+                List.of(new RuleDefinition.CartTotalAbove(100), new RuleDefinition.ContainsProducts(
+                        List.of(new RuleDefinition.ProductQuantity(1L, 1)))),
+                new RuleDefinition.TieredPercentOffProducts(List.of(1L, 2L), List.of(
+                        new RuleDefinition.Tier(5, 20), new RuleDefinition.Tier(3, 10)))));
+
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(customCoupon));
+
+        // Act
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> top = couponService.getApplicableCoupons(couponService.getCatalog(), new CartRequest(cart), 1);
+
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals("custom", result.get(0).type());
+        assertEquals(26.0, result.get(0).discount());
+        assertEquals(result, top);
+    }
+
+    @Test
+    public void testGetApplicableCoupons_CustomCouponConditionsNotMet() {
+        // Arrange
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 1, 500.0)));
+
+        CustomCoupon customCoupon = new CustomCoupon();
+        customCoupon.setId(4L);
+        customCoupon.setRule(new RuleDefinition(
+                List.of(new RuleDefinition.ContainsProducts(List.of(new RuleDefinition.ProductQuantity(1L, 2)))),
+                new RuleDefinition.FixedOffCart(30)));
+
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(customCoupon));
+
+        // Act
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
+
+        // Assert
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testApplyCoupon_CustomFreeItems() {
+        // Arrange: one free unit of product 2 per two units of product 1, at most twice
+        Long couponId = 5L;
+        CartRequest cartRequest = new CartRequest();
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 6, 10.0), new CartItem(2L, 1, 25.0)));
+        cartRequest.setCart(cart);
+
+        CustomCoupon customCoupon = new CustomCoupon();
+        customCoupon.setId(couponId);
+        customCoupon.setRule(new RuleDefinition(
+                List.of(new RuleDefinition.ContainsProducts(List.of(new RuleDefinition.ProductQuantity(1L, 2)))),
+                new RuleDefinition.FreeItems(List.of(2L), 2)));
+
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(customCoupon));
+
+        // Act
+        UpdatedCart result = couponService.applyCoupon(couponId, cartRequest);
+
+        // Assert
+        assertEquals(135.0, result.total_price());
+        assertEquals(50.0, result.total_discount());
+        assertEquals(85.0, result.final_price());
+        assertEquals(6, result.items().get(0).quantity());
+        assertEquals(0.0, result.items().get(0).total_discount());
+        assertEquals(3, result.items().get(1).quantity());
+        assertEquals(50.0, result.items().get(1).total_discount());
     }
 
     @Test
@@ -266,10 +433,10 @@ public class CouponServiceTest {
                 new CartItem(2L, 1, 200.0)
         ));
 
-        when(couponRepository.findAll()).thenReturn(Collections.emptyList());
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.emptyList());
 
         // Act
-        List<Map<String, Object>> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
 
         // Assert
         assertNotNull(result);
@@ -282,16 +449,85 @@ public class CouponServiceTest {
         Cart cart = new Cart();
         cart.setItems(null);
 
-        when(couponRepository.findAll()).thenReturn(Collections.emptyList());
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.emptyList());
 
         // Act
-        List<Map<String, Object>> result = couponService.getApplicableCoupons(new CartRequest(cart));
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
 
         // Assert
         assertNotNull(result);
         assertEquals(0, result.size());
     }
 
+    @Test
+    public void testGetApplicableCoupons_OnlyCouponsTouchingCartProducts() {
+        // Arrange
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(
+                new CartItem(1L, 2, 100.0),
+                new CartItem(2L, 1, 200.0)
+        ));
+
+        ProductWiseCoupon matching = new ProductWiseCoupon();
+        matching.setId(1L);
+        matching.setProductId(2L);
+        matching.setDiscount(10);
+
+        ProductWiseCoupon otherProduct = new ProductWiseCoupon();
+        otherProduct.setId(2L);
+        otherProduct.setProductId(9L);
+        otherProduct.setDiscount(50);
+
+        BxGyCoupon otherBxGy = new BxGyCoupon();
+        otherBxGy.setId(3L);
+        otherBxGy.setRepetition_limit(1);
+        BuyProduct buyProduct = new BuyProduct();
+        buyProduct.setProduct_id(9L);
+        buyProduct.setQuantity(1);
+        otherBxGy.setBuyProducts(Collections.singletonList(buyProduct));
+
+        when(couponRepository.findAllForCatalog()).thenReturn(Arrays.asList(matching, otherProduct, otherBxGy));
+
+        // Act
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(new CartRequest(cart));
+
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals(1L, result.get(0).coupon_id());
+        assertEquals(20.0, result.get(0).discount());
+    }
+
+    @Test
+    public void testGetApplicableCoupons_IndexFollowsCreateAndDelete() {
+        // Arrange
+        Cart cart = new Cart();
+        cart.setItems(Collections.singletonList(new CartItem(1L, 1, 100.0)));
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.emptyList());
+        assertEquals(0, couponService.getApplicableCoupons(new CartRequest(cart)).size());
+
+        CouponRequest couponRequest = new CouponRequest();
+        couponRequest.setType("product-wise");
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setProduct_id(1L);
+        details.setDiscount(20);
+        couponRequest.setDetails(details);
+
+        ProductWiseCoupon saved = new ProductWiseCoupon();
+        saved.setId(5L);
+        saved.setProductId(1L);
+        saved.setDiscount(20);
+        when(couponRepository.save(any(ProductWiseCoupon.class))).thenReturn(saved);
+
+        // Act & Assert
+        couponService.createCoupon(couponRequest);
+        List<ApplicableCoupon> afterCreate = couponService.getApplicableCoupons(new CartRequest(cart));
+        assertEquals(1, afterCreate.size());
+        assertEquals(5L, afterCreate.get(0).coupon_id());
+
+        couponService.deleteCoupon(5L);
+        assertEquals(0, couponService.getApplicableCoupons(new CartRequest(cart)).size());
+    }
+
     @Test
     public void testDeleteCoupon() {
         // Arrange
@@ -302,6 +538,7 @@ public class CouponServiceTest {
 
         // Assert
         verify(couponRepository, times(1)).deleteById(couponId);
+        verify(redemptionCounters, times(1)).removeAfterCommit(couponId);
     }
 
     @Test
@@ -314,18 +551,227 @@ public class CouponServiceTest {
         cartRequest.setCart(cart);
 
         CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+        cartWiseCoupon.setId(couponId);
         cartWiseCoupon.setDiscount(10);
 
-        when(couponRepository.findById(couponId)).thenReturn(Optional.of(cartWiseCoupon));
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(cartWiseCoupon));
 
         // Act
-        Map<String, Object> result = couponService.applyCoupon(couponId, cartRequest);
+        UpdatedCart result = couponService.applyCoupon(couponId, cartRequest);
 
         // Assert
         assertNotNull(result);
-        assertEquals(200.0, result.get("total_price"));
-        assertEquals(20.0, result.get("total_discount"));
-        assertEquals(180.0, result.get("final_price"));
+        assertEquals(200.0, result.total_price());
+        assertEquals(20.0, result.total_discount());
+        assertEquals(180.0, result.final_price());
+    }
+
+    @Test
+    public void testGetApplicableCoupons_LimitKeepsBestInOrder() {
+        // Arrange
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(
+                new CartItem(1L, 6, 50.0),
+                new CartItem(3L, 2, 25.0)
+        ));
+        List<CouponRule> rules = List.of(
+                new CouponRule.CartWise(1L, 10, CouponRule.Stacking.NONE, 100),
+                new CouponRule.CartWise(2L, 5, CouponRule.Stacking.NONE, 100),
+                new CouponRule.ProductWise(3L, 20, CouponRule.Stacking.NONE, 1L),
+                new CouponRule.BxGy(4L, 0, CouponRule.Stacking.NONE, 2,
+                        List.of(new CouponRule.ProductQuantity(1L, 3)), List.of(new CouponRule.ProductQuantity(3L, 1))));
+        CouponCatalog catalog = CouponCatalog.of(1, rules);
+
+        // Act
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(catalog, new CartRequest(cart), 2);
+
+        // Assert: product-wise 60, bxgy 50, cart-wise 35 and 17.5
+        assertEquals(List.of(3L, 4L), result.stream().map(ApplicableCoupon::coupon_id).toList());
+        assertEquals(60.0, result.get(0).discount());
+        assertEquals(result, couponService.getApplicableCoupons(catalog, new CartRequest(cart)).subList(0, 2));
+    }
+
+    @Test
+    public void testGetApplicableCoupons_LimitReadsOnlyEligibleCartWiseRules() {
+        // Arrange: three rules the cart clears, and many better ones it does not
+        List<CouponRule> rules = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            rules.add(new CouponRule.CartWise(id, (int) id, CouponRule.Stacking.NONE, 10));
+        }
+        for (long id = 4; id <= 1000; id++) {
+            rules.add(new CouponRule.CartWise(id, 50, CouponRule.Stacking.NONE, 10_000));
+        }
+        CouponCatalog catalog = CouponCatalog.of(1, rules);
+        Cart cart = new Cart();
+        cart.setItems(List.of(new CartItem(1L, 1, 100.0)));
+
+        // Act
+        List<ApplicableCoupon> result = couponService.getApplicableCoupons(catalog, new CartRequest(cart), 5);
+
+        // Assert
+        assertEquals(List.of(3L, 2L, 1L), result.stream().map(ApplicableCoupon::coupon_id).toList());
+        verify(couponMetrics).recordCandidates(3, 3);
+    }
+
+    @Test
+    public void testGetApplicableCoupons_LimitMatchesFullListPrefix() {
+        Random random = new Random(5);
+        List<CouponRule> rules = new ArrayList<>();
+        for (long id = 1; id <= 300; id++) {
+            long product = random.nextInt(30);
+            switch (random.nextInt(3)) {
+                case 0 -> rules.add(new CouponRule.CartWise(id, 1 + random.nextInt(10), CouponRule.Stacking.NONE, random.nextInt(300)));
+                case 1 -> rules.add(new CouponRule.ProductWise(id, 1 + random.nextInt(30), CouponRule.Stacking.NONE, product));
+                default -> rules.add(new CouponRule.BxGy(id, 0, CouponRule.Stacking.NONE, 1 + random.nextInt(3),
+                        List.of(new CouponRule.ProductQuantity(product, 1 + random.nextInt(3))),
+                        List.of(new CouponRule.ProductQuantity((long) random.nextInt(30), 1))));
+            }
+        }
+        CouponCatalog catalog = CouponCatalog.of(1, rules);
+
+        for (int round = 0; round < 200; round++) {
+            List<CartItem> items = new ArrayList<>();
+            for (int line = 0; line < 1 + random.nextInt(8); line++) {
+                items.add(new CartItem((long) random.nextInt(30), 1 + random.nextInt(4), random.nextInt(5000) / 100.0));
+            }
+            Cart cart = new Cart();
+            cart.setItems(items);
+            List<ApplicableCoupon> all = couponService.getApplicableCoupons(catalog, new CartRequest(cart));
+
+            for (int limit : new int[]{1, 3, 10, 1000}) {
+                assertEquals(all.subList(0, Math.min(limit, all.size())),
+                        couponService.getApplicableCoupons(catalog, new CartRequest(cart), limit));
+            }
+        }
+    }
+
+    @Test
+    public void testGetApplicableCoupons_PartitionedMatchesSequential() {
+        // Arrange: a 4-way evaluator that splits any list of 32 or more candidates
+        Random random = new Random(16);
+        List<CouponRule> rules = new ArrayList<>();
+        for (long id = 1; id <= 3_000; id++) {
+            long product = random.nextInt(20);
+            switch (random.nextInt(3)) {
+                case 0 -> rules.add(new CouponRule.CartWise(id, 1 + random.nextInt(10), CouponRule.Stacking.NONE, random.nextInt(300)));
+                case 1 -> rules.add(new CouponRule.ProductWise(id, 1 + random.nextInt(30), CouponRule.Stacking.NONE, product));
+                default -> rules.add(new CouponRule.BxGy(id, 0, CouponRule.Stacking.NONE, 1 + random.nextInt(3),
+                        List.of(new CouponRule.ProductQuantity(product, 1 + random.nextInt(3))),
+                        List.of(new CouponRule.ProductQuantity((long) random.nextInt(20), 1))));
+            }
+        }
+        CouponCatalog catalog = CouponCatalog.of(1, rules);
+        PartitionedEvaluator partitioned = new PartitionedEvaluator(4, 16, 0);
+        assertTrue(partitioned.shouldPartition(1_000));
+
+        for (int round = 0; round < 50; round++) {
+            List<CartItem> items = new ArrayList<>();
+            for (int line = 0; line < 1 + random.nextInt(8); line++) {
+                items.add(new CartItem((long) random.nextInt(20), 1 + random.nextInt(4), random.nextInt(5000) / 100.0));
+            }
+            Cart cart = new Cart();
+            cart.setItems(items);
+
+            // Act
+            ReflectionTestUtils.setField(couponService, "partitionedEvaluator", new PartitionedEvaluator(1, 16, 0));
+            List<ApplicableCoupon> sequential = couponService.getApplicableCoupons(catalog, new CartRequest(cart));
+            ReflectionTestUtils.setField(couponService, "partitionedEvaluator", partitioned);
+            List<ApplicableCoupon> result = couponService.getApplicableCoupons(catalog, new CartRequest(cart));
+
+            // Assert
+            assertEquals(sequential, result);
+        }
+        partitioned.shutdown();
+    }
+
+    @Test
+    public void testApplyCoupon_RejectsWhenRedemptionLimitReached() {
+        // Arrange
+        CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+        cartWiseCoupon.setId(1L);
+        cartWiseCoupon.setDiscount(10);
+        cartWiseCoupon.setThreshold(100);
+        cartWiseCoupon.setMaxRedemptionsPerUser(1);
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(cartWiseCoupon));
+        when(redemptionCounters.tryRedeem(eq(1L), eq("alice"), any())).thenReturn(true, false);
+
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 2, 100.0)));
+        CartRequest cartRequest = new CartRequest(cart, "alice");
+
+        // Act
+        UpdatedCart first = couponService.applyCoupon(1L, cartRequest);
+
+        // Assert
+        assertEquals(20.0, first.total_discount());
+        assertThrows(RedemptionLimitExceededException.class, () -> couponService.applyCoupon(1L, cartRequest));
+    }
+
+    @Test
+    public void testApplyCoupon_UnlimitedCouponSkipsCounters() {
+        // Arrange
+        CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+        cartWiseCoupon.setId(1L);
+        cartWiseCoupon.setDiscount(10);
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(cartWiseCoupon));
+
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 2, 100.0)));
+
+        // Act
+        couponService.applyCoupon(1L, new CartRequest(cart, "alice"));
+
+        // Assert
+        verifyNoInteractions(redemptionCounters);
+    }
+
+    @Test
+    public void testApplyCoupon_RoundsDiscountToCents() {
+        // Arrange: 15% of 59.97 is 8.9955, which a double holds as 8.99549999...
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 3, 19.99)));
+
+        ProductWiseCoupon productWiseCoupon = new ProductWiseCoupon();
+        productWiseCoupon.setId(1L);
+        productWiseCoupon.setProductId(1L);
+        productWiseCoupon.setDiscount(15);
+
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(productWiseCoupon));
+
+        // Act
+        UpdatedCart result = couponService.applyCoupon(1L, new CartRequest(cart));
+
+        // Assert
+        assertEquals(59.97, result.total_price());
+        assertEquals(9.0, result.total_discount());
+        assertEquals(50.97, result.final_price());
+        assertEquals(9.0, result.items().get(0).total_discount());
+    }
+
+    @Test
+    public void testApplyCoupon_ReadsCatalogSnapshot() {
+        // Arrange
+        CartWiseCoupon cartWiseCoupon = new CartWiseCoupon();
+        cartWiseCoupon.setId(1L);
+        cartWiseCoupon.setDiscount(10);
+        cartWiseCoupon.setThreshold(0);
+        when(couponRepository.findAllForCatalog()).thenReturn(Collections.singletonList(cartWiseCoupon));
+
+        Cart cart = new Cart();
+        cart.setItems(Arrays.asList(new CartItem(1L, 2, 100.0)));
+        CartRequest cartRequest = new CartRequest(cart);
+
+        // Act
+        long loadedVersion = couponService.getCatalog().getVersion();
+        couponService.applyCoupon(1L, cartRequest);
+        couponService.applyCoupon(1L, cartRequest);
+        couponService.deleteCoupon(1L);
+
+        // Assert
+        verify(couponRepository, times(1)).findAllForCatalog();
+        verify(couponRepository, never()).findById(any());
+        assertTrue(couponService.getCatalog().getVersion() > loadedVersion);
+        assertThrows(CouponNotFoundException.class, () -> couponService.applyCoupon(1L, cartRequest));
     }
 
     @Test
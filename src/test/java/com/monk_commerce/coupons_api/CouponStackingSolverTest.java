@@ -0,0 +1,177 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.service.CouponStackingSolver;
+import com.monk_commerce.coupons_api.service.CouponStackingSolver.Candidate;
+import com.monk_commerce.coupons_api.service.CouponStackingSolver.Selection;
+import com.monk_commerce.coupons_api.service.CouponStackingSolver.Solution;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+public class CouponStackingSolverTest {
+
+    private final CouponStackingSolver solver = new CouponStackingSolver();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(solver, "money", Money.DEFAULT);
+    }
+
+    @Test
+    public void testItemDiscountsCanDisqualifyCartWiseThreshold() {
+        // Arrange: taking the product coupon drops the cart below the 20% coupon's threshold
+        List<Candidate> candidates = List.of(
+                Candidate.itemLevel(1L, "product-wise", 30, Set.of(1L), true, null),
+                Candidate.cartLevel(2L, "cart-wise", 20, 980, true, null),
+                Candidate.cartLevel(3L, "cart-wise", 5, 0, true, null));
+
+        // Act
+        Solution solution = solver.solve(1000, candidates, 1000);
+
+        // Assert
+        assertTrue(solution.optimal());
+        assertEquals(200, solution.totalDiscount());
+        assertEquals(List.of(2L), ids(solution));
+    }
+
+    @Test
+    public void testRespectsStackabilityExclusivityAndProductConflicts() {
+        // Arrange
+        List<Candidate> candidates = List.of(
+                Candidate.itemLevel(1L, "product-wise", 40, Set.of(1L), true, "summer"),
+                Candidate.itemLevel(2L, "product-wise", 35, Set.of(2L), true, "summer"),
+                Candidate.itemLevel(3L, "bxgy", 30, Set.of(1L), true, null),
+                Candidate.itemLevel(4L, "product-wise", 25, Set.of(3L), true, null),
+                Candidate.itemLevel(5L, "product-wise", 60, Set.of(4L), false, null));
+
+        // Act
+        Solution solution = solver.solve(1000, candidates, 1000);
+
+        // Assert: 2 + 3 + 4 beats 1 + 4 (1 blocks 3 on product 1 and 2 through the group)
+        assertEquals(90, solution.totalDiscount());
+        assertEquals(List.of(2L, 3L, 4L), ids(solution).stream().sorted().toList());
+    }
+
+    @Test
+    public void testMatchesExhaustiveSearchOnRandomCarts() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            long cartTotal = 200 + random.nextInt(800);
+            List<Candidate> candidates = randomCandidates(random, 2 + random.nextInt(11));
+
+            Solution solution = solver.solve(cartTotal, candidates, 1000);
+
+            assertTrue(solution.optimal());
+            assertEquals(bruteForce(cartTotal, candidates), solution.totalDiscount());
+            assertEquals(solution.totalDiscount(), evaluate(cartTotal, candidates, ids(solution)));
+        }
+    }
+
+    @Test
+    public void testFallsBackToBestSoFarWhenBudgetIsExhausted() {
+        // Arrange: hundreds of stackable, mutually exclusive-free candidates
+        Random random = new Random(11);
+        List<Candidate> candidates = new ArrayList<>();
+        for (long id = 1; id <= 400; id++) {
+            candidates.add(Candidate.itemLevel(id, "product-wise", 1 + random.nextInt(50),
+                    Set.of((long) random.nextInt(120)), true, "g" + random.nextInt(60)));
+        }
+        candidates.add(Candidate.cartLevel(1000L, "cart-wise", 10, 0, true, null));
+
+        // Act
+        long start = System.nanoTime();
+        Solution solution = solver.solve(100_000, candidates, 0);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Assert
+        assertFalse(solution.optimal());
+        assertTrue(solution.totalDiscount() > 0);
+        assertTrue(elapsedMs < 1000, "took " + elapsedMs + "ms");
+        assertEquals(solution.totalDiscount(), evaluate(100_000, candidates, ids(solution)));
+    }
+
+    private static List<Long> ids(Solution solution) {
+        return solution.coupons().stream().map(Selection::id).toList();
+    }
+
+    private static List<Candidate> randomCandidates(Random random, int count) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            boolean stackable = random.nextInt(4) != 0;
+            String group = random.nextInt(3) == 0 ? "g" + random.nextInt(2) : null;
+            if (random.nextInt(3) == 0) {
+                candidates.add(Candidate.cartLevel(id, "cart-wise", 5 + random.nextInt(30), random.nextInt(600), stackable, group));
+            } else {
+                Set<Long> products = new HashSet<>();
+                products.add((long) random.nextInt(5));
+                if (random.nextBoolean()) {
+                    products.add((long) random.nextInt(5));
+                }
+                candidates.add(Candidate.itemLevel(id, "product-wise", 1 + random.nextInt(120), products, stackable, group));
+            }
+        }
+        return candidates;
+    }
+
+    private static long bruteForce(long cartTotal, List<Candidate> candidates) {
+        long best = 0;
+        for (int mask = 1; mask < (1 << candidates.size()); mask++) {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    ids.add(candidates.get(i).id());
+                }
+            }
+            best = Math.max(best, evaluate(cartTotal, candidates, ids));
+        }
+        return best;
+    }
+
+    /**
+     * Total discount of a combination, or -1 when the combination breaks a rule.
+     */
+    private static long evaluate(long cartTotal, List<Candidate> candidates, List<Long> ids) {
+        List<Candidate> chosen = candidates.stream().filter(c -> ids.contains(c.id())).toList();
+        if (chosen.size() > 1 && chosen.stream().anyMatch(c -> !c.stackable())) {
+            return -1;
+        }
+        Set<String> groups = new HashSet<>();
+        Set<Long> products = new HashSet<>();
+        long itemDiscount = 0;
+        int cartLevel = 0;
+        for (Candidate candidate : chosen) {
+            if (candidate.exclusiveGroup() != null && !groups.add(candidate.exclusiveGroup())) {
+                return -1;
+            }
+            if (candidate.cartLevel()) {
+                cartLevel++;
+                continue;
+            }
+            for (Long product : candidate.productIds()) {
+                if (!products.add(product)) {
+                    return -1;
+                }
+            }
+            itemDiscount += candidate.discount();
+        }
+        if (cartLevel > 1) {
+            return -1;
+        }
+        long total = itemDiscount;
+        for (Candidate candidate : chosen) {
+            if (candidate.cartLevel()) {
+                long remaining = cartTotal - itemDiscount;
+                if (remaining <= candidate.threshold()) {
+                    return -1;
+                }
+                total += Money.DEFAULT.percentOf(remaining, candidate.percent());
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,199 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.catalog.CouponValidityScheduler;
+import com.monk_commerce.coupons_api.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class CouponValidityTest {
+
+    private static final long START = 1_000_000;
+
+    private MutableClock clock;
+    private CouponValidityScheduler scheduler;
+    private CouponCatalogHolder catalogHolder;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(START);
+        scheduler = new CouponValidityScheduler(clock);
+        ReflectionTestUtils.setField(scheduler, "tickMs", 10L);
+        catalogHolder = new CouponCatalogHolder();
+        ReflectionTestUtils.setField(catalogHolder, "validityScheduler", scheduler);
+    }
+
+    @Test
+    public void testWheelTicksOnItsOwnThread() throws Exception {
+        // Arrange
+        CompletableFuture<String> firedOn = new CompletableFuture<>();
+        scheduler.start(due -> firedOn.complete(Thread.currentThread().getName()));
+        CouponRule rule = new CouponRule.ProductWise(1L, 10, CouponRule.Stacking.NONE, 1L);
+        assertTrue(scheduler.schedule(Instant.ofEpochMilli(START + 10), new CouponValidityScheduler.Transition(rule, 1, true)));
+
+        // Act
+        ReflectionTestUtils.invokeMethod(scheduler, "startTicking");
+        try {
+            clock.millis = START + 10;
+
+            // Assert
+            assertEquals("coupon-validity", firedOn.get(10, TimeUnit.SECONDS));
+        } finally {
+            ReflectionTestUtils.invokeMethod(scheduler, "stopTicking");
+        }
+    }
+
+    @Test
+    public void testTransitionsFireOnTheirTickAcrossWheelLevels() {
+        // Arrange: a 4-slot wheel so deadlines up to 4^5 ticks out cascade through several levels
+        ReflectionTestUtils.setField(scheduler, "wheelSize", 4);
+        List<CouponValidityScheduler.Transition> fired = new ArrayList<>();
+        scheduler.start(fired::addAll);
+        Random random = new Random(14);
+        Map<Long, Long> deadlines = new HashMap<>();
+        for (long id = 1; id <= 500; id++) {
+            long deadline = START + 10 + random.nextInt(10_240);
+            CouponRule rule = new CouponRule.ProductWise(id, 10, CouponRule.Stacking.NONE, id);
+            assertTrue(scheduler.schedule(Instant.ofEpochMilli(deadline), new CouponValidityScheduler.Transition(rule, id, true)));
+            deadlines.put(id, deadline);
+        }
+
+        // Act & Assert: whatever the step, everything due has fired exactly once and nothing early
+        Set<Long> seen = new HashSet<>();
+        while (clock.millis < START + 10_300) {
+            clock.millis += 1 + random.nextInt(60);
+            scheduler.advance();
+            for (CouponValidityScheduler.Transition transition : fired) {
+                assertTrue(seen.add(transition.rule().id()));
+                assertTrue(deadlines.get(transition.rule().id()) <= clock.millis);
+            }
+            fired.clear();
+            for (Map.Entry<Long, Long> entry : deadlines.entrySet()) {
+                // Activations round up to the next 10ms tick
+                assertEquals((entry.getValue() + 9) / 10 * 10 <= clock.millis, seen.contains(entry.getKey()));
+            }
+        }
+        assertEquals(500, seen.size());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void testCouponIsLiveOnlyInsideItsWindow() {
+        // Arrange
+        catalogHolder.reload(List.of(
+                rule(1L, null, null),
+                rule(2L, START + 1_000, START + 5_000),
+                rule(3L, START - 1_000, START + 2_000),
+                rule(4L, START - 2_000, START - 1_000)));
+
+        // Act & Assert
+        assertEquals(Set.of(1L, 3L), liveIds());
+        advanceTo(START + 1_000);
+        assertEquals(Set.of(1L, 2L, 3L), liveIds());
+        advanceTo(START + 2_000);
+        assertEquals(Set.of(1L, 2L), liveIds());
+        advanceTo(START + 5_000);
+        assertEquals(Set.of(1L), liveIds());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void testChangedCouponIgnoresItsOldSchedule() {
+        // Arrange
+        catalogHolder.reload(List.of(
+                rule(1L, START + 1_000, null),
+                rule(2L, START + 1_000, null),
+                rule(3L, null, START + 1_000)));
+        long version = catalogHolder.current().getVersion();
+
+        // Act: 1 becomes unbounded, 2 is deleted and 3 gets a later expiry before anything fires
+        catalogHolder.publish(rule(1L, null, null));
+        catalogHolder.remove(2L);
+        catalogHolder.publish(rule(3L, null, START + 3_000));
+        advanceTo(START + 1_000);
+
+        // Assert
+        assertEquals(Set.of(1L, 3L), liveIds());
+        assertEquals(version + 3, catalogHolder.current().getVersion());
+        advanceTo(START + 3_000);
+        assertEquals(Set.of(1L), liveIds());
+    }
+
+    @Test
+    public void testTransitionsDueTogetherArePublishedAsOneVersion() {
+        // Arrange
+        List<CouponRule> rules = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            rules.add(new CouponRule.CartWise(id, (int) id % 30, CouponRule.Stacking.NONE, CouponRule.RedemptionLimits.NONE,
+                    new CouponRule.Validity(Instant.ofEpochMilli(START + 500), null), (int) id));
+        }
+        catalogHolder.reload(rules);
+        long version = catalogHolder.current().getVersion();
+
+        // Act
+        advanceTo(START + 500);
+
+        // Assert
+        assertEquals(version + 1, catalogHolder.current().getVersion());
+        assertEquals(100, catalogHolder.current().size());
+        assertEquals(29L, catalogHolder.current().bestCartWiseRule(100_000, Money.DEFAULT).id());
+    }
+
+    private CouponRule rule(Long id, Long from, Long until) {
+        return new CouponRule.ProductWise(id, 10, CouponRule.Stacking.NONE, CouponRule.RedemptionLimits.NONE,
+                new CouponRule.Validity(from == null ? null : Instant.ofEpochMilli(from), until == null ? null : Instant.ofEpochMilli(until)),
+                id);
+    }
+
+    private void advanceTo(long millis) {
+        clock.millis = millis;
+        scheduler.advance();
+    }
+
+    private Set<Long> liveIds() {
+        Set<Long> ids = new HashSet<>();
+        catalogHolder.current().getRules().forEach(rule -> ids.add(rule.id()));
+        return ids;
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile long millis;
+
+        MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.model.BxGyCoupon;
+import com.monk_commerce.coupons_api.model.CartWiseCoupon;
+import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.CouponWriteBehind;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:coupon-write-behind",
+        "spring.jpa.show-sql=false",
+        "coupons.write-behind.enabled=true",
+        // Flushed by the tests themselves
+        "coupons.write-behind.flush-interval-ms=3600000",
+        "coupons.write-behind.max-pending=4",
+        "coupons.write-behind.offer-timeout-ms=50"
+})
+@AutoConfigureMockMvc
+public class CouponWriteBehindTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private CouponWriteBehind couponWriteBehind;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        couponWriteBehind.flush();
+    }
+
+    @Test
+    public void testUpdatesOfOneCouponAreCoalescedIntoOneWrite() throws Exception {
+        // Arrange
+        long id = createCoupon("{\"type\":\"bxgy\",\"details\":{\"buy_products\":[{\"product_id\":1,\"quantity\":3}],"
+                + "\"get_products\":[{\"product_id\":3,\"quantity\":1}],\"repetition_limit\":2}}");
+        double coalescedBefore = meterRegistry.get("coupons.write-behind.coalesced").counter().count();
+
+        // Act
+        JsonNode first = update(id, "{\"details\":{\"repetition_limit\":3}}");
+        update(id, "{\"details\":{\"buy_products\":[{\"product_id\":2,\"quantity\":1}]}}");
+        JsonNode last = update(id, "{\"details\":{\"repetition_limit\":5}}");
+        BxGyCoupon beforeFlush = (BxGyCoupon) couponService.getCouponById(id);
+        JsonNode pending = writeStatus(last.get("sequence").asLong());
+        couponWriteBehind.flush();
+
+        // Assert
+        assertEquals("PENDING", first.get("status").asText());
+        assertEquals(2, beforeFlush.getRepetition_limit());
+        assertEquals("PENDING", pending.get("status").asText());
+        assertEquals(2, meterRegistry.get("coupons.write-behind.coalesced").counter().count() - coalescedBefore);
+
+        assertEquals("DURABLE", writeStatus(first.get("sequence").asLong()).get("status").asText());
+        assertEquals("DURABLE", writeStatus(last.get("sequence").asLong()).get("status").asText());
+        assertEquals(5, ((BxGyCoupon) couponService.getCouponById(id)).getRepetition_limit());
+        CouponRule.BxGy rule = (CouponRule.BxGy) couponService.getCatalog().getRule(id);
+        assertEquals(5, rule.repetitionLimit());
+        assertEquals(List.of(new CouponRule.ProductQuantity(2L, 1)), rule.buyProducts());
+    }
+
+    @Test
+    public void testFailedUpdateIsReportedWithoutLosingTheOthers() throws Exception {
+        // Arrange
+        long good = createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10}}");
+        long bad = createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10,"
+                + "\"valid_until\":\"2030-01-01T00:00:00\"}}");
+
+        // Act
+        long goodSequence = update(good, "{\"details\":{\"discount\":15}}").get("sequence").asLong();
+        // Only invalid together with the stored valid_until, so it fails when written
+        long badSequence = update(bad, "{\"details\":{\"valid_from\":\"2031-01-01T00:00:00\"}}").get("sequence").asLong();
+        couponWriteBehind.flush();
+
+        // Assert
+        assertEquals("DURABLE", writeStatus(goodSequence).get("status").asText());
+        assertEquals(15, ((CartWiseCoupon) couponService.getCouponById(good)).getDiscount());
+        JsonNode failed = writeStatus(badSequence);
+        assertEquals("FAILED", failed.get("status").asText());
+        assertEquals("valid_until must be after valid_from", failed.get("error").asText());
+        assertNull(couponService.getCouponById(bad).getValidFrom());
+    }
+
+    @Test
+    public void testFullQueueTurnsCallersAway() throws Exception {
+        // Arrange
+        long id = createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10}}");
+        for (int i = 0; i < 4; i++) {
+            update(id, "{\"details\":{\"discount\":" + (20 + i) + "}}");
+        }
+
+        // Act
+        MockHttpServletResponse rejected = mockMvc.perform(put("/coupons/" + id)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"details\":{\"discount\":30}}"))
+                .andExpect(status().isServiceUnavailable())
+                .andReturn().getResponse();
+        couponWriteBehind.flush();
+
+        // Assert
+        assertEquals("1", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(23, ((CartWiseCoupon) couponService.getCouponById(id)).getDiscount());
+        update(id, "{\"details\":{\"discount\":30}}");
+    }
+
+    @Test
+    public void testInvalidUpdatesAreRejectedBeforeQueueing() throws Exception {
+        mockMvc.perform(put("/coupons/999999").contentType(MediaType.APPLICATION_JSON).content("{\"details\":{\"discount\":5}}"))
+                .andExpect(status().isNotFound());
+        long id = createCoupon("{\"type\":\"cart-wise\",\"details\":{\"threshold\":100,\"discount\":10}}");
+        mockMvc.perform(put("/coupons/" + id).contentType(MediaType.APPLICATION_JSON).content("{\"type\":\"cart-wise\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/coupons/writes/999999")).andExpect(status().isNotFound());
+    }
+
+    private long createCoupon(String json) throws Exception {
+        return couponService.createCoupon(objectMapper.readValue(json, CouponRequest.class)).getId();
+    }
+
+    private JsonNode update(long id, String json) throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(put("/coupons/" + id)
+                        .contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse();
+        JsonNode accepted = objectMapper.readTree(response.getContentAsString());
+        assertTrue(response.getHeader(HttpHeaders.LOCATION).endsWith("/coupons/writes/" + accepted.get("sequence").asLong()));
+        return accepted;
+    }
+
+    private JsonNode writeStatus(long sequence) throws Exception {
+        return objectMapper.readTree(mockMvc.perform(get("/coupons/writes/" + sequence))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+    }
+}
@@ -0,0 +1,148 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponCatalog;
+import com.monk_commerce.coupons_api.catalog.CouponCatalogHolder;
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.dto.*;
+import com.monk_commerce.coupons_api.exception.CouponNotFoundException;
+import com.monk_commerce.coupons_api.model.BuyProduct;
+import com.monk_commerce.coupons_api.model.GetProduct;
+import com.monk_commerce.coupons_api.repository.CouponRepository;
+import com.monk_commerce.coupons_api.service.CouponService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@SpringBootTest(properties = {
+        "coupons.catalog.mode=database",
+        "spring.datasource.url=jdbc:h2:mem:database-mode",
+        "spring.jpa.show-sql=false"
+})
+public class DatabaseCandidateSourceTest {
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private CouponCatalogHolder catalogHolder;
+
+    @Autowired
+    private CouponRepository couponRepository;
+
+    @Test
+    public void testDatabaseModeMatchesInMemoryCatalog() {
+        // Arrange
+        Random random = new Random(19);
+        List<Long> expiredIds = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            CouponResponse coupon = couponService.createCoupon(randomCoupon(random, i));
+            if (i % 10 == 0) {
+                expiredIds.add(coupon.getId());
+            }
+        }
+        List<CartRequest> carts = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            carts.add(randomCart(random));
+        }
+        carts.add(new CartRequest(cart(List.of())));
+
+        // Act
+        List<List<ApplicableCoupon>> fromDatabase = new ArrayList<>();
+        List<List<ApplicableCoupon>> topFromDatabase = new ArrayList<>();
+        List<BestCouponCombination> bestFromDatabase = new ArrayList<>();
+        for (CartRequest cart : carts) {
+            CouponCatalog catalog = couponService.getCatalog();
+            assertEquals(0, catalog.size());
+            fromDatabase.add(couponService.getApplicableCoupons(catalog, cart));
+            topFromDatabase.add(couponService.getApplicableCoupons(catalog, cart, 3));
+            bestFromDatabase.add(couponService.getBestCouponCombination(catalog, cart));
+        }
+        for (Long id : expiredIds) {
+            assertThrows(CouponNotFoundException.class, () -> couponService.applyCoupon(id, carts.get(0)));
+        }
+
+        ReflectionTestUtils.setField(catalogHolder, "inMemory", true);
+        try {
+            catalogHolder.reload(couponRepository.findAllForCatalog().stream().map(CouponRule::compile).toList());
+            // Assert
+            for (int i = 0; i < carts.size(); i++) {
+                CouponCatalog catalog = couponService.getCatalog();
+                assertEquals(couponService.getApplicableCoupons(catalog, carts.get(i)), fromDatabase.get(i), "cart " + i);
+                assertEquals(couponService.getApplicableCoupons(catalog, carts.get(i), 3), topFromDatabase.get(i), "cart " + i);
+                assertEquals(couponService.getBestCouponCombination(catalog, carts.get(i)).coupons(),
+                        bestFromDatabase.get(i).coupons(), "cart " + i);
+            }
+            assertTrue(fromDatabase.stream().anyMatch(coupons -> coupons.size() > 3));
+        } finally {
+            ReflectionTestUtils.setField(catalogHolder, "inMemory", false);
+        }
+    }
+
+    private static CouponRequest randomCoupon(Random random, int index) {
+        CouponRequest request = new CouponRequest();
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setDiscount(1 + random.nextInt(50));
+        switch (index % 3) {
+            case 0 -> {
+                request.setType("cart-wise");
+                details.setThreshold(random.nextInt(500));
+            }
+            case 1 -> {
+                request.setType("product-wise");
+                details.setProduct_id(1L + random.nextInt(20));
+            }
+            default -> {
+                request.setType("bxgy");
+                List<BuyProduct> buyProducts = new ArrayList<>();
+                // Every seventh BxGy coupon has no buy products and applies to any cart
+                int buyCount = index % 7 == 2 ? 0 : 1 + random.nextInt(2);
+                for (int i = 0; i < buyCount; i++) {
+                    BuyProduct buyProduct = new BuyProduct();
+                    buyProduct.setProduct_id(1L + random.nextInt(20));
+                    buyProduct.setQuantity(1 + random.nextInt(2));
+                    buyProducts.add(buyProduct);
+                }
+                GetProduct getProduct = new GetProduct();
+                getProduct.setProduct_id(1L + random.nextInt(20));
+                getProduct.setQuantity(1);
+                details.setBuy_products(buyProducts);
+                details.setGet_products(List.of(getProduct));
+                details.setRepetition_limit(1 + random.nextInt(3));
+            }
+        }
+        details.setStackable(random.nextBoolean());
+        if (index % 10 == 0) {
+            details.setValid_until(LocalDateTime.now().minusDays(1));
+        } else if (index % 10 == 5) {
+            details.setValid_from(LocalDateTime.now().plusDays(1));
+        } else if (index % 10 == 7) {
+            details.setValid_from(LocalDateTime.now().minusDays(1));
+            details.setValid_until(LocalDateTime.now().plusDays(1));
+        }
+        request.setDetails(details);
+        return request;
+    }
+
+    private static CartRequest randomCart(Random random) {
+        List<CartItem> items = new ArrayList<>();
+        int lines = 1 + random.nextInt(5);
+        for (int i = 0; i < lines; i++) {
+            items.add(new CartItem(1L + random.nextInt(20), 1 + random.nextInt(4), 1 + random.nextInt(15_000) / 100.0));
+        }
+        return new CartRequest(cart(items));
+    }
+
+    private static Cart cart(List<CartItem> items) {
+        Cart cart = new Cart();
+        cart.setItems(items);
+        return cart;
+    }
+}
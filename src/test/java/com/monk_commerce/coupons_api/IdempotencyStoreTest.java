@@ -0,0 +1,151 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.dto.*;
+import com.monk_commerce.coupons_api.exception.RedemptionLimitExceededException;
+import com.monk_commerce.coupons_api.money.Money;
+import com.monk_commerce.coupons_api.service.IdempotencyStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdempotencyStoreTest {
+
+    private final IdempotencyStore store = new IdempotencyStore(100, Duration.ofMinutes(1), Money.DEFAULT);
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @Test
+    public void testDuplicateGetsTheStoredResponse() {
+        // Act
+        ApplyCouponResponse first = apply("key-1", 7L, cart("u1", new CartItem(1L, 2, 10.0), new CartItem(2L, 1, 5.5)));
+        ApplyCouponResponse retry = apply("key-1", 7L, cart("u1", new CartItem(2L, 1, 5.50), new CartItem(1L, 2, 10.0)));
+
+        // Assert
+        assertSame(first, retry);
+        assertEquals(1, computations.get());
+        assertEquals(1, store.getCache().stats().hitCount());
+    }
+
+    @Test
+    public void testDifferentKeyCouponUserOrCartIsComputed() {
+        // Act
+        apply("key-1", 7L, cart("u1", new CartItem(1L, 2, 10.0)));
+        apply("key-2", 7L, cart("u1", new CartItem(1L, 2, 10.0)));
+        apply("key-1", 8L, cart("u1", new CartItem(1L, 2, 10.0)));
+        apply("key-1", 7L, cart("u2", new CartItem(1L, 2, 10.0)));
+        apply("key-1", 7L, cart("u1", new CartItem(1L, 3, 10.0)));
+        apply(null, 7L, cart("u1", new CartItem(1L, 2, 10.0)));
+        apply(null, 7L, cart("u1", new CartItem(1L, 2, 10.0)));
+
+        // Assert
+        assertEquals(7, computations.get());
+    }
+
+    @Test
+    public void testConcurrentDuplicatesShareOneComputation() throws Exception {
+        // Arrange
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CartRequest cart = cart("u1", new CartItem(1L, 2, 10.0));
+
+        // Act
+        CompletableFuture<ApplyCouponResponse> first = CompletableFuture.supplyAsync(() ->
+                store.apply("key-1", 7L, cart, () -> {
+                    computing.countDown();
+                    await(release);
+                    return response();
+                }));
+        assertTrue(computing.await(10, TimeUnit.SECONDS));
+        CompletableFuture<ApplyCouponResponse> duplicate = CompletableFuture.supplyAsync(() -> apply("key-1", 7L, cart));
+        Thread.sleep(50);
+        boolean duplicateWaited = !duplicate.isDone();
+        release.countDown();
+
+        // Assert
+        assertTrue(duplicateWaited);
+        assertSame(first.get(10, TimeUnit.SECONDS), duplicate.get(10, TimeUnit.SECONDS));
+        assertEquals(0, computations.get());
+    }
+
+    @Test
+    public void testFailureIsNotStored() {
+        // Arrange
+        CartRequest cart = cart("u1", new CartItem(1L, 2, 10.0));
+
+        // Act
+        assertThrows(RedemptionLimitExceededException.class, () -> store.apply("key-1", 7L, cart, () -> {
+            throw new RedemptionLimitExceededException("Coupon 7 has reached its redemption limit");
+        }));
+        apply("key-1", 7L, cart);
+
+        // Assert
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void testErrorIsNotStoredAndReleasesDuplicates() throws Exception {
+        // Arrange
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CartRequest cart = cart("u1", new CartItem(1L, 2, 10.0));
+
+        // Act
+        CompletableFuture<ApplyCouponResponse> first = CompletableFuture.supplyAsync(() ->
+                store.apply("key-1", 7L, cart, () -> {
+                    computing.countDown();
+                    await(release);
+                    throw new StackOverflowError();
+                }));
+        assertTrue(computing.await(10, TimeUnit.SECONDS));
+        CompletableFuture<ApplyCouponResponse> duplicate = CompletableFuture.supplyAsync(() -> apply("key-1", 7L, cart));
+        Thread.sleep(50);
+        release.countDown();
+
+        // Assert
+        ExecutionException failed = assertThrows(ExecutionException.class, () -> duplicate.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(StackOverflowError.class, failed.getCause());
+        assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        apply("key-1", 7L, cart);
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void testInvalidKeyIsRejected() {
+        CartRequest cart = cart("u1", new CartItem(1L, 2, 10.0));
+        assertThrows(IllegalArgumentException.class, () -> apply(" ", 7L, cart));
+        assertThrows(IllegalArgumentException.class, () -> apply("k".repeat(IdempotencyStore.MAX_KEY_LENGTH + 1), 7L, cart));
+        assertEquals(0, computations.get());
+    }
+
+    private ApplyCouponResponse apply(String key, Long couponId, CartRequest cartRequest) {
+        return store.apply(key, couponId, cartRequest, () -> {
+            computations.incrementAndGet();
+            return response();
+        });
+    }
+
+    private static ApplyCouponResponse response() {
+        return new ApplyCouponResponse(new UpdatedCart(List.of(), 0, 0, 0), 1);
+    }
+
+    private static CartRequest cart(String userId, CartItem... items) {
+        Cart cart = new Cart();
+        cart.setItems(List.of(items));
+        return new CartRequest(cart, userId);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.money.Money;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+public class MoneyTest {
+
+    @Test
+    public void testConvertsDecimalPricesExactly() {
+        Money money = Money.DEFAULT;
+
+        assertEquals(1999, money.toMinor(19.99));
+        assertEquals(30, money.toMinor(0.1 + 0.2));
+        assertEquals(-505, money.toMinor(-5.05));
+        assertEquals(19.99, money.toMajor(1999));
+        assertEquals(25_000, money.toMinor(250L));
+    }
+
+    @Test
+    public void testPercentOfRoundsOnceWithConfiguredMode() {
+        // 15% of 59.97 is 8.9955 and 15% of 59.90 is 8.985
+        assertEquals(900, new Money(2, RoundingMode.HALF_EVEN).percentOf(5997, 15));
+        assertEquals(898, new Money(2, RoundingMode.HALF_EVEN).percentOf(5990, 15));
+        assertEquals(898, new Money(2, RoundingMode.HALF_DOWN).percentOf(5990, 15));
+        assertEquals(899, new Money(2, RoundingMode.HALF_UP).percentOf(5990, 15));
+        assertEquals(899, new Money(2, RoundingMode.DOWN).percentOf(5997, 15));
+        assertEquals(899, new Money(2, RoundingMode.UP).percentOf(5990, 15));
+        assertEquals(-900, new Money(2, RoundingMode.UP).percentOf(-5997, 15));
+        assertEquals(-899, new Money(2, RoundingMode.CEILING).percentOf(-5997, 15));
+        assertThrows(ArithmeticException.class, () -> new Money(2, RoundingMode.UNNECESSARY).percentOf(5997, 15));
+    }
+
+    @Test
+    public void testDivideMatchesBigDecimalForEveryRoundingMode() {
+        Random random = new Random(3);
+        for (RoundingMode mode : RoundingMode.values()) {
+            if (mode == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            Money money = new Money(2, mode);
+            for (int i = 0; i < 10_000; i++) {
+                long dividend = random.nextInt(2_000_001) - 1_000_000;
+                long divisor = random.nextBoolean() ? 100 : -(1 + random.nextInt(1000));
+                long expected = BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, mode).longValueExact();
+                assertEquals(expected, money.divide(dividend, divisor), dividend + " / " + divisor + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowThrowsInsteadOfWrapping() {
+        Money money = Money.DEFAULT;
+
+        assertThrows(ArithmeticException.class, () -> money.times(Long.MAX_VALUE / 2, 3));
+        assertThrows(ArithmeticException.class, () -> money.percentOf(Long.MAX_VALUE / 10, 50));
+        assertThrows(ArithmeticException.class, () -> money.toMinor(1e30));
+    }
+}
@@ -0,0 +1,138 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.catalog.CouponRule;
+import com.monk_commerce.coupons_api.model.CouponRedemption;
+import com.monk_commerce.coupons_api.repository.CouponRedemptionRepository;
+import com.monk_commerce.coupons_api.service.RedemptionCounters;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@DataJpaTest
+@Import(RedemptionCounters.class)
+public class RedemptionCountersTest {
+
+    private static final int THREADS = 16;
+
+    @Autowired
+    private RedemptionCounters redemptionCounters;
+
+    @Autowired
+    private CouponRedemptionRepository redemptionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void testConcurrentRedemptionsNeverExceedLimits() throws Exception {
+        // Arrange: 50 users racing for 100 redemptions, at most 3 each
+        CouponRule.RedemptionLimits limits = new CouponRule.RedemptionLimits(100, 3);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger redeemed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        for (int call = 0; call < 5_000; call++) {
+            String user = "user-" + (call % 50);
+            futures.add(executor.submit(() -> {
+                start.await();
+                if (redemptionCounters.tryRedeem(1L, user, limits)) {
+                    redeemed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertEquals(100, redeemed.get());
+        assertEquals(100, redemptionCounters.getRedemptions(1L));
+        int perUserTotal = 0;
+        for (int user = 0; user < 50; user++) {
+            int count = redemptionCounters.getRedemptions(1L, "user-" + user);
+            assertTrue(count <= 3, "user-" + user + " redeemed " + count);
+            perUserTotal += count;
+        }
+        assertEquals(100, perUserTotal);
+    }
+
+    @Test
+    public void testCountsSurviveRestartAfterFlush() {
+        // Arrange
+        CouponRule.RedemptionLimits limits = new CouponRule.RedemptionLimits(3, null);
+        assertTrue(redemptionCounters.tryRedeem(2L, "alice", limits));
+        assertTrue(redemptionCounters.tryRedeem(2L, "alice", limits));
+        assertTrue(redemptionCounters.tryRedeem(2L, null, limits));
+
+        // Act
+        redemptionCounters.flush();
+        redemptionCounters.flush();
+        RedemptionCounters restarted = new RedemptionCounters();
+        ReflectionTestUtils.setField(restarted, "redemptionRepository", redemptionRepository);
+        ReflectionTestUtils.setField(restarted, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.invokeMethod(restarted, "load");
+
+        // Assert
+        assertEquals(2, redemptionRepository.findAll().stream().filter(r -> r.getCouponId() == 2L).count());
+        assertEquals(2, redemptionRepository.findById(new CouponRedemption.Key(2L, "alice")).orElseThrow().getRedemptions());
+        assertEquals(3, restarted.getRedemptions(2L));
+        assertEquals(2, restarted.getRedemptions(2L, "alice"));
+        assertFalse(restarted.tryRedeem(2L, "bob", limits));
+    }
+
+    @Test
+    public void testRolledBackRemovalKeepsCounts() {
+        // Arrange
+        CouponRule.RedemptionLimits limits = new CouponRule.RedemptionLimits(1, null);
+        assertTrue(redemptionCounters.tryRedeem(4L, "alice", limits));
+
+        // Act
+        redemptionCounters.removeAfterCommit(4L);
+        TestTransaction.flagForRollback();
+        TestTransaction.end();
+
+        // Assert
+        assertEquals(1, redemptionCounters.getRedemptions(4L));
+        assertFalse(redemptionCounters.tryRedeem(4L, "bob", limits));
+    }
+
+    @Test
+    public void testCommittedRemovalDeletesCounts() {
+        // Arrange
+        CouponRule.RedemptionLimits limits = new CouponRule.RedemptionLimits(1, null);
+        assertTrue(redemptionCounters.tryRedeem(5L, "alice", limits));
+        redemptionCounters.flush();
+
+        // Act
+        redemptionCounters.removeAfterCommit(5L);
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        // Assert
+        assertEquals(0, redemptionCounters.getRedemptions(5L));
+        assertTrue(redemptionRepository.findById(new CouponRedemption.Key(5L, "alice")).isEmpty());
+    }
+
+    @Test
+    public void testPerUserLimitRequiresUser() {
+        CouponRule.RedemptionLimits limits = new CouponRule.RedemptionLimits(null, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> redemptionCounters.tryRedeem(3L, null, limits));
+    }
+}
@@ -0,0 +1,149 @@
+package com.monk_commerce.coupons_api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.monk_commerce.coupons_api.dto.Cart;
+import com.monk_commerce.coupons_api.dto.CartItem;
+import com.monk_commerce.coupons_api.dto.CartRequest;
+import com.monk_commerce.coupons_api.dto.CouponRequest;
+import com.monk_commerce.coupons_api.exception.RedemptionLimitExceededException;
+import com.monk_commerce.coupons_api.service.CouponService;
+import com.monk_commerce.coupons_api.service.RedemptionCounters;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + SharedRedemptionsTest.DATABASE,
+        "spring.jpa.show-sql=false",
+        "coupons.journal.enabled=true",
+        "coupons.journal.poll-interval-ms=20"
+})
+public class SharedRedemptionsTest {
+
+    // Kept open between connections, so a second node in this JVM shares it
+    static final String DATABASE = "jdbc:h2:mem:shared-redemptions;DB_CLOSE_DELAY=-1";
+
+    private static ConfigurableApplicationContext otherNode;
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private RedemptionCounters redemptionCounters;
+
+    @AfterAll
+    static void stopOtherNode() {
+        if (otherNode != null) {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    public void testGlobalLimitHoldsAcrossNodes() throws Exception {
+        // Arrange
+        CouponService otherService = otherNode().getBean(CouponService.class);
+        long id = couponService.createCoupon(cartWise(6, null)).getId();
+        awaitCoupon(otherService, id);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger redeemed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act: 40 users, half of them on each node
+        for (int call = 0; call < 40; call++) {
+            CouponService node = call % 2 == 0 ? couponService : otherService;
+            CartRequest cart = cart("user-" + call);
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    node.applyCoupon(id, cart);
+                    redeemed.incrementAndGet();
+                } catch (RedemptionLimitExceededException e) {
+                    // Expected once the limit is reached
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertEquals(6, redeemed.get());
+        assertEquals(6, redemptionCounters.getRedemptions(id));
+        assertEquals(6, otherNode.getBean(RedemptionCounters.class).getRedemptions(id));
+    }
+
+    @Test
+    public void testPerUserLimitHoldsAcrossNodes() {
+        // Arrange
+        CouponService otherService = otherNode().getBean(CouponService.class);
+        long id = couponService.createCoupon(cartWise(null, 2)).getId();
+        awaitCoupon(otherService, id);
+
+        // Act
+        couponService.applyCoupon(id, cart("alice"));
+        otherService.applyCoupon(id, cart("alice"));
+        otherService.applyCoupon(id, cart("bob"));
+
+        // Assert
+        assertThrows(RedemptionLimitExceededException.class, () -> couponService.applyCoupon(id, cart("alice")));
+        assertThrows(RedemptionLimitExceededException.class, () -> otherService.applyCoupon(id, cart("alice")));
+        assertEquals(2, redemptionCounters.getRedemptions(id, "alice"));
+        assertEquals(3, otherNode.getBean(RedemptionCounters.class).getRedemptions(id));
+    }
+
+    private static ConfigurableApplicationContext otherNode() {
+        if (otherNode == null) {
+            otherNode = new SpringApplicationBuilder(CouponsApiApplication.class)
+                    .web(WebApplicationType.NONE)
+                    // Arguments rather than default properties, which application.properties overrides
+                    .run("--spring.datasource.url=" + DATABASE,
+                            // The schema belongs to the first node
+                            "--spring.jpa.hibernate.ddl-auto=none",
+                            "--spring.jpa.show-sql=false",
+                            "--spring.jmx.enabled=false",
+                            "--coupons.journal.enabled=true",
+                            "--coupons.journal.poll-interval-ms=20");
+        }
+        return otherNode;
+    }
+
+    private static void awaitCoupon(CouponService service, long id) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getCatalog().getRule(id) == null && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertNotNull(service.getCatalog().getRule(id), "coupon " + id + " did not reach the other node");
+    }
+
+    private static CouponRequest cartWise(Integer maxRedemptions, Integer maxRedemptionsPerUser) {
+        CouponRequest request = new CouponRequest();
+        request.setType("cart-wise");
+        CouponRequest.CouponDetails details = new CouponRequest.CouponDetails();
+        details.setThreshold(100);
+        details.setDiscount(10);
+        details.setMax_redemptions(maxRedemptions);
+        details.setMax_redemptions_per_user(maxRedemptionsPerUser);
+        request.setDetails(details);
+        return request;
+    }
+
+    private static CartRequest cart(String userId) {
+        Cart cart = new Cart();
+        cart.setItems(List.of(new CartItem(1L, 3, 50.0)));
+        return new CartRequest(cart, userId);
+    }
+}